@@ -24,22 +24,89 @@ CREATE TABLE IF NOT EXISTS cdn_prefix (
 CREATE TABLE IF NOT EXISTS file_info (
     id BIGINT AUTO_INCREMENT PRIMARY KEY COMMENT '主键ID',
     original_file_name VARCHAR(255) NOT NULL COMMENT '原始文件名',
-    generated_file_name VARCHAR(255) NOT NULL UNIQUE COMMENT '生成的文件名(UUID+时间戳)',
+    generated_file_name VARCHAR(255) NOT NULL COMMENT '生成的文件名(UUID+时间戳)，内容相同的文件共用',
     file_extension VARCHAR(50) COMMENT '文件扩展名',
     file_size BIGINT NOT NULL COMMENT '文件大小(字节)',
     description TEXT COMMENT '文件描述',
-    cdn_prefix VARCHAR(255) NOT NULL COMMENT 'CDN前缀',
-    full_url VARCHAR(500) NOT NULL COMMENT '完整的CDN访问URL',
-    ftp_path VARCHAR(500) NOT NULL COMMENT 'FTP服务器上的路径',
+    cdn_prefix_id BIGINT COMMENT '引用的CDN前缀ID，访问URL在读取时拼接',
+    ftp_path VARCHAR(500) NOT NULL COMMENT 'FTP服务器上的路径（按文件名哈希分级的子目录）',
+    content_hash CHAR(64) COMMENT '内容SHA-256',
+    content_encoding VARCHAR(16) COMMENT '存储编码：gzip表示FTP上保存压缩后的内容，为空表示原样保存',
+    stored_size BIGINT COMMENT 'FTP上保存的字节数（压缩后），为空表示与file_size相同',
+    status VARCHAR(20) NOT NULL DEFAULT 'READY' COMMENT '状态：READY/PENDING(等待写入FTP)/FAILED/PURGING(已删除，等待删除FTP文件)',
+    storage_node VARCHAR(64) COMMENT '主副本所在的FTP存储节点，为空表示第一个节点',
+    replica_nodes VARCHAR(500) COMMENT '已确认写入的副本节点（逗号分隔），为空表示只有主副本',
     upload_time DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '上传时间',
     download_count INT DEFAULT 0 COMMENT '下载次数',
+    deleted_at DATETIME COMMENT '标记删除时间，为空表示未删除，记录由后台清理任务删除',
     INDEX idx_original_file_name (original_file_name),
     INDEX idx_generated_file_name (generated_file_name),
-    INDEX idx_upload_time (upload_time),
+    INDEX idx_upload_time_id (upload_time, id),
     INDEX idx_file_extension (file_extension),
+    INDEX idx_content_hash (content_hash),
+    INDEX idx_status (status),
+    INDEX idx_cdn_prefix_id (cdn_prefix_id),
+    INDEX idx_deleted_at (deleted_at),
     FULLTEXT idx_search (original_file_name, description)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='文件信息表';
 
+-- 创建物理存储对象表（按内容去重，引用计数归零时才删除FTP文件）
+CREATE TABLE IF NOT EXISTS file_object (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY COMMENT '主键ID',
+    content_hash CHAR(64) NOT NULL UNIQUE COMMENT '内容SHA-256',
+    object_name VARCHAR(255) NOT NULL COMMENT 'FTP服务器上的文件名',
+    file_size BIGINT NOT NULL COMMENT '文件大小(字节)',
+    content_encoding VARCHAR(16) COMMENT '存储编码：gzip表示FTP上保存压缩后的内容，为空表示原样保存',
+    stored_size BIGINT COMMENT 'FTP上保存的字节数（压缩后），为空表示与file_size相同',
+    ref_count INT NOT NULL DEFAULT 1 COMMENT '引用计数',
+    storage_node VARCHAR(64) COMMENT '主副本所在的FTP存储节点，为空表示第一个节点',
+    replica_nodes VARCHAR(500) COMMENT '已确认写入的副本节点（逗号分隔），为空表示只有主副本',
+    create_time DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间'
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='物理存储对象表';
+
+-- 创建缩略图变体登记表（删除原图时只删除登记过的变体）
+CREATE TABLE IF NOT EXISTS thumbnail_variant (
+    variant_name VARCHAR(255) PRIMARY KEY COMMENT '存储节点上的变体文件名',
+    source_key VARCHAR(255) NOT NULL COMMENT '原图标识：内容SHA-256，历史数据为生成的文件名',
+    storage_nodes VARCHAR(500) COMMENT '写入过变体的存储节点（逗号分隔），为空表示按变体名在哈希环上选择的节点',
+    create_time DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '登记时间',
+    INDEX idx_source_key (source_key)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='缩略图变体登记表';
+
+-- 已有数据库升级（内容去重）
+-- ALTER TABLE file_info DROP INDEX generated_file_name;
+-- ALTER TABLE file_info ADD COLUMN content_hash CHAR(64) COMMENT '内容SHA-256' AFTER ftp_path, ADD INDEX idx_content_hash (content_hash);
+
+-- 已有数据库升级（异步上传）
+-- ALTER TABLE file_info ADD COLUMN status VARCHAR(20) NOT NULL DEFAULT 'READY' COMMENT '状态：READY/PENDING(等待写入FTP)/FAILED' AFTER content_hash, ADD INDEX idx_status (status);
+
+-- 已有数据库升级（多FTP存储节点）
+-- ALTER TABLE file_info ADD COLUMN storage_node VARCHAR(64) COMMENT '所在的FTP存储节点，为空表示第一个节点' AFTER status;
+-- ALTER TABLE file_object ADD COLUMN storage_node VARCHAR(64) COMMENT '所在的FTP存储节点，为空表示第一个节点' AFTER ref_count;
+
+-- 已有数据库升级（多副本）
+-- ALTER TABLE file_info ADD COLUMN replica_nodes VARCHAR(500) COMMENT '已确认写入的副本节点（逗号分隔），为空表示只有主副本' AFTER storage_node;
+-- ALTER TABLE file_object ADD COLUMN replica_nodes VARCHAR(500) COMMENT '已确认写入的副本节点（逗号分隔），为空表示只有主副本' AFTER storage_node;
+
+-- 已有数据库升级（异步删除）
+-- ALTER TABLE file_info ADD COLUMN deleted_at DATETIME COMMENT '标记删除时间，为空表示未删除，记录由后台清理任务删除' AFTER download_count, ADD INDEX idx_deleted_at (deleted_at);
+
+-- 已有数据库升级（游标分页）
+-- ALTER TABLE file_info DROP INDEX idx_upload_time, ADD INDEX idx_upload_time_id (upload_time, id);
+
+-- 已有数据库升级（压缩存储）
+-- ALTER TABLE file_info ADD COLUMN content_encoding VARCHAR(16) COMMENT '存储编码：gzip表示FTP上保存压缩后的内容，为空表示原样保存' AFTER content_hash, ADD COLUMN stored_size BIGINT COMMENT 'FTP上保存的字节数（压缩后），为空表示与file_size相同' AFTER content_encoding;
+-- ALTER TABLE file_object ADD COLUMN content_encoding VARCHAR(16) COMMENT '存储编码：gzip表示FTP上保存压缩后的内容，为空表示原样保存' AFTER file_size, ADD COLUMN stored_size BIGINT COMMENT 'FTP上保存的字节数（压缩后），为空表示与file_size相同' AFTER content_encoding;
+
+-- 已有数据库升级（CDN前缀引用）：先添加前缀ID列并放开旧列的非空约束，应用启动后在后台迁移，
+-- /api/monitor/cdn-prefix-migration 显示迁移完成且 SELECT COUNT(*) FROM file_info WHERE cdn_prefix_id IS NULL 为0后再删除旧列
+-- ALTER TABLE file_info ADD COLUMN cdn_prefix_id BIGINT COMMENT '引用的CDN前缀ID，访问URL在读取时拼接' AFTER description, ADD INDEX idx_cdn_prefix_id (cdn_prefix_id), MODIFY cdn_prefix VARCHAR(255) NULL, MODIFY full_url VARCHAR(500) NULL;
+-- ALTER TABLE file_info DROP COLUMN cdn_prefix, DROP COLUMN full_url;
+
+-- 已有数据库升级（缩略图变体登记）：执行上面的 CREATE TABLE thumbnail_variant，
+-- 升级前已写回的变体在下次读取时补登记，未再被读取的变体删除原图时不会清理
+-- ALTER TABLE thumbnail_variant ADD COLUMN storage_nodes VARCHAR(500) COMMENT '写入过变体的存储节点（逗号分隔），为空表示按变体名在哈希环上选择的节点' AFTER source_key;
+
 -- 插入默认CDN前缀数据
 INSERT INTO cdn_prefix (name, prefix, description, is_default, is_active) VALUES 
 ('默认CDN', 'https://cdn.example.cn', '系统默认CDN前缀，请根据实际情况修改', TRUE, TRUE),
@@ -47,10 +114,10 @@ INSERT INTO cdn_prefix (name, prefix, description, is_default, is_active) VALUES
 ('测试CDN', 'https://test-cdn.example.cn', '测试环境CDN前缀', FALSE, FALSE);
 
 -- 插入示例文件数据（可选）
-INSERT INTO file_info (original_file_name, generated_file_name, file_extension, file_size, description, cdn_prefix, full_url, ftp_path, upload_time, download_count) VALUES 
-('示例文档.pdf', 'a1b2c3d4_20241201120000.pdf', '.pdf', 1024000, '这是一个示例PDF文档', 'https://cdn.example.cn', 'https://cdn.example.cn/a1b2c3d4_20241201120000.pdf', '/uploads/a1b2c3d4_20241201120000.pdf', '2024-12-01 12:00:00', 5),
-('图片示例.jpg', 'e5f6g7h8_20241201130000.jpg', '.jpg', 512000, '这是一个示例图片文件', 'https://cdn.example.cn', 'https://cdn.example.cn/e5f6g7h8_20241201130000.jpg', '/uploads/e5f6g7h8_20241201130000.jpg', '2024-12-01 13:00:00', 12),
-('压缩包.zip', 'i9j0k1l2_20241201140000.zip', '.zip', 2048000, '这是一个示例压缩包文件', 'https://backup-cdn.example.cn', 'https://backup-cdn.example.cn/i9j0k1l2_20241201140000.zip', '/uploads/i9j0k1l2_20241201140000.zip', '2024-12-01 14:00:00', 3);
+INSERT INTO file_info (original_file_name, generated_file_name, file_extension, file_size, description, cdn_prefix_id, ftp_path, upload_time, download_count) VALUES 
+('示例文档.pdf', 'a1b2c3d4_20241201120000.pdf', '.pdf', 1024000, '这是一个示例PDF文档', 1, '/uploads/a1b2c3d4_20241201120000.pdf', '2024-12-01 12:00:00', 5),
+('图片示例.jpg', 'e5f6g7h8_20241201130000.jpg', '.jpg', 512000, '这是一个示例图片文件', 1, '/uploads/e5f6g7h8_20241201130000.jpg', '2024-12-01 13:00:00', 12),
+('压缩包.zip', 'i9j0k1l2_20241201140000.zip', '.zip', 2048000, '这是一个示例压缩包文件', 2, '/uploads/i9j0k1l2_20241201140000.zip', '2024-12-01 14:00:00', 3);
 
 -- 创建用户和授权（可选，根据实际需要调整）
 -- CREATE USER 'ftp_cdn_user'@'localhost' IDENTIFIED BY 'ftp_cdn_password';
@@ -61,6 +128,8 @@ INSERT INTO file_info (original_file_name, generated_file_name, file_extension,
 SHOW TABLES;
 DESCRIBE cdn_prefix;
 DESCRIBE file_info;
+DESCRIBE file_object;
+DESCRIBE thumbnail_variant;
 
 -- 查询初始数据
 SELECT * FROM cdn_prefix;
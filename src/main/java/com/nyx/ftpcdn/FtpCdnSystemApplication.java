@@ -2,6 +2,7 @@ package com.nyx.ftpcdn;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * FTP-CDN系统主启动类
@@ -9,6 +10,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
  * @author nyx
  */
 @SpringBootApplication
+@EnableScheduling
 public class FtpCdnSystemApplication {
 
     public static void main(String[] args) {
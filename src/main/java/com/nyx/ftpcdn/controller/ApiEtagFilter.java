@@ -0,0 +1,29 @@
+package com.nyx.ftpcdn.controller;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * 列表接口的弱ETag过滤器
+ *
+ * 对 /api/files 和 /cdn/api/* 的响应体计算MD5作为弱ETag，
+ * 轮询的页面带上 If-None-Match 且内容没有变化时返回304，不再重复传输列表。
+ * 下载接口由控制器自行处理强ETag，不经过本过滤器（避免缓冲整个文件）。
+ *
+ * @author nyx
+ */
+@Component
+public class ApiEtagFilter extends ShallowEtagHeaderFilter {
+
+    public ApiEtagFilter() {
+        setWriteWeakETag(true);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return !(path.equals("/api/files") || path.startsWith("/cdn/api/"));
+    }
+}
@@ -1,6 +1,8 @@
 package com.nyx.ftpcdn.controller;
 
 import com.nyx.ftpcdn.entity.CdnPrefix;
+import com.nyx.ftpcdn.entity.CdnPrefixStatus;
+import com.nyx.ftpcdn.service.CdnPrefixHealthService;
 import com.nyx.ftpcdn.service.CdnPrefixService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -24,6 +26,9 @@ public class CdnPrefixController {
     @Autowired
     private CdnPrefixService cdnPrefixService;
     
+    @Autowired
+    private CdnPrefixHealthService cdnPrefixHealthService;
+    
     /**
      * CDN配置页面
      */
@@ -219,13 +224,12 @@ public class CdnPrefixController {
     }
     
     /**
-     * 获取启用的CDN前缀API
+     * 获取启用的CDN前缀API（带探测状态，健康且延迟低的前缀在前）
      */
     @GetMapping("/api/active")
     @ResponseBody
-    public ResponseEntity<List<CdnPrefix>> getActiveCdnPrefixes() {
-        List<CdnPrefix> cdnPrefixes = cdnPrefixService.getAllActivePrefixes();
-        return ResponseEntity.ok(cdnPrefixes);
+    public ResponseEntity<List<CdnPrefixStatus>> getActiveCdnPrefixes() {
+        return ResponseEntity.ok(cdnPrefixHealthService.getActiveStatuses());
     }
     
     /**
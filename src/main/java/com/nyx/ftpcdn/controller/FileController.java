@@ -1,21 +1,40 @@
 package com.nyx.ftpcdn.controller;
 
 import com.github.pagehelper.PageInfo;
+import com.nyx.ftpcdn.entity.BatchUploadResult;
 import com.nyx.ftpcdn.entity.CdnPrefix;
+import com.nyx.ftpcdn.entity.CursorPage;
 import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.service.AsyncUploadService;
 import com.nyx.ftpcdn.service.CdnPrefixService;
+import com.nyx.ftpcdn.service.CompressionService;
 import com.nyx.ftpcdn.service.FileService;
+import com.nyx.ftpcdn.service.ThumbnailService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.MediaType;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,12 +48,45 @@ import java.util.Map;
 @RequestMapping("/")
 public class FileController {
     
+    /** 游标分页每页最大数量 */
+    private static final int MAX_CURSOR_PAGE_SIZE = 1000;
+    
+    /** 下载响应的缓存策略：生成的文件名对应的内容不会变化，允许浏览器和代理长期缓存 */
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+    
+    /** Tomcat sendfile请求属性：容器支持时由连接器直接从文件发送响应体 */
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+    
     @Autowired
     private FileService fileService;
     
     @Autowired
     private CdnPrefixService cdnPrefixService;
     
+    @Autowired
+    private AsyncUploadService asyncUploadService;
+    
+    @Autowired
+    private CompressionService compressionService;
+    
+    @Autowired
+    private ThumbnailService thumbnailService;
+    
+    @Value("${upload.async.default:false}")
+    private boolean asyncUploadDefault;
+    
+    @Value("${upload.batch.max-files:1000}")
+    private int batchMaxFiles;
+    
+    @Value("${delete.batch.max-ids:1000}")
+    private int batchMaxDeleteIds;
+    
+    @Value("${download.sendfile-min-bytes:49152}")
+    private long sendfileMinBytes;
+    
     /**
      * 首页 - 文件管理主页
      */
@@ -74,7 +126,8 @@ public class FileController {
     public ResponseEntity<Map<String, Object>> uploadFile(
             @RequestParam("file") MultipartFile file,
             @RequestParam("description") String description,
-            @RequestParam("cdnPrefix") String cdnPrefix) {
+            @RequestParam("cdnPrefix") String cdnPrefix,
+            @RequestParam(value = "async", required = false) Boolean async) {
         
         Map<String, Object> result = new HashMap<>();
         
@@ -93,6 +146,17 @@ public class FileController {
                 return ResponseEntity.badRequest().body(result);
             }
             
+            // 异步上传：文件暂存到本地后立即返回，由后台写入FTP服务器
+            if (async != null ? async : asyncUploadDefault) {
+                FileInfo fileInfo = asyncUploadService.submit(file, description, cdnPrefix);
+                boolean pending = FileInfo.STATUS_PENDING.equals(fileInfo.getStatus());
+                result.put("success", true);
+                result.put("message", pending ? "文件已接收，正在后台上传" : "文件上传成功");
+                result.put("data", fileInfo);
+                result.put("statusUrl", "/file/" + fileInfo.getId() + "/status");
+                return ResponseEntity.status(pending ? HttpStatus.ACCEPTED : HttpStatus.OK).body(result);
+            }
+            
             // 上传文件
             FileInfo fileInfo = fileService.uploadFile(file, description, cdnPrefix);
             
@@ -109,6 +173,98 @@ public class FileController {
         }
     }
     
+    /**
+     * 批量上传：一个请求包含多个文件，逐个返回上传结果
+     */
+    @PostMapping("/upload/batch")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> uploadFiles(
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam(value = "description", required = false) String description,
+            @RequestParam("cdnPrefix") String cdnPrefix) {
+        
+        Map<String, Object> result = new HashMap<>();
+        
+        // 验证文件数量和大小
+        if (files.isEmpty()) {
+            result.put("success", false);
+            result.put("message", "请选择要上传的文件");
+            return ResponseEntity.badRequest().body(result);
+        }
+        if (files.size() > batchMaxFiles) {
+            result.put("success", false);
+            result.put("message", "单次最多上传" + batchMaxFiles + "个文件");
+            return ResponseEntity.badRequest().body(result);
+        }
+        for (MultipartFile file : files) {
+            if (file.getSize() > 50 * 1024 * 1024) {
+                result.put("success", false);
+                result.put("message", "文件大小不能超过50MB：" + file.getOriginalFilename());
+                return ResponseEntity.badRequest().body(result);
+            }
+        }
+        
+        try {
+            List<BatchUploadResult> results = fileService.uploadFiles(files, description, cdnPrefix);
+            long succeeded = results.stream().filter(BatchUploadResult::isSuccess).count();
+            result.put("success", succeeded == results.size());
+            result.put("message", "上传完成，成功" + succeeded + "个，失败" + (results.size() - succeeded) + "个");
+            result.put("succeeded", succeeded);
+            result.put("failed", results.size() - succeeded);
+            result.put("data", results);
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            result.put("success", false);
+            result.put("message", "批量上传失败：" + e.getMessage());
+            return ResponseEntity.internalServerError().body(result);
+        }
+    }
+    
+    /**
+     * 秒传预检：客户端只提交内容SHA-256，内容已存在时直接返回文件信息
+     */
+    @PostMapping("/upload/instant")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> instantUpload(
+            @RequestParam("hash") String hash,
+            @RequestParam("fileName") String fileName,
+            @RequestParam("fileSize") long fileSize,
+            @RequestParam(value = "description", required = false, defaultValue = "") String description,
+            @RequestParam("cdnPrefix") String cdnPrefix) {
+        
+        Map<String, Object> result = new HashMap<>();
+        
+        try {
+            // 验证哈希格式
+            String contentHash = hash.trim().toLowerCase();
+            if (!contentHash.matches("[0-9a-f]{64}")) {
+                result.put("success", false);
+                result.put("message", "hash必须是64位十六进制SHA-256");
+                return ResponseEntity.badRequest().body(result);
+            }
+            
+            FileInfo fileInfo = fileService.instantUpload(contentHash, fileName, fileSize, description, cdnPrefix);
+            if (fileInfo == null) {
+                result.put("success", true);
+                result.put("exists", false);
+                result.put("message", "文件内容不存在，请上传文件");
+                return ResponseEntity.ok(result);
+            }
+            
+            result.put("success", true);
+            result.put("exists", true);
+            result.put("message", "秒传成功");
+            result.put("data", fileInfo);
+            
+            return ResponseEntity.ok(result);
+            
+        } catch (Exception e) {
+            result.put("success", false);
+            result.put("message", "秒传失败：" + e.getMessage());
+            return ResponseEntity.internalServerError().body(result);
+        }
+    }
+    
     /**
      * 文件详情页
      */
@@ -123,6 +279,27 @@ public class FileController {
         return "file-detail";
     }
     
+    /**
+     * 查询文件上传状态（异步上传时轮询）
+     */
+    @GetMapping("/file/{id}/status")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> getFileStatus(@PathVariable Long id) {
+        Map<String, Object> result = new HashMap<>();
+        
+        FileInfo fileInfo = fileService.getFileById(id);
+        if (fileInfo == null) {
+            result.put("success", false);
+            result.put("message", "文件不存在");
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(result);
+        }
+        
+        result.put("success", true);
+        result.put("status", fileInfo.getStatus());
+        result.put("data", fileInfo);
+        return ResponseEntity.ok(result);
+    }
+    
     /**
      * 更新文件描述
      */
@@ -154,7 +331,7 @@ public class FileController {
     }
     
     /**
-     * 删除文件
+     * 删除文件（立即返回，FTP文件由后台清理）
      */
     @DeleteMapping("/file/{id}")
     @ResponseBody
@@ -180,6 +357,41 @@ public class FileController {
         }
     }
     
+    /**
+     * 批量删除文件：ids=1&ids=2 或 ids=1,2，立即返回，FTP文件由后台批量清理
+     */
+    @PostMapping("/files/delete")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> deleteFiles(@RequestParam("ids") List<Long> ids) {
+        Map<String, Object> result = new HashMap<>();
+        
+        if (ids.isEmpty()) {
+            result.put("success", false);
+            result.put("message", "请选择要删除的文件");
+            return ResponseEntity.badRequest().body(result);
+        }
+        if (ids.size() > batchMaxDeleteIds) {
+            result.put("success", false);
+            result.put("message", "单次最多删除" + batchMaxDeleteIds + "个文件");
+            return ResponseEntity.badRequest().body(result);
+        }
+        
+        try {
+            List<Long> deleted = fileService.deleteFiles(ids);
+            List<Long> notFound = new ArrayList<>(ids);
+            notFound.removeAll(deleted);
+            result.put("success", notFound.isEmpty());
+            result.put("message", "删除完成，成功" + deleted.size() + "个，未找到" + notFound.size() + "个");
+            result.put("deleted", deleted);
+            result.put("notFound", notFound);
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            result.put("success", false);
+            result.put("message", "批量删除失败：" + e.getMessage());
+            return ResponseEntity.internalServerError().body(result);
+        }
+    }
+    
     /**
      * 增加下载次数
      */
@@ -203,53 +415,351 @@ public class FileController {
     }
     
     /**
-     * 下载文件
+     * 下载文件（流式输出，支持Range断点续传）
      */
     @GetMapping("/file/{id}/download")
-    public ResponseEntity<byte[]> downloadFile(@PathVariable Long id) {
-        try {
-            // 获取文件信息
-            FileInfo fileInfo = fileService.getFileById(id);
-            if (fileInfo == null) {
-                return ResponseEntity.notFound().build();
+    public void downloadFile(@PathVariable Long id, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        // 获取文件信息
+        FileInfo fileInfo = fileService.getFileById(id);
+        if (fileInfo == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        
+        // 异步上传尚未写入FTP服务器
+        if (!FileInfo.STATUS_READY.equals(fileInfo.getStatus())) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, "5");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    FileInfo.STATUS_PENDING.equals(fileInfo.getStatus()) ? "文件正在上传中" : "文件上传失败");
+            return;
+        }
+        
+        // 压缩保存的文件：客户端接受gzip时直接输出存储的字节，否则边读边解压（解压输出不支持Range）
+        boolean gzipStored = CompressionService.isGzipStored(fileInfo);
+        boolean passThrough = gzipStored && acceptsGzip(request);
+        boolean decoding = gzipStored && !passThrough;
+        
+        // 设置响应头：内容不会变化，强ETag优先使用内容哈希，没有哈希的旧记录使用生成的文件名；
+        // gzip表示与原始内容是不同的表示，ETag加后缀区分
+        String eTag = "\"" + (fileInfo.getContentHash() != null
+                ? fileInfo.getContentHash() : fileInfo.getGeneratedFileName()) + (passThrough ? "-gzip" : "") + "\"";
+        long lastModified = toEpochMillis(fileInfo.getUploadTime());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, decoding ? "none" : "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE_CACHE_CONTROL);
+        if (gzipStored) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        
+        // 条件请求：If-None-Match优先于If-Modified-Since，命中时直接返回304，不读取FTP也不计下载次数
+        ServletWebRequest webRequest = new ServletWebRequest(request, response);
+        boolean notModified = lastModified > 0
+                ? webRequest.checkNotModified(eTag, lastModified)
+                : webRequest.checkNotModified(eTag);
+        if (notModified) {
+            return;
+        }
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + URLEncoder.encode(fileInfo.getOriginalFileName(), StandardCharsets.UTF_8.toString()));
+        
+        if (passThrough) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, CompressionService.GZIP);
+            compressionService.recordPassThrough(fileInfo);
+        }
+        
+        // 解析Range请求头（If-Range不匹配时返回完整文件），区间按输出的表示（gzip字节或原始内容）计算
+        Long fileSize = passThrough ? CompressionService.getStoredSize(fileInfo) : fileInfo.getFileSize();
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        List<HttpRange> ranges = Collections.emptyList();
+        if (rangeHeader != null && fileSize != null && !decoding && isIfRangeSatisfied(request, eTag, lastModified)) {
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+                validateRanges(ranges, fileSize);
+            } catch (IllegalArgumentException e) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
             }
-            
-            // 从FTP服务器下载文件
-            byte[] fileContent = fileService.downloadFileFromFtp(fileInfo.getGeneratedFileName());
-            if (fileContent == null) {
-                return ResponseEntity.internalServerError().build();
+        }
+        
+        boolean success;
+        if (ranges.isEmpty()) {
+            // 完整文件：从FTP服务器读取文件并直接写入响应
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            if (fileSize != null) {
+                response.setContentLengthLong(fileSize);
             }
-            
-            // 增加下载次数
+            if (!decoding && fileSize != null && trySendfile(fileInfo, 0, fileSize, request)) {
+                success = true;
+            } else {
+                success = decoding
+                        ? fileService.downloadDecodedContent(fileInfo, response.getOutputStream())
+                        : fileService.downloadFileContent(fileInfo, response.getOutputStream());
+            }
+        } else if (ranges.size() == 1) {
+            success = writeSingleRange(fileInfo, fileSize, ranges.get(0), request, response);
+        } else {
+            success = writeMultipleRanges(fileInfo, fileSize, ranges, response);
+        }
+        
+        if (!success) {
+            if (!response.isCommitted()) {
+                response.reset();
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+            return;
+        }
+        
+        // 一次逻辑下载只计数一次：仅当响应包含文件第一个字节时增加下载次数，
+        // 续传和拖动进度产生的后续Range请求不重复计数
+        if (ranges.isEmpty() || ranges.stream().anyMatch(range -> range.getRangeStart(fileSize) == 0)) {
             fileService.incrementDownloadCount(id);
-            
-            // 设置响应头
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-            headers.setContentLength(fileContent.length);
-            headers.set("Content-Disposition", "attachment; filename*=UTF-8''" + java.net.URLEncoder.encode(fileInfo.getOriginalFileName(), StandardCharsets.UTF_8.toString()));
-            
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .body(fileContent);
-                    
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().build();
         }
     }
     
+    /**
+     * 图片缩略图：宽高（w、h至少指定一个）向上取整到尺寸档位，等比缩放到框内。
+     * 变体按内容生成，生成后不会变化，使用与下载相同的长期缓存策略。
+     */
+    @GetMapping("/file/{id}/thumb")
+    public void getThumbnail(@PathVariable Long id,
+                             @RequestParam(required = false) Integer w,
+                             @RequestParam(required = false) Integer h,
+                             HttpServletRequest request, HttpServletResponse response) throws IOException {
+        FileInfo fileInfo = fileService.getFileById(id);
+        if (fileInfo == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (!thumbnailService.isSupported(fileInfo)) {
+            response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "该文件类型不支持缩略图");
+            return;
+        }
+        if (!FileInfo.STATUS_READY.equals(fileInfo.getStatus())) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, "5");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    FileInfo.STATUS_PENDING.equals(fileInfo.getStatus()) ? "文件正在上传中" : "文件上传失败");
+            return;
+        }
+        int width = thumbnailService.snapSize(w);
+        int height = thumbnailService.snapSize(h);
+        if (width == 0 && height == 0) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "请指定宽度w或高度h");
+            return;
+        }
+        
+        String eTag = "\"" + thumbnailService.getVariantName(fileInfo, width, height) + "\"";
+        response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE_CACHE_CONTROL);
+        if (new ServletWebRequest(request, response).checkNotModified(eTag)) {
+            return;
+        }
+        
+        response.setContentType(thumbnailService.getContentType(fileInfo));
+        try {
+            thumbnailService.writeThumbnail(fileInfo, width, height, response.getOutputStream());
+        } catch (ThumbnailService.ThumbnailException e) {
+            if (!response.isCommitted()) {
+                response.reset();
+                if (e.isRetryable()) {
+                    response.setHeader(HttpHeaders.RETRY_AFTER, "5");
+                    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+                } else {
+                    response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, e.getMessage());
+                }
+            }
+        }
+    }
+    
+    /**
+     * 输出单个区间（206 Partial Content）
+     */
+    private boolean writeSingleRange(FileInfo fileInfo, long fileSize, HttpRange range,
+                                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long start = range.getRangeStart(fileSize);
+        long end = range.getRangeEnd(fileSize);
+        
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileSize);
+        response.setContentLengthLong(end - start + 1);
+        
+        if (trySendfile(fileInfo, start, end - start + 1, request)) {
+            return true;
+        }
+        return fileService.downloadFileContent(fileInfo, start, end - start + 1, response.getOutputStream());
+    }
+    
+    /**
+     * 保存的内容在本地有完整文件（磁盘缓存或本地存储节点）且容器支持sendfile时，
+     * 设置Tomcat的sendfile属性，由连接器在请求处理结束后直接从文件发送响应体，
+     * 不经过Servlet输出流（明文连接下为FileChannel.transferTo到套接字的零拷贝）。
+     * 调用前须已设置Content-Length，且不能再向响应写入内容。
+     * 
+     * @return 已交给sendfile返回true，否则调用方流式输出
+     */
+    private boolean trySendfile(FileInfo fileInfo, long start, long length, HttpServletRequest request) {
+        if (length < sendfileMinBytes || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            return false;
+        }
+        Path path = fileService.getLocalContentPath(fileInfo, length);
+        if (path == null) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME_ATTR, path.toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START_ATTR, start);
+        request.setAttribute(SENDFILE_END_ATTR, start + length);
+        return true;
+    }
+    
+    /**
+     * 输出多个区间（206 multipart/byteranges）
+     */
+    private boolean writeMultipleRanges(FileInfo fileInfo, long fileSize, List<HttpRange> ranges,
+                                        HttpServletResponse response) throws IOException {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        
+        // 预先生成每个分段的头部，以便计算准确的Content-Length
+        List<byte[]> partHeaders = new ArrayList<>();
+        long contentLength = 0;
+        for (HttpRange range : ranges) {
+            long start = range.getRangeStart(fileSize);
+            long end = range.getRangeEnd(fileSize);
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + MediaType.APPLICATION_OCTET_STREAM_VALUE + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": bytes " + start + "-" + end + "/" + fileSize + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + (end - start + 1);
+        }
+        byte[] closeDelimiter = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        contentLength += closeDelimiter.length;
+        
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        
+        OutputStream outputStream = response.getOutputStream();
+        for (int i = 0; i < ranges.size(); i++) {
+            long start = ranges.get(i).getRangeStart(fileSize);
+            long end = ranges.get(i).getRangeEnd(fileSize);
+            outputStream.write(partHeaders.get(i));
+            if (!fileService.downloadFileContent(fileInfo, start, end - start + 1, outputStream)) {
+                return false;
+            }
+        }
+        outputStream.write(closeDelimiter);
+        return true;
+    }
+    
+    /**
+     * 校验Range是否可满足
+     */
+    private void validateRanges(List<HttpRange> ranges, long fileSize) {
+        long total = 0;
+        for (HttpRange range : ranges) {
+            long start = range.getRangeStart(fileSize);
+            long end = range.getRangeEnd(fileSize);
+            if (start >= fileSize || start > end) {
+                throw new IllegalArgumentException("Range超出文件范围");
+            }
+            total += end - start + 1;
+        }
+        if (ranges.size() > 1 && total > fileSize) {
+            throw new IllegalArgumentException("Range总长度超过文件大小");
+        }
+    }
+    
+    /**
+     * 客户端是否接受gzip编码（Accept-Encoding中包含gzip或*且q值不为0）
+     */
+    private boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase(CompressionService.GZIP) && !name.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * 判断If-Range条件是否成立（未携带If-Range时视为成立）
+     */
+    private boolean isIfRangeSatisfied(HttpServletRequest request, String eTag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range只接受强校验
+            return ifRange.equals(eTag);
+        }
+        try {
+            long ifRangeTime = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return lastModified > 0 && ifRangeTime == lastModified / 1000 * 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * 上传时间转换为毫秒时间戳
+     */
+    private long toEpochMillis(LocalDateTime time) {
+        if (time == null) {
+            return -1;
+        }
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
     /**
      * 获取文件列表API
+     * 
+     * 传入cursor参数（第一页传空值）时使用游标分页：按 (上传时间, ID) 定位，返回nextCursor，
+     * 总数仅在withTotal=true时统计；否则按页码分页。
      */
     @GetMapping("/api/files")
     @ResponseBody
-    public ResponseEntity<PageInfo<FileInfo>> getFileList(
+    public ResponseEntity<?> getFileList(
             @RequestParam(defaultValue = "1") int page,
             @RequestParam(defaultValue = "10") int size,
-            @RequestParam(required = false) String keyword) {
+            @RequestParam(required = false) String keyword,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean withTotal) {
+        
+        boolean search = keyword != null && !keyword.trim().isEmpty();
+        if (cursor != null) {
+            int pageSize = Math.max(1, Math.min(size, MAX_CURSOR_PAGE_SIZE));
+            try {
+                CursorPage<FileInfo> cursorPage = search
+                        ? fileService.searchFilePage(keyword.trim(), cursor, pageSize, withTotal)
+                        : fileService.getFilePage(cursor, pageSize, withTotal);
+                return ResponseEntity.ok(cursorPage);
+            } catch (IllegalArgumentException e) {
+                Map<String, Object> result = new HashMap<>();
+                result.put("success", false);
+                result.put("message", e.getMessage());
+                return ResponseEntity.badRequest().body(result);
+            }
+        }
         
         PageInfo<FileInfo> pageInfo;
-        if (keyword != null && !keyword.trim().isEmpty()) {
+        if (search) {
             pageInfo = fileService.searchFiles(keyword.trim(), page, size);
         } else {
             pageInfo = fileService.getFileList(page, size);
@@ -0,0 +1,289 @@
+package com.nyx.ftpcdn.controller;
+
+import com.nyx.ftpcdn.service.AsyncUploadService;
+import com.nyx.ftpcdn.service.CdnPrefixHealthService;
+import com.nyx.ftpcdn.service.CdnPrefixMigrationService;
+import com.nyx.ftpcdn.service.CompressionService;
+import com.nyx.ftpcdn.service.DiskCacheService;
+import com.nyx.ftpcdn.service.DownloadCounterService;
+import com.nyx.ftpcdn.service.FilePurgeService;
+import com.nyx.ftpcdn.service.FileSearchIndex;
+import com.nyx.ftpcdn.service.FileStatsService;
+import com.nyx.ftpcdn.service.FtpService;
+import com.nyx.ftpcdn.service.MemoryCacheService;
+import com.nyx.ftpcdn.service.StorageLayoutMigrationService;
+import com.nyx.ftpcdn.service.StorageRebalanceService;
+import com.nyx.ftpcdn.service.ThumbnailService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 运行状态监控控制器
+ * 
+ * @author nyx
+ */
+@RestController
+@RequestMapping("/api/monitor")
+public class MonitorController {
+    
+    @Autowired
+    private FtpService ftpService;
+    
+    @Autowired
+    private DiskCacheService diskCacheService;
+    
+    @Autowired
+    private MemoryCacheService memoryCacheService;
+    
+    @Autowired
+    private AsyncUploadService asyncUploadService;
+    
+    @Autowired
+    private StorageRebalanceService storageRebalanceService;
+    
+    @Autowired
+    private StorageLayoutMigrationService storageLayoutMigrationService;
+    
+    @Autowired
+    private CdnPrefixMigrationService cdnPrefixMigrationService;
+    
+    @Autowired
+    private CdnPrefixHealthService cdnPrefixHealthService;
+    
+    @Autowired
+    private FilePurgeService filePurgeService;
+    
+    @Autowired
+    private DownloadCounterService downloadCounterService;
+    
+    @Autowired
+    private FileSearchIndex fileSearchIndex;
+    
+    @Autowired
+    private FileStatsService fileStatsService;
+    
+    @Autowired
+    private CompressionService compressionService;
+    
+    @Autowired
+    private ThumbnailService thumbnailService;
+    
+    /**
+     * FTP连接池统计（按存储节点）
+     */
+    @GetMapping("/ftp-pool")
+    public ResponseEntity<Map<String, Object>> getFtpPoolMetrics() {
+        return ResponseEntity.ok(ftpService.getPoolMetrics());
+    }
+    
+    /**
+     * 本地磁盘缓存统计
+     */
+    @GetMapping("/disk-cache")
+    public ResponseEntity<Map<String, Object>> getDiskCacheMetrics() {
+        return ResponseEntity.ok(diskCacheService.getMetrics());
+    }
+    
+    /**
+     * 堆外热点对象缓存统计
+     */
+    @GetMapping("/memory-cache")
+    public ResponseEntity<Map<String, Object>> getMemoryCacheMetrics() {
+        return ResponseEntity.ok(memoryCacheService.getMetrics());
+    }
+    
+    /**
+     * 异步上传队列统计
+     */
+    @GetMapping("/upload-queue")
+    public ResponseEntity<Map<String, Object>> getUploadQueueMetrics() {
+        return ResponseEntity.ok(asyncUploadService.getMetrics());
+    }
+    
+    /**
+     * 副本配置与各存储节点健康状况（读取延迟、连续失败次数）
+     */
+    @GetMapping("/replication")
+    public ResponseEntity<Map<String, Object>> getReplicationMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("replicationFactor", ftpService.getReplicationFactor());
+        metrics.put("writeQuorum", ftpService.getWriteQuorum());
+        metrics.put("nodes", ftpService.getNodeHealth());
+        return ResponseEntity.ok(metrics);
+    }
+    
+    /**
+     * 大文件分段并行下载统计
+     */
+    @GetMapping("/segmented-download")
+    public ResponseEntity<Map<String, Object>> getSegmentedDownloadMetrics() {
+        return ResponseEntity.ok(ftpService.getSegmentedMetrics());
+    }
+    
+    /**
+     * 存储节点重平衡与副本修复统计（包括各节点缺少的副本数）
+     */
+    @GetMapping("/rebalance")
+    public ResponseEntity<Map<String, Object>> getRebalanceMetrics() {
+        return ResponseEntity.ok(storageRebalanceService.getMetrics());
+    }
+    
+    /**
+     * 手动触发一轮存储节点重平衡
+     */
+    @PostMapping("/rebalance")
+    public ResponseEntity<Map<String, Object>> triggerRebalance() {
+        Map<String, Object> result = new HashMap<>();
+        boolean started = storageRebalanceService.trigger();
+        result.put("success", started);
+        result.put("message", started ? "重平衡已开始" : "重平衡正在进行中");
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * 存储目录布局迁移统计（平铺文件移动到哈希分区目录）
+     */
+    @GetMapping("/layout-migration")
+    public ResponseEntity<Map<String, Object>> getLayoutMigrationMetrics() {
+        return ResponseEntity.ok(storageLayoutMigrationService.getMetrics());
+    }
+    
+    /**
+     * 手动触发一轮存储目录布局迁移
+     */
+    @PostMapping("/layout-migration")
+    public ResponseEntity<Map<String, Object>> triggerLayoutMigration() {
+        Map<String, Object> result = new HashMap<>();
+        boolean started = storageLayoutMigrationService.trigger();
+        result.put("success", started);
+        result.put("message", started ? "迁移已开始" : "迁移正在进行中");
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * CDN前缀引用迁移统计（历史记录的前缀URL换算为前缀ID）
+     */
+    @GetMapping("/cdn-prefix-migration")
+    public ResponseEntity<Map<String, Object>> getCdnPrefixMigrationMetrics() {
+        return ResponseEntity.ok(cdnPrefixMigrationService.getMetrics());
+    }
+    
+    /**
+     * CDN前缀健康探测统计（各前缀的状态见 /cdn/api/active）
+     */
+    @GetMapping("/cdn-probe")
+    public ResponseEntity<Map<String, Object>> getCdnProbeMetrics() {
+        return ResponseEntity.ok(cdnPrefixHealthService.getMetrics());
+    }
+    
+    /**
+     * 手动触发一轮CDN前缀引用迁移
+     */
+    @PostMapping("/cdn-prefix-migration")
+    public ResponseEntity<Map<String, Object>> triggerCdnPrefixMigration() {
+        Map<String, Object> result = new HashMap<>();
+        boolean started = cdnPrefixMigrationService.trigger();
+        result.put("success", started);
+        result.put("message", started ? "迁移已开始" : "迁移正在进行中");
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * 已删除文件的后台清理统计
+     */
+    @GetMapping("/purge")
+    public ResponseEntity<Map<String, Object>> getPurgeMetrics() {
+        return ResponseEntity.ok(filePurgeService.getMetrics());
+    }
+    
+    /**
+     * 手动触发一轮已删除文件清理
+     */
+    @PostMapping("/purge")
+    public ResponseEntity<Map<String, Object>> triggerPurge() {
+        Map<String, Object> result = new HashMap<>();
+        boolean started = filePurgeService.trigger();
+        result.put("success", started);
+        result.put("message", started ? "清理已开始" : "清理正在进行中");
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * 下载次数写回统计（未写回的次数、批量写回的行数）
+     */
+    @GetMapping("/download-counter")
+    public ResponseEntity<Map<String, Object>> getDownloadCounterMetrics() {
+        return ResponseEntity.ok(downloadCounterService.getMetrics());
+    }
+    
+    /**
+     * 文件搜索索引统计（文档数、n-gram数、倒排表大小、平均查询耗时）
+     */
+    @GetMapping("/search-index")
+    public ResponseEntity<Map<String, Object>> getSearchIndexMetrics() {
+        return ResponseEntity.ok(fileSearchIndex.getMetrics());
+    }
+    
+    /**
+     * 手动重建文件搜索索引
+     */
+    @PostMapping("/search-index")
+    public ResponseEntity<Map<String, Object>> rebuildSearchIndex() {
+        Map<String, Object> result = new HashMap<>();
+        boolean started = fileSearchIndex.rebuild();
+        result.put("success", started);
+        result.put("message", started ? "重建已开始" : "重建正在进行中");
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * 文件统计（文件总数、总字节数、各扩展名文件数，来自内存计数器）
+     */
+    @GetMapping("/file-stats")
+    public ResponseEntity<Map<String, Object>> getFileStats() {
+        return ResponseEntity.ok(fileStatsService.getMetrics());
+    }
+    
+    /**
+     * 立即与数据库校准文件统计
+     */
+    @PostMapping("/file-stats")
+    public ResponseEntity<Map<String, Object>> reconcileFileStats() {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            fileStatsService.reconcile();
+            result.put("success", true);
+            result.put("message", "校准完成");
+            result.put("data", fileStatsService.getMetrics());
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            result.put("success", false);
+            result.put("message", "校准失败：" + e.getMessage());
+            return ResponseEntity.internalServerError().body(result);
+        }
+    }
+    
+    /**
+     * 压缩存储统计（压缩的文件数、压缩率、直接输出gzip和解压输出的下载次数）
+     */
+    @GetMapping("/compression")
+    public ResponseEntity<Map<String, Object>> getCompression() {
+        return ResponseEntity.ok(compressionService.getMetrics());
+    }
+    
+    /**
+     * 缩略图统计（缓存命中、从存储节点读取、生成、合并等待及排队数）
+     */
+    @GetMapping("/thumbnail")
+    public ResponseEntity<Map<String, Object>> getThumbnail() {
+        return ResponseEntity.ok(thumbnailService.getMetrics());
+    }
+}
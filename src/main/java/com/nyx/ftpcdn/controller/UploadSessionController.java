@@ -0,0 +1,145 @@
+package com.nyx.ftpcdn.controller;
+
+import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.entity.UploadSession;
+import com.nyx.ftpcdn.service.UploadSessionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 分片上传控制器
+ *
+ * @author nyx
+ */
+@RestController
+@RequestMapping("/upload/sessions")
+public class UploadSessionController {
+
+    @Autowired
+    private UploadSessionService uploadSessionService;
+
+    /**
+     * 创建上传会话
+     */
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> createSession(
+            @RequestParam String fileName,
+            @RequestParam long fileSize,
+            @RequestParam(required = false) Integer chunkSize,
+            @RequestParam(required = false, defaultValue = "") String description,
+            @RequestParam String cdnPrefix) {
+
+        Map<String, Object> result = new HashMap<>();
+
+        try {
+            if (fileName.trim().isEmpty()) {
+                result.put("success", false);
+                result.put("message", "文件名不能为空");
+                return ResponseEntity.badRequest().body(result);
+            }
+
+            UploadSession session = uploadSessionService.createSession(
+                fileName.trim(), fileSize, chunkSize, description, cdnPrefix);
+
+            result.put("success", true);
+            result.put("message", "上传会话创建成功");
+            result.put("data", session);
+
+            return ResponseEntity.ok(result);
+
+        } catch (Exception e) {
+            result.put("success", false);
+            result.put("message", "创建上传会话失败：" + e.getMessage());
+            return ResponseEntity.badRequest().body(result);
+        }
+    }
+
+    /**
+     * 查询上传会话（包含已接收和缺失的分片）
+     */
+    @GetMapping("/{sessionId}")
+    public ResponseEntity<Map<String, Object>> getSession(@PathVariable String sessionId) {
+        Map<String, Object> result = new HashMap<>();
+
+        UploadSession session = uploadSessionService.getSession(sessionId);
+        if (session == null) {
+            result.put("success", false);
+            result.put("message", "上传会话不存在或已过期");
+            return ResponseEntity.status(404).body(result);
+        }
+
+        result.put("success", true);
+        result.put("data", session);
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * 上传分片（请求体为分片原始字节，可并发、可重复上传）
+     */
+    @PutMapping("/{sessionId}/chunks/{index}")
+    public ResponseEntity<Map<String, Object>> uploadChunk(
+            @PathVariable String sessionId,
+            @PathVariable int index,
+            HttpServletRequest request) {
+
+        Map<String, Object> result = new HashMap<>();
+
+        try {
+            UploadSession session = uploadSessionService.receiveChunk(sessionId, index, request.getInputStream());
+
+            result.put("success", true);
+            result.put("message", "分片上传成功");
+            result.put("index", index);
+            result.put("receivedChunks", session.getReceivedChunks().size());
+            result.put("totalChunks", session.getTotalChunks());
+
+            return ResponseEntity.ok(result);
+
+        } catch (Exception e) {
+            result.put("success", false);
+            result.put("message", "分片上传失败：" + e.getMessage());
+            return ResponseEntity.badRequest().body(result);
+        }
+    }
+
+    /**
+     * 提交上传会话
+     */
+    @PostMapping("/{sessionId}/commit")
+    public ResponseEntity<Map<String, Object>> commitSession(@PathVariable String sessionId) {
+        Map<String, Object> result = new HashMap<>();
+
+        try {
+            FileInfo fileInfo = uploadSessionService.commitSession(sessionId);
+
+            result.put("success", true);
+            result.put("message", "文件上传成功");
+            result.put("data", fileInfo);
+
+            return ResponseEntity.ok(result);
+
+        } catch (Exception e) {
+            result.put("success", false);
+            result.put("message", "文件上传失败：" + e.getMessage());
+            return ResponseEntity.internalServerError().body(result);
+        }
+    }
+
+    /**
+     * 取消上传会话
+     */
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<Map<String, Object>> abortSession(@PathVariable String sessionId) {
+        Map<String, Object> result = new HashMap<>();
+
+        boolean success = uploadSessionService.abortSession(sessionId);
+        result.put("success", success);
+        result.put("message", success ? "上传会话已取消" : "上传会话不存在或已过期");
+        return ResponseEntity.ok(result);
+    }
+}
@@ -0,0 +1,80 @@
+package com.nyx.ftpcdn.entity;
+
+/**
+ * 批量上传中单个文件的结果
+ * 
+ * @author nyx
+ */
+public class BatchUploadResult {
+    
+    private String originalFileName;  // 原始文件名
+    private boolean success;          // 是否上传成功
+    private String message;           // 结果说明
+    private FileInfo data;            // 上传成功的文件信息
+    
+    public BatchUploadResult() {}
+    
+    public BatchUploadResult(String originalFileName) {
+        this.originalFileName = originalFileName;
+    }
+    
+    /**
+     * 标记为成功
+     */
+    public void succeed(FileInfo fileInfo, String message) {
+        this.success = true;
+        this.data = fileInfo;
+        this.message = message;
+    }
+    
+    /**
+     * 标记为失败
+     */
+    public void fail(String message) {
+        this.success = false;
+        this.data = null;
+        this.message = message;
+    }
+    
+    // Getters and Setters
+    public String getOriginalFileName() {
+        return originalFileName;
+    }
+    
+    public void setOriginalFileName(String originalFileName) {
+        this.originalFileName = originalFileName;
+    }
+    
+    public boolean isSuccess() {
+        return success;
+    }
+    
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    public void setMessage(String message) {
+        this.message = message;
+    }
+    
+    public FileInfo getData() {
+        return data;
+    }
+    
+    public void setData(FileInfo data) {
+        this.data = data;
+    }
+    
+    @Override
+    public String toString() {
+        return "BatchUploadResult{" +
+                "originalFileName='" + originalFileName + '\'' +
+                ", success=" + success +
+                ", message='" + message + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,107 @@
+package com.nyx.ftpcdn.entity;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+
+/**
+ * CDN前缀及其探测状态（前缀字段展开输出，与CdnPrefix的JSON格式兼容）
+ *
+ * @author nyx
+ */
+public class CdnPrefixStatus {
+
+    @JsonUnwrapped
+    private CdnPrefix prefix;         // CDN前缀
+    private boolean healthy;          // 是否健康（尚未探测时视为健康）
+    private Double latencyMs;         // 探测延迟的指数加权平均（毫秒），没有成功的探测时为null
+    private double errorRate;         // 探测失败率的指数加权平均
+    private long probes;              // 探测次数
+    private Integer lastStatus;       // 最近一次探测的HTTP状态码，连接失败时为null
+    private String lastError;         // 最近一次探测失败的原因
+    private long lastProbedAt;        // 最近一次探测时间（毫秒时间戳）
+
+    public CdnPrefixStatus() {}
+
+    public CdnPrefixStatus(CdnPrefix prefix) {
+        this.prefix = prefix;
+        this.healthy = true;
+    }
+
+    // Getters and Setters
+    public CdnPrefix getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(CdnPrefix prefix) {
+        this.prefix = prefix;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    public Double getLatencyMs() {
+        return latencyMs;
+    }
+
+    public void setLatencyMs(Double latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public long getProbes() {
+        return probes;
+    }
+
+    public void setProbes(long probes) {
+        this.probes = probes;
+    }
+
+    public Integer getLastStatus() {
+        return lastStatus;
+    }
+
+    public void setLastStatus(Integer lastStatus) {
+        this.lastStatus = lastStatus;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public long getLastProbedAt() {
+        return lastProbedAt;
+    }
+
+    public void setLastProbedAt(long lastProbedAt) {
+        this.lastProbedAt = lastProbedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "CdnPrefixStatus{" +
+                "prefix=" + prefix +
+                ", healthy=" + healthy +
+                ", latencyMs=" + latencyMs +
+                ", errorRate=" + errorRate +
+                ", probes=" + probes +
+                ", lastStatus=" + lastStatus +
+                ", lastError='" + lastError + '\'' +
+                ", lastProbedAt=" + lastProbedAt +
+                '}';
+    }
+}
@@ -0,0 +1,78 @@
+package com.nyx.ftpcdn.entity;
+
+import java.util.List;
+
+/**
+ * 游标分页结果
+ *
+ * @author nyx
+ */
+public class CursorPage<T> {
+
+    private List<T> list;       // 当前页数据
+    private int size;           // 当前页数量
+    private String nextCursor;  // 下一页游标，没有下一页时为null
+    private boolean hasNext;    // 是否有下一页
+    private Long total;         // 总数，未请求时为null
+
+    public CursorPage() {}
+
+    public CursorPage(List<T> list, String nextCursor, Long total) {
+        this.list = list;
+        this.size = list.size();
+        this.nextCursor = nextCursor;
+        this.hasNext = nextCursor != null;
+        this.total = total;
+    }
+
+    // Getters and Setters
+    public List<T> getList() {
+        return list;
+    }
+
+    public void setList(List<T> list) {
+        this.list = list;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public boolean isHasNext() {
+        return hasNext;
+    }
+
+    public void setHasNext(boolean hasNext) {
+        this.hasNext = hasNext;
+    }
+
+    public Long getTotal() {
+        return total;
+    }
+
+    public void setTotal(Long total) {
+        this.total = total;
+    }
+
+    @Override
+    public String toString() {
+        return "CursorPage{" +
+                "size=" + size +
+                ", nextCursor='" + nextCursor + '\'' +
+                ", hasNext=" + hasNext +
+                ", total=" + total +
+                '}';
+    }
+}
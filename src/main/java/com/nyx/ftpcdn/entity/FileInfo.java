@@ -9,31 +9,50 @@ import java.time.LocalDateTime;
  */
 public class FileInfo {
     
+    /** 文件已写入FTP服务器，可正常访问 */
+    public static final String STATUS_READY = "READY";
+    
+    /** 文件已暂存在本地，等待后台写入FTP服务器 */
+    public static final String STATUS_PENDING = "PENDING";
+    
+    /** 后台写入FTP服务器失败（已超过最大重试次数） */
+    public static final String STATUS_FAILED = "FAILED";
+    
+    /** 已标记删除并释放了存储对象的最后一个引用，等待后台删除FTP文件 */
+    public static final String STATUS_PURGING = "PURGING";
+    
     private Long id;
     private String originalFileName;  // 原始文件名
     private String generatedFileName; // 生成的文件名(UUID+时间戳)
     private String fileExtension;     // 文件扩展名
     private Long fileSize;            // 文件大小(字节)
     private String description;       // 文件描述
-    private String cdnPrefix;         // CDN前缀
-    private String fullUrl;           // 完整的CDN访问URL
+    private Long cdnPrefixId;         // 引用的CDN前缀ID
+    private String cdnPrefix;         // CDN前缀（读取时根据cdnPrefixId填充，不保存）
+    private String fullUrl;           // 完整的CDN访问URL（读取时拼接，不保存）
     private String ftpPath;           // FTP服务器上的路径
+    private String contentHash;       // 内容SHA-256（十六进制）
+    private String contentEncoding;   // 存储编码：gzip表示FTP上保存的是压缩后的内容，NULL表示原样保存
+    private Long storedSize;          // FTP上保存的字节数（压缩后），历史数据为NULL
+    private String status;            // 状态：READY/PENDING/FAILED/PURGING
+    private String storageNode;       // 主副本所在的FTP存储节点
+    private String replicaNodes;      // 已确认写入的副本节点（逗号分隔）
     private LocalDateTime uploadTime; // 上传时间
     private Integer downloadCount;    // 下载次数
+    private LocalDateTime deletedAt;  // 标记删除时间，未删除为NULL
     
     public FileInfo() {}
     
     public FileInfo(String originalFileName, String generatedFileName, String fileExtension, 
-                   Long fileSize, String description, String cdnPrefix, String fullUrl, 
-                   String ftpPath) {
+                   Long fileSize, String description, Long cdnPrefixId, String ftpPath) {
         this.originalFileName = originalFileName;
         this.generatedFileName = generatedFileName;
         this.fileExtension = fileExtension;
         this.fileSize = fileSize;
         this.description = description;
-        this.cdnPrefix = cdnPrefix;
-        this.fullUrl = fullUrl;
+        this.cdnPrefixId = cdnPrefixId;
         this.ftpPath = ftpPath;
+        this.status = STATUS_READY;
         this.uploadTime = LocalDateTime.now();
         this.downloadCount = 0;
     }
@@ -87,6 +106,14 @@ public class FileInfo {
         this.description = description;
     }
     
+    public Long getCdnPrefixId() {
+        return cdnPrefixId;
+    }
+    
+    public void setCdnPrefixId(Long cdnPrefixId) {
+        this.cdnPrefixId = cdnPrefixId;
+    }
+    
     public String getCdnPrefix() {
         return cdnPrefix;
     }
@@ -111,6 +138,54 @@ public class FileInfo {
         this.ftpPath = ftpPath;
     }
     
+    public String getContentHash() {
+        return contentHash;
+    }
+    
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+    
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+    
+    public void setContentEncoding(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+    
+    public Long getStoredSize() {
+        return storedSize;
+    }
+    
+    public void setStoredSize(Long storedSize) {
+        this.storedSize = storedSize;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public void setStatus(String status) {
+        this.status = status;
+    }
+    
+    public String getStorageNode() {
+        return storageNode;
+    }
+    
+    public void setStorageNode(String storageNode) {
+        this.storageNode = storageNode;
+    }
+    
+    public String getReplicaNodes() {
+        return replicaNodes;
+    }
+    
+    public void setReplicaNodes(String replicaNodes) {
+        this.replicaNodes = replicaNodes;
+    }
+    
     public LocalDateTime getUploadTime() {
         return uploadTime;
     }
@@ -127,6 +202,14 @@ public class FileInfo {
         this.downloadCount = downloadCount;
     }
     
+    public LocalDateTime getDeletedAt() {
+        return deletedAt;
+    }
+    
+    public void setDeletedAt(LocalDateTime deletedAt) {
+        this.deletedAt = deletedAt;
+    }
+    
     @Override
     public String toString() {
         return "FileInfo{" +
@@ -136,11 +219,19 @@ public class FileInfo {
                 ", fileExtension='" + fileExtension + '\'' +
                 ", fileSize=" + fileSize +
                 ", description='" + description + '\'' +
+                ", cdnPrefixId=" + cdnPrefixId +
                 ", cdnPrefix='" + cdnPrefix + '\'' +
                 ", fullUrl='" + fullUrl + '\'' +
                 ", ftpPath='" + ftpPath + '\'' +
+                ", contentHash='" + contentHash + '\'' +
+                ", contentEncoding='" + contentEncoding + '\'' +
+                ", storedSize=" + storedSize +
+                ", status='" + status + '\'' +
+                ", storageNode='" + storageNode + '\'' +
+                ", replicaNodes='" + replicaNodes + '\'' +
                 ", uploadTime=" + uploadTime +
                 ", downloadCount=" + downloadCount +
+                ", deletedAt=" + deletedAt +
                 '}';
     }
 }
\ No newline at end of file
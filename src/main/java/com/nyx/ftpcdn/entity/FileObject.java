@@ -0,0 +1,133 @@
+package com.nyx.ftpcdn.entity;
+
+import java.time.LocalDateTime;
+
+/**
+ * 物理存储对象实体类（按内容SHA-256去重，多个文件记录可引用同一对象）
+ * 
+ * @author nyx
+ */
+public class FileObject {
+    
+    private Long id;
+    private String contentHash;       // 内容SHA-256（十六进制）
+    private String objectName;        // FTP服务器上的文件名
+    private Long fileSize;            // 文件大小(字节)
+    private String contentEncoding;   // 存储编码：gzip表示FTP上保存的是压缩后的内容，NULL表示原样保存
+    private Long storedSize;          // FTP上保存的字节数（压缩后）
+    private Integer refCount;         // 引用计数
+    private String storageNode;       // 主副本所在的FTP存储节点
+    private String replicaNodes;      // 已确认写入的副本节点（逗号分隔）
+    private LocalDateTime createTime; // 创建时间
+    
+    public FileObject() {}
+    
+    public FileObject(String contentHash, String objectName, Long fileSize, String storageNode,
+                      String replicaNodes) {
+        this.contentHash = contentHash;
+        this.objectName = objectName;
+        this.fileSize = fileSize;
+        this.storedSize = fileSize;
+        this.storageNode = storageNode;
+        this.replicaNodes = replicaNodes;
+        this.refCount = 1;
+        this.createTime = LocalDateTime.now();
+    }
+    
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+    
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public String getContentHash() {
+        return contentHash;
+    }
+    
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+    
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+    
+    public void setContentEncoding(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+    
+    public Long getStoredSize() {
+        return storedSize;
+    }
+    
+    public void setStoredSize(Long storedSize) {
+        this.storedSize = storedSize;
+    }
+    
+    public String getObjectName() {
+        return objectName;
+    }
+    
+    public void setObjectName(String objectName) {
+        this.objectName = objectName;
+    }
+    
+    public Long getFileSize() {
+        return fileSize;
+    }
+    
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+    
+    public Integer getRefCount() {
+        return refCount;
+    }
+    
+    public void setRefCount(Integer refCount) {
+        this.refCount = refCount;
+    }
+    
+    public String getStorageNode() {
+        return storageNode;
+    }
+    
+    public void setStorageNode(String storageNode) {
+        this.storageNode = storageNode;
+    }
+    
+    public String getReplicaNodes() {
+        return replicaNodes;
+    }
+    
+    public void setReplicaNodes(String replicaNodes) {
+        this.replicaNodes = replicaNodes;
+    }
+    
+    public LocalDateTime getCreateTime() {
+        return createTime;
+    }
+    
+    public void setCreateTime(LocalDateTime createTime) {
+        this.createTime = createTime;
+    }
+    
+    @Override
+    public String toString() {
+        return "FileObject{" +
+                "id=" + id +
+                ", contentHash='" + contentHash + '\'' +
+                ", objectName='" + objectName + '\'' +
+                ", fileSize=" + fileSize +
+                ", contentEncoding='" + contentEncoding + '\'' +
+                ", storedSize=" + storedSize +
+                ", refCount=" + refCount +
+                ", storageNode='" + storageNode + '\'' +
+                ", replicaNodes='" + replicaNodes + '\'' +
+                ", createTime=" + createTime +
+                '}';
+    }
+}
@@ -0,0 +1,199 @@
+package com.nyx.ftpcdn.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+
+/**
+ * 分片上传会话
+ *
+ * 会话元数据保存在本地暂存目录中，服务重启后可继续上传。
+ *
+ * @author nyx
+ */
+public class UploadSession {
+
+    private String sessionId;          // 会话ID
+    private String originalFileName;   // 原始文件名
+    private String generatedFileName;  // 生成的文件名(UUID+时间戳)
+    private String replicaNodes;       // 正在写入的副本节点（逗号分隔，写入失败的节点会被移除）
+    private Long fileSize;             // 文件总大小(字节)
+    private Integer chunkSize;         // 分片大小(字节)
+    private Integer totalChunks;       // 分片总数
+    private String description;        // 文件描述
+    private String cdnPrefix;          // CDN前缀
+    private Integer committedChunks;   // 已写入FTP服务器的分片数
+    private LocalDateTime createTime;  // 创建时间
+
+    @JsonIgnore
+    private final ConcurrentSkipListSet<Integer> receivedChunks = new ConcurrentSkipListSet<>(); // 已接收的分片序号
+
+    public UploadSession() {}
+
+    public UploadSession(String sessionId, String originalFileName, String generatedFileName, Long fileSize,
+                         Integer chunkSize, String description, String cdnPrefix) {
+        this.sessionId = sessionId;
+        this.originalFileName = originalFileName;
+        this.generatedFileName = generatedFileName;
+        this.fileSize = fileSize;
+        this.chunkSize = chunkSize;
+        this.totalChunks = (int) Math.max(1, (fileSize + chunkSize - 1) / chunkSize);
+        this.description = description;
+        this.cdnPrefix = cdnPrefix;
+        this.committedChunks = 0;
+        this.createTime = LocalDateTime.now();
+    }
+
+    /**
+     * 计算指定分片的预期大小
+     *
+     * @param index 分片序号（从0开始）
+     * @return 分片大小
+     */
+    public long getExpectedChunkSize(int index) {
+        if (index == totalChunks - 1) {
+            return fileSize - (long) chunkSize * (totalChunks - 1);
+        }
+        return chunkSize;
+    }
+
+    /**
+     * 是否所有分片都已接收
+     */
+    public boolean isComplete() {
+        return receivedChunks.size() == totalChunks;
+    }
+
+    /**
+     * 获取已接收的分片序号列表
+     */
+    public List<Integer> getReceivedChunkList() {
+        return receivedChunks.stream().collect(Collectors.toList());
+    }
+
+    /**
+     * 获取尚未接收的分片序号列表
+     */
+    public List<Integer> getMissingChunkList() {
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < totalChunks; i++) {
+            if (!receivedChunks.contains(i)) {
+                missing.add(i);
+            }
+        }
+        return missing;
+    }
+
+    public ConcurrentSkipListSet<Integer> getReceivedChunks() {
+        return receivedChunks;
+    }
+
+    // Getters and Setters
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public String getOriginalFileName() {
+        return originalFileName;
+    }
+
+    public void setOriginalFileName(String originalFileName) {
+        this.originalFileName = originalFileName;
+    }
+
+    public String getGeneratedFileName() {
+        return generatedFileName;
+    }
+
+    public void setGeneratedFileName(String generatedFileName) {
+        this.generatedFileName = generatedFileName;
+    }
+    
+    public String getReplicaNodes() {
+        return replicaNodes;
+    }
+    
+    public void setReplicaNodes(String replicaNodes) {
+        this.replicaNodes = replicaNodes;
+    }
+
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public Integer getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(Integer chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public Integer getTotalChunks() {
+        return totalChunks;
+    }
+
+    public void setTotalChunks(Integer totalChunks) {
+        this.totalChunks = totalChunks;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public String getCdnPrefix() {
+        return cdnPrefix;
+    }
+
+    public void setCdnPrefix(String cdnPrefix) {
+        this.cdnPrefix = cdnPrefix;
+    }
+
+    public Integer getCommittedChunks() {
+        return committedChunks;
+    }
+
+    public void setCommittedChunks(Integer committedChunks) {
+        this.committedChunks = committedChunks;
+    }
+
+    public LocalDateTime getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(LocalDateTime createTime) {
+        this.createTime = createTime;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadSession{" +
+                "sessionId='" + sessionId + '\'' +
+                ", originalFileName='" + originalFileName + '\'' +
+                ", generatedFileName='" + generatedFileName + '\'' +
+                ", replicaNodes='" + replicaNodes + '\'' +
+                ", fileSize=" + fileSize +
+                ", chunkSize=" + chunkSize +
+                ", totalChunks=" + totalChunks +
+                ", receivedChunks=" + receivedChunks.size() +
+                ", committedChunks=" + committedChunks +
+                ", createTime=" + createTime +
+                '}';
+    }
+}
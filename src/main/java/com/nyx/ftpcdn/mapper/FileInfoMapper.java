@@ -2,7 +2,10 @@ package com.nyx.ftpcdn.mapper;
 
 import com.nyx.ftpcdn.entity.FileInfo;
 import org.apache.ibatis.annotations.*;
+import org.apache.ibatis.cursor.Cursor;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 文件信息Mapper接口
@@ -16,31 +19,82 @@ public interface FileInfoMapper {
      * 插入文件信息
      */
     @Insert("INSERT INTO file_info (original_file_name, generated_file_name, file_extension, " +
-            "file_size, description, cdn_prefix, full_url, ftp_path, upload_time, download_count) " +
+            "file_size, description, cdn_prefix_id, ftp_path, content_hash, content_encoding, stored_size, " +
+            "status, storage_node, replica_nodes, upload_time, download_count) " +
             "VALUES (#{originalFileName}, #{generatedFileName}, #{fileExtension}, #{fileSize}, " +
-            "#{description}, #{cdnPrefix}, #{fullUrl}, #{ftpPath}, #{uploadTime}, #{downloadCount})")
+            "#{description}, #{cdnPrefixId}, #{ftpPath}, #{contentHash}, #{contentEncoding}, #{storedSize}, " +
+            "#{status}, #{storageNode}, #{replicaNodes}, #{uploadTime}, #{downloadCount})")
     @Options(useGeneratedKeys = true, keyProperty = "id")
     int insert(FileInfo fileInfo);
     
     /**
-     * 根据ID查询文件信息
+     * 批量插入文件信息（单条多行INSERT）
      */
-    @Select("SELECT * FROM file_info WHERE id = #{id}")
+    @Insert("<script>INSERT INTO file_info (original_file_name, generated_file_name, file_extension, " +
+            "file_size, description, cdn_prefix_id, ftp_path, content_hash, content_encoding, stored_size, " +
+            "status, storage_node, replica_nodes, upload_time, download_count) " +
+            "VALUES <foreach collection='list' item='f' separator=','>" +
+            "(#{f.originalFileName}, #{f.generatedFileName}, #{f.fileExtension}, #{f.fileSize}, " +
+            "#{f.description}, #{f.cdnPrefixId}, #{f.ftpPath}, #{f.contentHash}, #{f.contentEncoding}, " +
+            "#{f.storedSize}, #{f.status}, #{f.storageNode}, #{f.replicaNodes}, #{f.uploadTime}, #{f.downloadCount})" +
+            "</foreach></script>")
+    @Options(useGeneratedKeys = true, keyProperty = "id")
+    int insertBatch(List<FileInfo> fileInfos);
+    
+    /**
+     * 根据ID查询文件信息（不含已标记删除的记录）
+     */
+    @Select("SELECT * FROM file_info WHERE id = #{id} AND deleted_at IS NULL")
     FileInfo selectById(Long id);
     
+    /**
+     * 根据ID批量查询文件信息（不含已标记删除的记录，不保证顺序）
+     */
+    @Select("<script>SELECT * FROM file_info WHERE deleted_at IS NULL AND id IN " +
+            "<foreach collection='list' item='id' open='(' separator=',' close=')'>#{id}</foreach></script>")
+    List<FileInfo> selectByIds(List<Long> ids);
+    
+    /**
+     * 流式读取搜索索引需要的字段（MySQL逐行返回，需在事务中遍历）
+     */
+    @Select("SELECT id, original_file_name, description, upload_time FROM file_info WHERE deleted_at IS NULL")
+    @Options(fetchSize = Integer.MIN_VALUE)
+    Cursor<FileInfo> scanSearchFields();
+    
     /**
      * 查询所有文件信息（分页）
      */
-    @Select("SELECT * FROM file_info ORDER BY upload_time DESC")
+    @Select("SELECT * FROM file_info WHERE deleted_at IS NULL ORDER BY upload_time DESC, id DESC")
     List<FileInfo> selectAll();
     
+    /**
+     * 游标分页查询文件信息：从 (uploadTime, id) 之后开始，按 idx_upload_time_id 索引定位，不扫描前面的行
+     */
+    @Select("<script>SELECT * FROM file_info WHERE deleted_at IS NULL " +
+            "<if test='uploadTime != null'>AND (upload_time &lt; #{uploadTime} " +
+            "OR (upload_time = #{uploadTime} AND id &lt; #{id})) </if>" +
+            "ORDER BY upload_time DESC, id DESC LIMIT #{limit}</script>")
+    List<FileInfo> selectPageAfter(@Param("uploadTime") LocalDateTime uploadTime, @Param("id") Long id,
+                                   @Param("limit") int limit);
+    
     /**
      * 根据关键词搜索文件（模糊查询）
      */
-    @Select("SELECT * FROM file_info WHERE original_file_name LIKE CONCAT('%', #{keyword}, '%') " +
-            "OR description LIKE CONCAT('%', #{keyword}, '%') ORDER BY upload_time DESC")
+    @Select("SELECT * FROM file_info WHERE deleted_at IS NULL AND (original_file_name LIKE CONCAT('%', #{keyword}, '%') " +
+            "OR description LIKE CONCAT('%', #{keyword}, '%')) ORDER BY upload_time DESC, id DESC")
     List<FileInfo> searchByKeyword(@Param("keyword") String keyword);
     
+    /**
+     * 游标分页搜索文件
+     */
+    @Select("<script>SELECT * FROM file_info WHERE deleted_at IS NULL " +
+            "AND (original_file_name LIKE CONCAT('%', #{keyword}, '%') OR description LIKE CONCAT('%', #{keyword}, '%')) " +
+            "<if test='uploadTime != null'>AND (upload_time &lt; #{uploadTime} " +
+            "OR (upload_time = #{uploadTime} AND id &lt; #{id})) </if>" +
+            "ORDER BY upload_time DESC, id DESC LIMIT #{limit}</script>")
+    List<FileInfo> searchPageAfter(@Param("keyword") String keyword, @Param("uploadTime") LocalDateTime uploadTime,
+                                   @Param("id") Long id, @Param("limit") int limit);
+    
     /**
      * 更新文件描述
      */
@@ -48,27 +102,125 @@ public interface FileInfoMapper {
     int updateDescription(@Param("id") Long id, @Param("description") String description);
     
     /**
-     * 增加下载次数
+     * 根据状态查询文件信息（包含已标记删除的记录，恢复上传任务时由任务清理暂存文件）
+     */
+    @Select("SELECT * FROM file_info WHERE status = #{status} ORDER BY id")
+    List<FileInfo> selectByStatus(String status);
+    
+    /**
+     * 更新文件状态（仅当当前状态与预期一致且未标记删除时）
+     */
+    @Update("UPDATE file_info SET status = #{status} WHERE id = #{id} AND status = #{expectedStatus} " +
+            "AND deleted_at IS NULL")
+    int updateStatus(@Param("id") Long id, @Param("expectedStatus") String expectedStatus,
+                     @Param("status") String status);
+    
+    /**
+     * 更新文件的存储位置
+     */
+    @Update("UPDATE file_info SET generated_file_name = #{generatedFileName}, " +
+            "ftp_path = #{ftpPath}, content_encoding = #{contentEncoding}, stored_size = #{storedSize}, " +
+            "storage_node = #{storageNode}, replica_nodes = #{replicaNodes} WHERE id = #{id}")
+    int updateStorage(FileInfo fileInfo);
+    
+    /**
+     * 按ID顺序分批查询已就绪的文件（用于副本修复和存储节点重平衡）
+     */
+    @Select("SELECT * FROM file_info WHERE id > #{afterId} AND status = 'READY' AND deleted_at IS NULL " +
+            "ORDER BY id LIMIT #{limit}")
+    List<FileInfo> selectReadyAfterId(@Param("afterId") long afterId, @Param("limit") int limit);
+    
+    /**
+     * 更新引用同一FTP文件的所有文件记录的副本节点（仅当当前记录与预期一致时，历史数据的节点为NULL）
      */
-    @Update("UPDATE file_info SET download_count = download_count + 1 WHERE id = #{id}")
-    int incrementDownloadCount(Long id);
+    @Update("UPDATE file_info SET storage_node = #{toNode}, replica_nodes = #{toReplicas} " +
+            "WHERE generated_file_name = #{generatedFileName} AND status = 'READY' " +
+            "AND storage_node <=> #{fromNode} AND replica_nodes <=> #{fromReplicas}")
+    int updateReplicas(@Param("generatedFileName") String generatedFileName,
+                       @Param("fromNode") String fromNode, @Param("fromReplicas") String fromReplicas,
+                       @Param("toNode") String toNode, @Param("toReplicas") String toReplicas);
     
     /**
-     * 根据ID删除文件信息
+     * 更新引用同一FTP文件的所有文件记录的FTP路径（存储目录布局迁移）
      */
-    @Delete("DELETE FROM file_info WHERE id = #{id}")
+    @Update("UPDATE file_info SET ftp_path = #{ftpPath} WHERE generated_file_name = #{generatedFileName}")
+    int updateFtpPath(@Param("generatedFileName") String generatedFileName, @Param("ftpPath") String ftpPath);
+    
+    /**
+     * 按ID顺序分批读取尚未关联前缀ID的历史记录的前缀（只读取ID和前缀两列）
+     */
+    @Select("SELECT id, cdn_prefix FROM file_info WHERE id > #{afterId} AND cdn_prefix_id IS NULL " +
+            "ORDER BY id LIMIT #{limit}")
+    List<FileInfo> selectLegacyPrefixAfterId(@Param("afterId") long afterId, @Param("limit") int limit);
+    
+    /**
+     * 批量设置历史记录引用的前缀ID
+     */
+    @Update("<script>UPDATE file_info SET cdn_prefix_id = #{cdnPrefixId} WHERE cdn_prefix_id IS NULL AND id IN " +
+            "<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach></script>")
+    int updateCdnPrefixIds(@Param("cdnPrefixId") Long cdnPrefixId, @Param("ids") List<Long> ids);
+    
+    /**
+     * 批量增加下载次数（单条 UPDATE ... CASE id WHEN ...）
+     * 
+     * @param deltas 文件ID -> 增加的次数
+     */
+    @Update("<script>UPDATE file_info SET download_count = download_count + CASE id " +
+            "<foreach collection='deltas' index='id' item='delta'>WHEN #{id} THEN #{delta} </foreach>END " +
+            "WHERE id IN <foreach collection='deltas' index='id' open='(' separator=',' close=')'>#{id}</foreach></script>")
+    int addDownloadCounts(@Param("deltas") Map<Long, Long> deltas);
+    
+    /**
+     * 标记删除（墓碑），存储对象和记录由后台清理任务删除
+     */
+    @Update("<script>UPDATE file_info SET deleted_at = NOW() WHERE deleted_at IS NULL AND id IN " +
+            "<foreach collection='list' item='id' open='(' separator=',' close=')'>#{id}</foreach></script>")
+    int markDeleted(List<Long> ids);
+    
+    /**
+     * 按ID顺序分批查询已标记删除的记录（用于后台清理）
+     */
+    @Select("SELECT * FROM file_info WHERE id > #{afterId} AND deleted_at IS NOT NULL ORDER BY id LIMIT #{limit}")
+    List<FileInfo> selectDeletedAfterId(@Param("afterId") long afterId, @Param("limit") int limit);
+    
+    /**
+     * 已标记删除的记录释放了最后一个引用，记录需要删除的副本节点，FTP文件删除后再删除记录
+     */
+    @Update("UPDATE file_info SET status = 'PURGING', storage_node = #{storageNode}, replica_nodes = #{replicaNodes} " +
+            "WHERE id = #{id} AND status = 'READY' AND deleted_at IS NOT NULL")
+    int markPurging(@Param("id") Long id, @Param("storageNode") String storageNode,
+                    @Param("replicaNodes") String replicaNodes);
+    
+    /**
+     * 根据ID删除已标记删除的记录
+     */
+    @Delete("DELETE FROM file_info WHERE id = #{id} AND deleted_at IS NOT NULL")
     int deleteById(Long id);
     
+    /**
+     * 批量删除已标记删除的记录
+     */
+    @Delete("<script>DELETE FROM file_info WHERE deleted_at IS NOT NULL AND id IN " +
+            "<foreach collection='list' item='id' open='(' separator=',' close=')'>#{id}</foreach></script>")
+    int deleteByIds(List<Long> ids);
+    
     /**
      * 统计文件总数
      */
-    @Select("SELECT COUNT(*) FROM file_info")
+    @Select("SELECT COUNT(*) FROM file_info WHERE deleted_at IS NULL")
     long countAll();
     
+    /**
+     * 按扩展名统计文件数和总字节数（用于校准内存中的统计计数器）
+     */
+    @Select("SELECT file_extension AS fileExtension, COUNT(*) AS fileCount, COALESCE(SUM(file_size), 0) AS totalBytes " +
+            "FROM file_info WHERE deleted_at IS NULL GROUP BY file_extension")
+    List<Map<String, Object>> countByExtension();
+    
     /**
      * 根据关键词统计搜索结果数量
      */
-    @Select("SELECT COUNT(*) FROM file_info WHERE original_file_name LIKE CONCAT('%', #{keyword}, '%') " +
-            "OR description LIKE CONCAT('%', #{keyword}, '%')")
+    @Select("SELECT COUNT(*) FROM file_info WHERE deleted_at IS NULL AND (original_file_name LIKE CONCAT('%', #{keyword}, '%') " +
+            "OR description LIKE CONCAT('%', #{keyword}, '%'))")
     long countByKeyword(@Param("keyword") String keyword);
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+package com.nyx.ftpcdn.mapper;
+
+import com.nyx.ftpcdn.entity.FileObject;
+import org.apache.ibatis.annotations.*;
+
+/**
+ * 物理存储对象Mapper接口
+ * 
+ * @author nyx
+ */
+@Mapper
+public interface FileObjectMapper {
+    
+    /**
+     * 插入存储对象，内容已存在时引用计数加1
+     */
+    @Insert("INSERT INTO file_object (content_hash, object_name, file_size, content_encoding, stored_size, ref_count, " +
+            "storage_node, replica_nodes, create_time) VALUES (#{contentHash}, #{objectName}, #{fileSize}, " +
+            "#{contentEncoding}, #{storedSize}, 1, #{storageNode}, #{replicaNodes}, #{createTime}) " +
+            "ON DUPLICATE KEY UPDATE ref_count = ref_count + 1")
+    int upsert(FileObject fileObject);
+    
+    /**
+     * 根据内容哈希查询存储对象
+     */
+    @Select("SELECT * FROM file_object WHERE content_hash = #{contentHash}")
+    FileObject selectByHash(String contentHash);
+    
+    /**
+     * 引用计数加1（对象不存在时不更新任何行）
+     */
+    @Update("UPDATE file_object SET ref_count = ref_count + 1 WHERE content_hash = #{contentHash} AND ref_count > 0")
+    int incrementRefCount(String contentHash);
+    
+    /**
+     * 引用计数减1
+     */
+    @Update("UPDATE file_object SET ref_count = ref_count - 1 WHERE content_hash = #{contentHash}")
+    int decrementRefCount(String contentHash);
+    
+    /**
+     * 更新存储对象的副本节点（仅当当前记录与预期一致时，历史数据的节点为NULL）
+     */
+    @Update("UPDATE file_object SET storage_node = #{toNode}, replica_nodes = #{toReplicas} " +
+            "WHERE object_name = #{objectName} AND storage_node <=> #{fromNode} AND replica_nodes <=> #{fromReplicas}")
+    int updateReplicas(@Param("objectName") String objectName,
+                       @Param("fromNode") String fromNode, @Param("fromReplicas") String fromReplicas,
+                       @Param("toNode") String toNode, @Param("toReplicas") String toReplicas);
+    
+    /**
+     * 删除已无引用的存储对象
+     */
+    @Delete("DELETE FROM file_object WHERE content_hash = #{contentHash} AND ref_count <= 0")
+    int deleteUnreferenced(String contentHash);
+}
@@ -0,0 +1,46 @@
+package com.nyx.ftpcdn.mapper;
+
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 缩略图变体登记Mapper接口
+ *
+ * @author nyx
+ */
+@Mapper
+public interface ThumbnailVariantMapper {
+
+    /**
+     * 登记一个写回存储节点的变体，已登记时更新写入过的节点
+     */
+    @Insert("INSERT INTO thumbnail_variant (variant_name, source_key, storage_nodes, create_time) " +
+            "VALUES (#{variantName}, #{sourceKey}, #{storageNodes}, NOW()) " +
+            "ON DUPLICATE KEY UPDATE storage_nodes = VALUES(storage_nodes)")
+    int upsert(@Param("variantName") String variantName, @Param("sourceKey") String sourceKey,
+               @Param("storageNodes") String storageNodes);
+
+    /**
+     * 查询变体登记的存储节点
+     *
+     * @return 变体登记及其节点，未登记返回null
+     */
+    @Select("SELECT variant_name AS variantName, storage_nodes AS storageNodes " +
+            "FROM thumbnail_variant WHERE variant_name = #{variantName}")
+    Map<String, Object> selectByName(String variantName);
+
+    /**
+     * 查询原图已登记的变体名及其存储节点
+     */
+    @Select("SELECT variant_name AS variantName, storage_nodes AS storageNodes " +
+            "FROM thumbnail_variant WHERE source_key = #{sourceKey}")
+    List<Map<String, Object>> selectBySource(String sourceKey);
+
+    /**
+     * 删除原图的变体登记
+     */
+    @Delete("DELETE FROM thumbnail_variant WHERE source_key = #{sourceKey}")
+    int deleteBySource(String sourceKey);
+}
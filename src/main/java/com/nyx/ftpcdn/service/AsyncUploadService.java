@@ -0,0 +1,366 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.FileInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步上传服务
+ *
+ * 上传的文件先持久化到本地暂存目录，并创建状态为PENDING的文件记录，
+ * 随后由后台工作线程写入FTP服务器，失败时按指数退避重试。
+ * 服务重启后会根据PENDING记录恢复未完成的任务。
+ *
+ * @author nyx
+ */
+@Service
+public class AsyncUploadService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** 统计吞吐量的时间窗口 */
+    private static final long RATE_WINDOW_MS = 60_000;
+
+    @Value("${upload.async.spool-dir:./data/spool}")
+    private String spoolDir;
+
+    @Value("${upload.async.workers:4}")
+    private int workers;
+
+    @Value("${upload.async.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${upload.async.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${upload.async.initial-backoff-ms:1000}")
+    private long initialBackoffMs;
+
+    @Value("${upload.async.max-backoff-ms:300000}")
+    private long maxBackoffMs;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private FtpService ftpService;
+
+    @Autowired
+    private CompressionService compressionService;
+
+    private Path spoolRoot;
+
+    private ThreadPoolExecutor executor;
+
+    private ScheduledExecutorService retryScheduler;
+
+    // 队列统计
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+    private final AtomicInteger runningJobs = new AtomicInteger();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong completedBytes = new AtomicLong();
+    private final ConcurrentLinkedDeque<long[]> recentCompletions = new ConcurrentLinkedDeque<>();
+
+    @PostConstruct
+    public void init() throws IOException {
+        spoolRoot = Paths.get(spoolDir).toAbsolutePath();
+        Files.createDirectories(spoolRoot);
+
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), namedThreadFactory("async-upload"));
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(namedThreadFactory("async-upload-retry"));
+
+        // 恢复重启前未完成的任务
+        List<FileInfo> pendingFiles = fileService.getFilesByStatus(FileInfo.STATUS_PENDING);
+        for (FileInfo fileInfo : pendingFiles) {
+            pendingJobs.incrementAndGet();
+            schedule(new UploadJob(fileInfo), 0);
+        }
+        System.out.println("已恢复异步上传任务数量：" + pendingFiles.size());
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // 暂存文件和PENDING记录会保留，下次启动时继续处理
+        retryScheduler.shutdownNow();
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 提交异步上传：文件持久化到暂存目录并创建PENDING记录后立即返回
+     *
+     * @param file 上传的文件
+     * @param description 文件描述
+     * @param cdnPrefix CDN前缀
+     * @return 文件信息（内容已存在时直接返回READY状态的文件）
+     */
+    public FileInfo submit(MultipartFile file, String description, String cdnPrefix) {
+        if (executor.getQueue().remainingCapacity() == 0) {
+            throw new RuntimeException("上传队列已满，请稍后重试");
+        }
+
+        String originalFileName = file.getOriginalFilename();
+        String generatedFileName = fileService.generateStorageFileName(originalFileName);
+        Path spoolFile = spoolRoot.resolve(generatedFileName);
+
+        String contentHash;
+        try {
+            contentHash = spool(file, spoolFile);
+        } catch (IOException e) {
+            throw new RuntimeException("文件暂存失败：" + e.getMessage());
+        }
+
+        try {
+            // 相同内容已存在时无需写入FTP服务器
+            FileInfo fileInfo = fileService.instantUpload(contentHash, originalFileName, file.getSize(),
+                    description, cdnPrefix);
+            if (fileInfo != null) {
+                deleteQuietly(spoolFile);
+                return fileInfo;
+            }
+
+            fileInfo = fileService.createPendingFile(originalFileName, generatedFileName, file.getSize(),
+                    description, cdnPrefix, contentHash);
+            pendingJobs.incrementAndGet();
+            schedule(new UploadJob(fileInfo), 0);
+            return fileInfo;
+        } catch (RuntimeException e) {
+            deleteQuietly(spoolFile);
+            throw e;
+        }
+    }
+
+    /**
+     * 获取上传队列统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getMetrics() {
+        long now = System.currentTimeMillis();
+        trimRecentCompletions(now);
+        long windowJobs = 0;
+        long windowBytes = 0;
+        for (long[] completion : recentCompletions) {
+            windowJobs++;
+            windowBytes += completion[1];
+        }
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("workers", workers);
+        metrics.put("queueDepth", pendingJobs.get());
+        metrics.put("queued", executor.getQueue().size());
+        metrics.put("running", runningJobs.get());
+        metrics.put("queueCapacity", queueCapacity);
+        metrics.put("completed", completedCount.get());
+        metrics.put("completedBytes", completedBytes.get());
+        metrics.put("failed", failedCount.get());
+        metrics.put("retries", retryCount.get());
+        metrics.put("drainRatePerMinute", windowJobs);
+        metrics.put("drainBytesPerSecond", windowBytes * 1000 / RATE_WINDOW_MS);
+        return metrics;
+    }
+
+    /**
+     * 写入暂存文件并强制落盘，同时计算内容SHA-256
+     */
+    private String spool(MultipartFile file, Path spoolFile) throws IOException {
+        MessageDigest digest = FileObjectService.newDigest();
+        Path tempFile = spoolFile.resolveSibling(spoolFile.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try (InputStream inputStream = new DigestInputStream(file.getInputStream(), digest);
+             FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            deleteQuietly(tempFile);
+            throw e;
+        }
+        Files.move(tempFile, spoolFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return FileObjectService.toHex(digest.digest());
+    }
+
+    private void schedule(UploadJob job, long delayMs) {
+        if (delayMs <= 0) {
+            try {
+                executor.execute(job);
+                return;
+            } catch (RejectedExecutionException e) {
+                // 队列已满（例如重启恢复了大量任务），稍后再提交
+                delayMs = initialBackoffMs;
+            }
+        }
+        if (!retryScheduler.isShutdown()) {
+            retryScheduler.schedule(() -> schedule(job, 0), delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void trimRecentCompletions(long now) {
+        long[] head;
+        while ((head = recentCompletions.peekFirst()) != null && now - head[0] > RATE_WINDOW_MS) {
+            recentCompletions.pollFirst();
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("删除暂存文件失败：" + path + "，" + e.getMessage());
+        }
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 将一个暂存文件写入FTP服务器的任务
+     */
+    private class UploadJob implements Runnable {
+
+        private final FileInfo fileInfo;
+        private int attempts = 0;
+
+        UploadJob(FileInfo fileInfo) {
+            this.fileInfo = fileInfo;
+        }
+
+        @Override
+        public void run() {
+            runningJobs.incrementAndGet();
+            try {
+                attempts++;
+                Path spoolFile = spoolRoot.resolve(fileInfo.getGeneratedFileName());
+
+                // 文件已被删除（或状态已变化）时放弃任务
+                FileInfo current = fileService.getFileById(fileInfo.getId());
+                if (current == null || !FileInfo.STATUS_PENDING.equals(current.getStatus())) {
+                    finish(spoolFile);
+                    return;
+                }
+                if (!Files.exists(spoolFile)) {
+                    System.err.println("暂存文件不存在，任务失败：" + fileInfo);
+                    fileService.markFileFailed(fileInfo.getId());
+                    failedCount.incrementAndGet();
+                    finish(spoolFile);
+                    return;
+                }
+
+                // 文本类文件压缩后写入
+                String fileName = fileInfo.getGeneratedFileName();
+                CompressionService.Compressed compressed;
+                try {
+                    compressed = compressionService.compress(new FileSystemResource(spoolFile),
+                            fileInfo.getFileExtension(), fileInfo.getFileSize());
+                } catch (IOException e) {
+                    throw new RuntimeException("压缩暂存文件失败：" + e.getMessage());
+                }
+                CompletableFuture<List<String>> finished = new CompletableFuture<>();
+                List<String> replicaNodes;
+                try {
+                    replicaNodes = ftpService.uploadReplicas(ftpService.selectNodes(fileName),
+                            compressed != null ? compressed.getSource() : new FileSystemResource(spoolFile),
+                            fileName, 0, ftpService.getWriteQuorum(), finished::complete);
+                } finally {
+                    if (compressed != null) {
+                        // 仲裁返回后其余副本仍在读取压缩文件，全部结束后再删除
+                        finished.thenRun(compressed::discard);
+                    }
+                }
+                fileInfo.setContentEncoding(compressed != null ? CompressionService.GZIP : null);
+                fileInfo.setStoredSize(compressed != null ? compressed.getSize() : fileInfo.getFileSize());
+                if (replicaNodes.size() >= ftpService.getWriteQuorum()) {
+                    boolean completed = fileService.completePendingFile(fileInfo, replicaNodes);
+                    if (completed) {
+                        completedCount.incrementAndGet();
+                        completedBytes.addAndGet(fileInfo.getFileSize());
+                        recentCompletions.addLast(new long[]{System.currentTimeMillis(), fileInfo.getFileSize()});
+                        trimRecentCompletions(System.currentTimeMillis());
+                        System.out.println("异步上传完成：" + fileInfo);
+                    }
+                    if (!completed || !fileName.equals(fileInfo.getGeneratedFileName())) {
+                        // 文件已被删除或复用了已有对象，返回后才写入完成的副本不会被使用
+                        List<String> confirmed = replicaNodes;
+                        finished.thenAccept(stored -> ftpService.deleteLateReplicas(stored, confirmed, fileName));
+                    }
+                    // 暂存文件在所有副本任务结束后删除
+                    finished.thenRun(() -> finish(spoolFile));
+                    return;
+                }
+                // 其余副本结束后再安排重试，避免与仍在进行的写入重叠
+                finished.thenRun(() -> retryOrFail(spoolFile));
+            } catch (RuntimeException e) {
+                System.err.println("异步上传任务异常：" + e.getMessage());
+                retryOrFail(spoolRoot.resolve(fileInfo.getGeneratedFileName()));
+            } finally {
+                runningJobs.decrementAndGet();
+            }
+        }
+
+        private void retryOrFail(Path spoolFile) {
+            if (attempts >= maxAttempts) {
+                // 保留暂存文件，便于人工处理
+                System.err.println("异步上传超过最大重试次数，标记为失败：" + fileInfo);
+                fileService.markFileFailed(fileInfo.getId());
+                failedCount.incrementAndGet();
+                pendingJobs.decrementAndGet();
+                return;
+            }
+            long backoff = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempts - 1, 20));
+            retryCount.incrementAndGet();
+            System.err.println("异步上传失败，" + backoff + "ms后第" + (attempts + 1) + "次重试：" + fileInfo.getGeneratedFileName());
+            schedule(this, backoff);
+        }
+
+        private void finish(Path spoolFile) {
+            deleteQuietly(spoolFile);
+            pendingJobs.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.CdnPrefix;
+import com.nyx.ftpcdn.entity.CdnPrefixStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CDN前缀健康探测服务
+ *
+ * 定期对每个已启用的前缀请求 前缀 + probe.path，记录延迟和失败率的指数加权平均（EWMA）。
+ * 响应状态码小于500视为成功（边缘节点能够响应即可用，探测路径不存在返回404也算成功）。
+ * 失败率达到 max-error-rate 的前缀判定为不健康。每个前缀的文件URL改用哪个前缀按健康状态和延迟选择：
+ * 当前使用的前缀不健康时立即改用延迟最低的健康前缀；仍然健康时，只有其他前缀的延迟低于当前前缀的
+ * (1 - switch-ratio) 倍才切换，延迟相近时保持不变，避免URL随探测抖动来回变化。
+ * /cdn/api/active 按健康状态和延迟排序并带上探测状态。
+ *
+ * @author nyx
+ */
+@Service
+public class CdnPrefixHealthService {
+
+    /** 并行探测的线程数 */
+    private static final int PROBE_THREADS = 4;
+
+    @Value("${cdn.prefix.probe.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cdn.prefix.probe.path:/}")
+    private String probePath;
+
+    @Value("${cdn.prefix.probe.timeout-ms:3000}")
+    private int timeoutMs;
+
+    @Value("${cdn.prefix.probe.alpha:0.3}")
+    private double alpha;
+
+    @Value("${cdn.prefix.probe.max-error-rate:0.5}")
+    private double maxErrorRate;
+
+    /** 其他健康前缀的延迟比当前使用的前缀低这个比例以上才切换 */
+    @Value("${cdn.prefix.probe.switch-ratio:0.3}")
+    private double switchRatio;
+
+    @Autowired
+    private CdnPrefixService cdnPrefixService;
+
+    private final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(PROBE_THREADS, r -> {
+        Thread thread = new Thread(r, "cdn-probe-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** 前缀ID -> 探测状态 */
+    private final Map<Long, ProbeState> states = new ConcurrentHashMap<>();
+
+    /** 前缀ID -> 该前缀的文件URL实际使用的前缀ID */
+    private final Map<Long, Long> routes = new ConcurrentHashMap<>();
+
+    // 统计
+    private final AtomicLong roundCount = new AtomicLong();
+    private final AtomicLong probeCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private volatile long lastRoundAt = 0;
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 定期探测所有已启用的前缀
+     */
+    @Scheduled(fixedDelayString = "${cdn.prefix.probe.interval-ms:30000}",
+            initialDelayString = "${cdn.prefix.probe.initial-delay-ms:5000}")
+    public void scheduledProbe() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            probeAll();
+        } catch (RuntimeException e) {
+            System.err.println("CDN前缀探测失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 并行探测所有已启用的前缀，完成后更新URL选择使用的健康状态
+     */
+    public void probeAll() {
+        List<CdnPrefix> prefixes = cdnPrefixService.getAllActivePrefixes();
+        Set<Long> activeIds = new HashSet<>();
+        List<Callable<Void>> probes = new ArrayList<>();
+        for (CdnPrefix prefix : prefixes) {
+            activeIds.add(prefix.getId());
+            probes.add(() -> {
+                probe(prefix);
+                return null;
+            });
+        }
+        // 已删除或停用的前缀不再保留状态
+        states.keySet().retainAll(activeIds);
+        routes.keySet().retainAll(activeIds);
+        try {
+            executor.invokeAll(probes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        roundCount.incrementAndGet();
+        lastRoundAt = System.currentTimeMillis();
+        publish(prefixes);
+    }
+
+    /**
+     * 已启用的前缀及探测状态：健康的在前，同为健康时延迟低的在前，其余保持默认前缀在前的原顺序
+     *
+     * @return 前缀状态列表
+     */
+    public List<CdnPrefixStatus> getActiveStatuses() {
+        List<CdnPrefixStatus> statuses = new ArrayList<>();
+        for (CdnPrefix prefix : cdnPrefixService.getAllActivePrefixes()) {
+            CdnPrefixStatus status = new CdnPrefixStatus(prefix);
+            ProbeState state = states.get(prefix.getId());
+            if (state != null) {
+                state.fill(status);
+                status.setHealthy(isHealthy(state));
+            }
+            statuses.add(status);
+        }
+        statuses.sort(Comparator.comparing((CdnPrefixStatus status) -> !status.isHealthy())
+                .thenComparing(CdnPrefixStatus::getLatencyMs, Comparator.nullsLast(Comparator.naturalOrder())));
+        return statuses;
+    }
+
+    /**
+     * 获取探测统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getMetrics() {
+        int unhealthy = 0;
+        for (ProbeState state : states.values()) {
+            if (!isHealthy(state)) {
+                unhealthy++;
+            }
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("probePath", probePath);
+        metrics.put("rounds", roundCount.get());
+        metrics.put("probes", probeCount.get());
+        metrics.put("failures", failureCount.get());
+        metrics.put("probedPrefixes", states.size());
+        metrics.put("unhealthyPrefixes", unhealthy);
+        metrics.put("lastRoundAt", lastRoundAt);
+        return metrics;
+    }
+
+    private void probe(CdnPrefix prefix) {
+        String path = probePath.startsWith("/") ? probePath.substring(1) : probePath;
+        String url = CdnPrefixService.buildUrl(prefix.getPrefix(), path);
+        ProbeState state = states.computeIfAbsent(prefix.getId(), key -> new ProbeState());
+        long start = System.nanoTime();
+        Integer status = null;
+        String error = null;
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            connection.setInstanceFollowRedirects(false);
+            connection.setUseCaches(false);
+            status = connection.getResponseCode();
+            if (status >= 500) {
+                error = "HTTP " + status;
+            }
+            // 只关心响应头，不读取响应体
+            InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (body != null) {
+                body.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+        double latencyMs = (System.nanoTime() - start) / 1_000_000.0;
+
+        probeCount.incrementAndGet();
+        if (error != null) {
+            failureCount.incrementAndGet();
+        }
+        boolean wasHealthy = isHealthy(state);
+        state.record(error == null, latencyMs, status, error, alpha);
+        boolean healthy = isHealthy(state);
+        if (wasHealthy != healthy) {
+            System.out.println("CDN前缀" + (healthy ? "已恢复：" : "不健康：") + prefix.getName()
+                    + "（" + prefix.getPrefix() + "），失败率：" + String.format("%.2f", state.errorRate)
+                    + (error != null ? "，原因：" + error : ""));
+        }
+    }
+
+    private boolean isHealthy(ProbeState state) {
+        return state.probes == 0 || state.errorRate < maxErrorRate;
+    }
+
+    /**
+     * 为每个已探测的前缀选择文件URL使用的前缀，连同不健康的前缀交给前缀服务
+     */
+    private void publish(List<CdnPrefix> prefixes) {
+        Set<Long> unhealthyIds = new HashSet<>();
+        Map<Long, Double> healthyLatencies = new HashMap<>();
+        for (CdnPrefix prefix : prefixes) {
+            ProbeState state = states.get(prefix.getId());
+            if (state == null) {
+                continue;
+            }
+            if (isHealthy(state)) {
+                healthyLatencies.put(prefix.getId(), state.latencyMs);
+            } else {
+                unhealthyIds.add(prefix.getId());
+            }
+        }
+        for (CdnPrefix prefix : prefixes) {
+            if (!states.containsKey(prefix.getId())) {
+                continue;
+            }
+            Long current = routes.getOrDefault(prefix.getId(), prefix.getId());
+            Long selected = selectRoute(prefix.getId(), current, healthyLatencies, switchRatio);
+            if (!selected.equals(current)) {
+                System.out.println("CDN前缀" + prefix.getName() + "的文件URL改用前缀ID：" + selected);
+            }
+            routes.put(prefix.getId(), selected);
+        }
+        cdnPrefixService.updateHealth(unhealthyIds, new HashMap<>(routes));
+    }
+
+    /**
+     * 选择文件URL使用的前缀：当前前缀不健康时改用延迟最低的健康前缀（没有健康前缀时使用原前缀）；
+     * 当前前缀健康时，最快的前缀延迟低于当前延迟的 (1 - switchRatio) 倍才切换
+     *
+     * @param assignedId 文件记录引用的前缀ID
+     * @param currentId 当前使用的前缀ID
+     * @param healthyLatencies 健康前缀ID -> 延迟（没有成功的探测时为null）
+     * @param switchRatio 切换所需的延迟降低比例
+     * @return 选择的前缀ID
+     */
+    static Long selectRoute(Long assignedId, Long currentId, Map<Long, Double> healthyLatencies, double switchRatio) {
+        Long fastestId = null;
+        Double fastest = null;
+        for (Map.Entry<Long, Double> entry : healthyLatencies.entrySet()) {
+            Double latency = entry.getValue();
+            boolean faster = fastestId == null
+                    || latency != null && (fastest == null || latency < fastest
+                    || latency.equals(fastest) && entry.getKey().equals(assignedId));
+            if (faster) {
+                fastestId = entry.getKey();
+                fastest = latency;
+            }
+        }
+        if (fastestId == null) {
+            return assignedId;
+        }
+        if (!healthyLatencies.containsKey(currentId)) {
+            return fastestId;
+        }
+        Double currentLatency = healthyLatencies.get(currentId);
+        if (currentLatency == null) {
+            return fastest != null ? fastestId : currentId;
+        }
+        if (fastest != null && fastest < currentLatency * (1 - switchRatio)) {
+            return fastestId;
+        }
+        return currentId;
+    }
+
+    /**
+     * 指数加权平均：新样本占alpha，历史值占1 - alpha
+     */
+    static double ewma(double previous, double sample, double alpha) {
+        return alpha * sample + (1 - alpha) * previous;
+    }
+
+    /**
+     * 单个前缀的探测状态
+     */
+    private static final class ProbeState {
+        volatile long probes;
+        volatile Double latencyMs;
+        volatile double errorRate;
+        Integer lastStatus;
+        String lastError;
+        long lastProbedAt;
+
+        synchronized void record(boolean success, double latency, Integer status, String error, double alpha) {
+            // 失败率从0开始加权，偶发的一次失败不会立即判定为不健康；延迟第一次直接取样本值
+            errorRate = ewma(errorRate, success ? 0 : 1, alpha);
+            if (success) {
+                latencyMs = latencyMs == null ? latency : ewma(latencyMs, latency, alpha);
+            }
+            probes++;
+            lastStatus = status;
+            lastError = error;
+            lastProbedAt = System.currentTimeMillis();
+        }
+
+        synchronized void fill(CdnPrefixStatus status) {
+            status.setLatencyMs(latencyMs);
+            status.setErrorRate(errorRate);
+            status.setProbes(probes);
+            status.setLastStatus(lastStatus);
+            status.setLastError(lastError);
+            status.setLastProbedAt(lastProbedAt);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.CdnPrefix;
+import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.mapper.FileInfoMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CDN前缀引用迁移服务
+ *
+ * 升级前每条文件记录都保存了前缀URL和完整URL的副本。启动后按ID分批读取尚未关联前缀ID的记录
+ * （只读取ID和前缀两列），根据内存中的前缀表换算成前缀ID，同一前缀的记录用一条UPDATE批量写回。
+ * 前缀表中不存在的历史前缀会自动创建一条未启用的前缀记录，保持这些文件的URL不变。
+ * 迁移可以随时中断，下次启动时从未迁移的记录继续；旧的cdn_prefix列删除后迁移自动跳过。
+ *
+ * @author nyx
+ */
+@Service
+public class CdnPrefixMigrationService {
+
+    @Value("${cdn.prefix.migration.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cdn.prefix.migration.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${cdn.prefix.migration.pause-ms:50}")
+    private long pauseMs;
+
+    @Autowired
+    private FileInfoMapper fileInfoMapper;
+
+    @Autowired
+    private CdnPrefixService cdnPrefixService;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "cdn-prefix-migration");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /** 数据库已没有旧的cdn_prefix列（新建的数据库或已完成升级） */
+    private volatile boolean legacyColumnDropped = false;
+
+    // 统计
+    private final AtomicLong scannedCount = new AtomicLong();
+    private final AtomicLong migratedCount = new AtomicLong();
+    private final AtomicLong createdPrefixCount = new AtomicLong();
+    private volatile long lastStartedAt = 0;
+    private volatile long lastFinishedAt = 0;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (enabled) {
+            trigger();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 未迁移的记录下次启动时继续
+        executor.shutdownNow();
+    }
+
+    /**
+     * 在后台开始一轮迁移
+     *
+     * @return 已有迁移在运行时返回false
+     */
+    public boolean trigger() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        executor.execute(() -> {
+            try {
+                migrate();
+            } catch (RuntimeException e) {
+                System.err.println("CDN前缀迁移异常终止：" + e.getMessage());
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 获取迁移统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("running", running.get());
+        metrics.put("legacyColumnDropped", legacyColumnDropped);
+        metrics.put("scanned", scannedCount.get());
+        metrics.put("migrated", migratedCount.get());
+        metrics.put("createdPrefixes", createdPrefixCount.get());
+        metrics.put("lastStartedAt", lastStartedAt);
+        metrics.put("lastFinishedAt", lastFinishedAt);
+        return metrics;
+    }
+
+    private void migrate() {
+        lastStartedAt = System.currentTimeMillis();
+        long migrated = migratedCount.get();
+        long afterId = 0;
+        List<FileInfo> batch;
+        do {
+            try {
+                batch = fileInfoMapper.selectLegacyPrefixAfterId(afterId, batchSize);
+            } catch (BadSqlGrammarException e) {
+                legacyColumnDropped = true;
+                System.out.println("file_info已没有cdn_prefix列，无需迁移");
+                return;
+            }
+            if (batch.isEmpty()) {
+                break;
+            }
+            afterId = batch.get(batch.size() - 1).getId();
+            scannedCount.addAndGet(batch.size());
+            migrateBatch(batch);
+
+            if (pauseMs > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(pauseMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        } while (batch.size() == batchSize && !Thread.currentThread().isInterrupted());
+
+        lastFinishedAt = System.currentTimeMillis();
+        long count = migratedCount.get() - migrated;
+        if (count > 0) {
+            System.out.println("CDN前缀迁移结束，关联前缀ID的记录数：" + count);
+        }
+    }
+
+    /**
+     * 按前缀分组后每组一条UPDATE
+     */
+    private void migrateBatch(List<FileInfo> batch) {
+        Map<Long, List<Long>> idsByPrefix = new LinkedHashMap<>();
+        for (FileInfo fileInfo : batch) {
+            CdnPrefix cdnPrefix = resolveLegacyPrefix(fileInfo.getCdnPrefix());
+            if (cdnPrefix == null) {
+                continue;
+            }
+            idsByPrefix.computeIfAbsent(cdnPrefix.getId(), key -> new ArrayList<>()).add(fileInfo.getId());
+        }
+        for (Map.Entry<Long, List<Long>> entry : idsByPrefix.entrySet()) {
+            migratedCount.addAndGet(fileInfoMapper.updateCdnPrefixIds(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    /**
+     * 历史前缀为空时使用默认前缀，不在前缀表中时创建一条未启用的前缀
+     */
+    private CdnPrefix resolveLegacyPrefix(String prefix) {
+        if (prefix == null || prefix.trim().isEmpty()) {
+            return cdnPrefixService.getDefaultPrefix();
+        }
+        CdnPrefix cdnPrefix = cdnPrefixService.getPrefixByUrl(prefix);
+        if (cdnPrefix == null) {
+            cdnPrefix = cdnPrefixService.registerLegacyPrefix(prefix.trim());
+            createdPrefixCount.incrementAndGet();
+        }
+        return cdnPrefix;
+    }
+}
@@ -1,17 +1,34 @@
 package com.nyx.ftpcdn.service;
 
 import com.nyx.ftpcdn.entity.CdnPrefix;
+import com.nyx.ftpcdn.entity.FileInfo;
 import com.nyx.ftpcdn.mapper.CdnPrefixMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * CDN前缀服务类
  * 
+ * 所有前缀在内存中保存一份不可变快照，查询直接读取快照，不访问数据库。
+ * 增删改后（事务提交后）重新加载并整体替换快照，另外定期重新加载以感知应用之外的修改。
+ * 文件记录只保存前缀ID，访问URL在读取时根据快照拼接，修改前缀URL后所有文件立即生效。
+ * URL路径与文件在FTP基础目录下的实际路径（记录的ftpPath）一致，分区目录迁移后随之改变。
+ * 拼接URL时使用探测服务按健康状态和延迟为每个前缀选择的前缀（见 {@link CdnPrefixHealthService}）。
+ * 
  * @author nyx
  */
 @Service
@@ -20,22 +37,79 @@ public class CdnPrefixService {
     @Autowired
     private CdnPrefixMapper cdnPrefixMapper;
     
+    @Autowired
+    private FtpService ftpService;
+    
+    /** 当前快照，整体替换，读取无需加锁 */
+    private volatile PrefixSnapshot snapshot = PrefixSnapshot.EMPTY;
+    
+    /** 探测结果：不健康的前缀ID */
+    private volatile Set<Long> unhealthyIds = Collections.emptySet();
+    
+    /** 探测结果：前缀ID -> 文件URL实际使用的前缀ID */
+    private volatile Map<Long, Long> routes = Collections.emptyMap();
+    
+    @PostConstruct
+    public void init() {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            // 数据库暂不可用时不影响启动，由定期重新加载补上
+            System.err.println("加载CDN前缀失败：" + e.getMessage());
+        }
+    }
+    
+    /**
+     * 定期重新加载（数据库被应用之外修改时）
+     */
+    @Scheduled(fixedDelayString = "${cdn.prefix.refresh-interval-ms:60000}",
+            initialDelayString = "${cdn.prefix.refresh-interval-ms:60000}")
+    public void scheduledReload() {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            System.err.println("重新加载CDN前缀失败，继续使用版本" + snapshot.version + "：" + e.getMessage());
+        }
+    }
+    
+    /**
+     * 从数据库重新加载前缀，内容有变化时替换快照
+     */
+    public synchronized void reload() {
+        List<CdnPrefix> prefixes = cdnPrefixMapper.selectAll();
+        String fingerprint = prefixes.toString();
+        if (fingerprint.equals(snapshot.fingerprint)) {
+            return;
+        }
+        snapshot = new PrefixSnapshot(snapshot.version + 1, prefixes, fingerprint);
+        System.out.println("CDN前缀已加载，版本：" + snapshot.version + "，数量：" + prefixes.size());
+    }
+    
+    /**
+     * 获取当前快照的版本号，每次前缀变化后递增
+     * 
+     * @return 版本号
+     */
+    public long getSnapshotVersion() {
+        return snapshot.version;
+    }
+    
     /**
      * 获取所有启用的CDN前缀
      * 
-     * @return CDN前缀列表
+     * @return CDN前缀列表（只读）
      */
     public List<CdnPrefix> getAllActivePrefixes() {
-        return cdnPrefixMapper.selectAllActive();
+        return snapshot.active;
     }
     
     /**
      * 获取所有CDN前缀
      * 
-     * @return CDN前缀列表
+     * @return CDN前缀列表（只读）
      */
     public List<CdnPrefix> getAllPrefixes() {
-        return cdnPrefixMapper.selectAll();
+        return snapshot.all;
     }
     
     /**
@@ -44,7 +118,7 @@ public class CdnPrefixService {
      * @return 默认CDN前缀
      */
     public CdnPrefix getDefaultPrefix() {
-        return cdnPrefixMapper.selectDefault();
+        return snapshot.defaultPrefix;
     }
     
     /**
@@ -54,7 +128,142 @@ public class CdnPrefixService {
      * @return CDN前缀
      */
     public CdnPrefix getPrefixById(Long id) {
-        return cdnPrefixMapper.selectById(id);
+        return snapshot.byId.get(id);
+    }
+    
+    /**
+     * 更新探测结果（由探测服务每轮探测后调用）
+     * 
+     * @param unhealthyIds 不健康的前缀ID
+     * @param routes 前缀ID -> 文件URL实际使用的前缀ID
+     */
+    public void updateHealth(Set<Long> unhealthyIds, Map<Long, Long> routes) {
+        this.unhealthyIds = Collections.unmodifiableSet(unhealthyIds);
+        this.routes = Collections.unmodifiableMap(routes);
+    }
+    
+    /**
+     * 前缀是否被探测判定为不健康
+     * 
+     * @param id CDN前缀ID
+     * @return 不健康返回true，尚未探测或健康返回false
+     */
+    public boolean isUnhealthy(Long id) {
+        return unhealthyIds.contains(id);
+    }
+    
+    /**
+     * 根据前缀URL查找上传使用的前缀ID
+     * 
+     * @param prefix 前缀URL（忽略末尾的斜杠）
+     * @return 前缀ID
+     */
+    public Long resolvePrefixId(String prefix) {
+        CdnPrefix cdnPrefix = prefix != null ? snapshot.byPrefix.get(normalizePrefix(prefix)) : null;
+        if (cdnPrefix == null || !Boolean.TRUE.equals(cdnPrefix.getIsActive())) {
+            throw new RuntimeException("CDN前缀不存在或未启用：" + prefix);
+        }
+        return cdnPrefix.getId();
+    }
+    
+    /**
+     * 根据前缀URL查找前缀（包括未启用的前缀）
+     * 
+     * @param prefix 前缀URL（忽略末尾的斜杠）
+     * @return CDN前缀，不存在时返回null
+     */
+    public CdnPrefix getPrefixByUrl(String prefix) {
+        return snapshot.byPrefix.get(normalizePrefix(prefix));
+    }
+    
+    /**
+     * 根据文件记录引用的前缀填充CDN前缀和访问URL。
+     * 引用的前缀已删除时使用默认前缀；尚未迁移的历史记录（没有前缀ID）保留原来保存的前缀；
+     * 使用探测服务按健康状态和延迟选择的前缀；gzip压缩保存的文件返回应用的下载地址。
+     * 
+     * @param fileInfo 文件信息，可以为null
+     */
+    public void resolveUrl(FileInfo fileInfo) {
+        if (fileInfo == null) {
+            return;
+        }
+        PrefixSnapshot current = snapshot;
+        CdnPrefix cdnPrefix = fileInfo.getCdnPrefixId() != null ? current.byId.get(fileInfo.getCdnPrefixId()) : null;
+        if (cdnPrefix == null) {
+            if (fileInfo.getCdnPrefixId() == null && fileInfo.getFullUrl() != null) {
+                if (fileInfo.getCdnPrefix() != null) {
+                    // 保留原来的前缀，路径随布局迁移更新
+                    fileInfo.setFullUrl(buildFileUrl(fileInfo.getCdnPrefix(), fileInfo));
+                }
+                return;
+            }
+            cdnPrefix = current.defaultPrefix;
+            if (cdnPrefix == null) {
+                return;
+            }
+        }
+        cdnPrefix = route(cdnPrefix, current);
+        fileInfo.setCdnPrefix(cdnPrefix.getPrefix());
+        fileInfo.setFullUrl(buildFileUrl(cdnPrefix.getPrefix(), fileInfo));
+    }
+    
+    /**
+     * 文件的访问URL。gzip压缩保存的文件在CDN上是没有Content-Encoding的压缩数据，
+     * 改用应用的下载接口（按Accept-Encoding直接输出gzip或解压后输出）
+     */
+    private String buildFileUrl(String prefix, FileInfo fileInfo) {
+        if (CompressionService.isGzipStored(fileInfo) && fileInfo.getId() != null) {
+            return "/file/" + fileInfo.getId() + "/download";
+        }
+        return buildUrl(prefix, ftpService.getPublicKey(fileInfo.getFtpPath(), fileInfo.getGeneratedFileName()));
+    }
+    
+    /**
+     * 批量填充CDN前缀和访问URL
+     * 
+     * @param fileInfos 文件信息
+     */
+    public void resolveUrls(Collection<FileInfo> fileInfos) {
+        for (FileInfo fileInfo : fileInfos) {
+            resolveUrl(fileInfo);
+        }
+    }
+    
+    /**
+     * 拼接完整的CDN访问URL
+     * 
+     * @param prefix CDN前缀
+     * @param fileName 文件相对于FTP基础目录的路径
+     * @return 完整的URL
+     */
+    public static String buildUrl(String prefix, String fileName) {
+        if (prefix.endsWith("/")) {
+            return prefix + fileName;
+        } else {
+            return prefix + "/" + fileName;
+        }
+    }
+    
+    /**
+     * 为迁移中遇到的、不在前缀表中的历史前缀创建一条未启用的前缀记录，保持原URL不变
+     * 
+     * @param prefix 历史记录中保存的前缀URL
+     * @return 已存在或新创建的前缀
+     */
+    public synchronized CdnPrefix registerLegacyPrefix(String prefix) {
+        CdnPrefix existing = getPrefixByUrl(prefix);
+        if (existing != null) {
+            return existing;
+        }
+        String name = "迁移前缀" + (snapshot.all.size() + 1);
+        for (int i = 2; cdnPrefixMapper.countByName(name, 0L) > 0; i++) {
+            name = "迁移前缀" + (snapshot.all.size() + i);
+        }
+        CdnPrefix cdnPrefix = new CdnPrefix(name, prefix, "迁移文件记录时根据历史URL自动创建", false, false);
+        cdnPrefixMapper.insert(cdnPrefix);
+        reload();
+        System.out.println("已为历史前缀创建CDN前缀记录：" + cdnPrefix);
+        return cdnPrefix;
     }
     
     /**
@@ -89,6 +298,7 @@ public class CdnPrefixService {
         // 保存到数据库
         int result = cdnPrefixMapper.insert(cdnPrefix);
         if (result > 0) {
+            reloadAfterCommit();
             System.out.println("CDN前缀添加成功：" + cdnPrefix);
             return cdnPrefix;
         } else {
@@ -140,6 +350,7 @@ public class CdnPrefixService {
         existingPrefix.setUpdateTime(LocalDateTime.now());
         
         int result = cdnPrefixMapper.update(existingPrefix);
+        reloadAfterCommit();
         return result > 0;
     }
     
@@ -162,6 +373,7 @@ public class CdnPrefixService {
         
         // 设置指定前缀为默认
         int result = cdnPrefixMapper.setDefault(id);
+        reloadAfterCommit();
         return result > 0;
     }
     
@@ -184,6 +396,7 @@ public class CdnPrefixService {
         }
         
         int result = cdnPrefixMapper.deleteById(id);
+        reloadAfterCommit();
         return result > 0;
     }
     
@@ -205,7 +418,88 @@ public class CdnPrefixService {
             );
             
             cdnPrefixMapper.insert(cdnPrefix);
+            reloadAfterCommit();
             System.out.println("已创建默认CDN前缀：" + cdnPrefix);
         }
     }
+    
+    /**
+     * 当前事务提交后重新加载快照（不在事务中时立即加载），回滚的修改不会进入快照
+     */
+    private void reloadAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            reload();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                reload();
+            }
+        });
+    }
+    
+    /**
+     * 返回探测服务为该前缀选择的前缀；尚未探测或选择的前缀已停用、删除时仍使用原前缀
+     */
+    private CdnPrefix route(CdnPrefix cdnPrefix, PrefixSnapshot current) {
+        Long routedId = routes.get(cdnPrefix.getId());
+        if (routedId == null || routedId.equals(cdnPrefix.getId())) {
+            return cdnPrefix;
+        }
+        CdnPrefix candidate = current.byId.get(routedId);
+        return candidate != null && Boolean.TRUE.equals(candidate.getIsActive()) ? candidate : cdnPrefix;
+    }
+    
+    /**
+     * 前缀URL比较时忽略末尾的斜杠
+     */
+    private static String normalizePrefix(String prefix) {
+        String normalized = prefix.trim();
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+    
+    /**
+     * 前缀快照，创建后不再修改
+     */
+    private static final class PrefixSnapshot {
+        
+        static final PrefixSnapshot EMPTY = new PrefixSnapshot(0, Collections.emptyList(), null);
+        
+        final long version;
+        final List<CdnPrefix> all;
+        final List<CdnPrefix> active;
+        final CdnPrefix defaultPrefix;
+        final Map<Long, CdnPrefix> byId;
+        final Map<String, CdnPrefix> byPrefix;
+        final String fingerprint;
+        
+        PrefixSnapshot(long version, List<CdnPrefix> prefixes, String fingerprint) {
+            List<CdnPrefix> active = new ArrayList<>();
+            Map<Long, CdnPrefix> byId = new HashMap<>();
+            Map<String, CdnPrefix> byPrefix = new HashMap<>();
+            CdnPrefix defaultPrefix = null;
+            // 与数据库查询的排序一致：默认前缀在前，其余按创建时间
+            for (CdnPrefix prefix : prefixes) {
+                byId.put(prefix.getId(), prefix);
+                byPrefix.putIfAbsent(normalizePrefix(prefix.getPrefix()), prefix);
+                if (Boolean.TRUE.equals(prefix.getIsActive())) {
+                    active.add(prefix);
+                    if (defaultPrefix == null && Boolean.TRUE.equals(prefix.getIsDefault())) {
+                        defaultPrefix = prefix;
+                    }
+                }
+            }
+            this.version = version;
+            this.all = Collections.unmodifiableList(new ArrayList<>(prefixes));
+            this.active = Collections.unmodifiableList(active);
+            this.defaultPrefix = defaultPrefix;
+            this.byId = Collections.unmodifiableMap(byId);
+            this.byPrefix = Collections.unmodifiableMap(byPrefix);
+            this.fingerprint = fingerprint;
+        }
+    }
 }
\ No newline at end of file
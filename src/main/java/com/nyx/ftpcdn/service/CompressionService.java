@@ -0,0 +1,449 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.FileInfo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩存储服务
+ *
+ * 文本类文件（按扩展名及内容嗅探判断）写入FTP服务器前先gzip压缩，压缩率不足的原样保存。
+ * 下载时客户端接受gzip则直接输出存储的字节（Content-Encoding: gzip），不消耗CPU；
+ * 否则在输出时边读边解压。
+ * 压缩临时文件在所有副本写完后删除；启动时清空临时目录，运行中定期删除超过最长保留时间的临时文件。
+ *
+ * @author nyx
+ */
+@Service
+public class CompressionService {
+
+    /** 压缩临时文件的后缀 */
+    private static final String TEMP_SUFFIX = ".gz";
+
+    /** 存储编码：gzip */
+    public static final String GZIP = "gzip";
+
+    /** 内容嗅探读取的字节数 */
+    private static final int SNIFF_BYTES = 8192;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** 已压缩或二进制格式的文件头，即使扩展名在列表中也不压缩 */
+    private static final byte[][] COMPRESSED_MAGICS = {
+            {0x1f, (byte) 0x8b},                          // gzip
+            {0x50, 0x4b, 0x03, 0x04},                     // zip/docx/jar
+            {(byte) 0x89, 0x50, 0x4e, 0x47},              // png
+            {(byte) 0xff, (byte) 0xd8, (byte) 0xff},      // jpeg
+            {0x47, 0x49, 0x46, 0x38},                     // gif
+            {0x52, 0x49, 0x46, 0x46},                     // webp/avi/wav
+            {0x37, 0x7a, (byte) 0xbc, (byte) 0xaf},       // 7z
+            {0x52, 0x61, 0x72, 0x21},                     // rar
+            {(byte) 0xfd, 0x37, 0x7a, 0x58},              // xz
+            {0x42, 0x5a, 0x68},                           // bzip2
+            {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd},       // zstd
+            {0x4f, 0x67, 0x67, 0x53},                     // ogg
+            {0x25, 0x50, 0x44, 0x46}                      // pdf
+    };
+
+    @Value("${compression.enabled:true}")
+    private boolean enabled;
+
+    /** 按扩展名直接判定为可压缩；其他扩展名的文件通过内容嗅探判断是否为文本 */
+    @Value("${compression.extensions:.txt,.log,.csv,.tsv,.json,.xml,.svg,.js,.mjs,.css,.html,.htm,.md,.yml,.yaml,.sql,.ini,.conf,.properties}")
+    private String[] extensions;
+
+    @Value("${compression.min-bytes:1024}")
+    private long minBytes;
+
+    /** 压缩后大小超过原大小的该比例时放弃压缩 */
+    @Value("${compression.max-ratio:0.9}")
+    private double maxRatio;
+
+    @Value("${compression.level:6}")
+    private int level;
+
+    @Value("${compression.temp-dir:./data/compress}")
+    private String tempDir;
+
+    /** 临时文件超过该时间仍未删除时视为遗留（正常情况下在副本写完后即删除） */
+    @Value("${compression.temp-max-age-ms:86400000}")
+    private long tempMaxAgeMs;
+
+    private Path tempRoot;
+
+    private Set<String> extensionSet;
+
+    // 统计
+    private final AtomicLong compressedCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final AtomicLong originalBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong passThroughCount = new AtomicLong();
+    private final AtomicLong passThroughSavedBytes = new AtomicLong();
+    private final AtomicLong decodedCount = new AtomicLong();
+    private final AtomicLong sweptTempFileCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() throws IOException {
+        extensionSet = new HashSet<>();
+        for (String extension : extensions) {
+            extensionSet.add(extension.trim().toLowerCase(Locale.ROOT));
+        }
+        tempRoot = Paths.get(tempDir).toAbsolutePath().normalize();
+        Files.createDirectories(tempRoot);
+
+        // 启动时没有正在进行的上传，临时文件都是上次运行遗留的
+        int swept = sweepTempFiles(Long.MAX_VALUE);
+        if (swept > 0) {
+            System.out.println("已清理上次运行遗留的压缩临时文件：" + swept);
+        }
+    }
+
+    /**
+     * 定期删除超过最长保留时间的压缩临时文件
+     */
+    @Scheduled(fixedDelayString = "${compression.temp-sweep-interval-ms:3600000}",
+            initialDelayString = "${compression.temp-sweep-interval-ms:3600000}")
+    public void scheduledSweep() {
+        int swept = sweepTempFiles(System.currentTimeMillis() - tempMaxAgeMs);
+        if (swept > 0) {
+            System.out.println("已清理过期的压缩临时文件：" + swept);
+        }
+    }
+
+    /**
+     * FTP上保存的字节数（历史数据未记录时与文件大小相同）
+     *
+     * @param fileInfo 文件信息
+     * @return 存储字节数
+     */
+    public static long getStoredSize(FileInfo fileInfo) {
+        return fileInfo.getStoredSize() != null ? fileInfo.getStoredSize() : fileInfo.getFileSize();
+    }
+
+    /**
+     * 文件是否以gzip压缩保存
+     *
+     * @param fileInfo 文件信息
+     * @return 是否压缩保存
+     */
+    public static boolean isGzipStored(FileInfo fileInfo) {
+        return GZIP.equals(fileInfo.getContentEncoding());
+    }
+
+    /**
+     * 按需压缩待写入FTP服务器的内容
+     *
+     * @param source 原始内容
+     * @param fileExtension 文件扩展名（包含点号）
+     * @param size 原始大小
+     * @return 压缩结果，不需要压缩或压缩率不足时返回null（调用方原样写入）
+     */
+    public Compressed compress(InputStreamSource source, String fileExtension, long size) throws IOException {
+        if (!enabled || size < minBytes || !isCompressible(source, fileExtension)) {
+            skippedCount.incrementAndGet();
+            return null;
+        }
+
+        Path tempFile = tempRoot.resolve(UUID.randomUUID().toString() + TEMP_SUFFIX);
+        try (InputStream inputStream = source.getInputStream();
+             GZIPOutputStream outputStream = new LeveledGzipOutputStream(Files.newOutputStream(tempFile), level)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+
+        long compressedSize = Files.size(tempFile);
+        if (compressedSize > size * maxRatio) {
+            Files.deleteIfExists(tempFile);
+            skippedCount.incrementAndGet();
+            return null;
+        }
+        compressedCount.incrementAndGet();
+        originalBytes.addAndGet(size);
+        storedBytes.addAndGet(compressedSize);
+        return new Compressed(tempFile, compressedSize);
+    }
+
+    /**
+     * 创建边写边解压的输出流，写入完成后调用 {@link GunzipOutputStream#finish()} 校验完整性，最后关闭以释放解压器
+     *
+     * @param target 解压后内容的目标输出流（不会被关闭）
+     * @return 解压输出流
+     */
+    public GunzipOutputStream newGunzipStream(OutputStream target) {
+        decodedCount.incrementAndGet();
+        return new GunzipOutputStream(target);
+    }
+
+    /**
+     * 记录一次直接输出压缩内容的下载
+     *
+     * @param fileInfo 文件信息
+     */
+    public void recordPassThrough(FileInfo fileInfo) {
+        passThroughCount.incrementAndGet();
+        passThroughSavedBytes.addAndGet(fileInfo.getFileSize() - getStoredSize(fileInfo));
+    }
+
+    /**
+     * 获取压缩统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("compressed", compressedCount.get());
+        metrics.put("skipped", skippedCount.get());
+        metrics.put("originalBytes", originalBytes.get());
+        metrics.put("storedBytes", storedBytes.get());
+        metrics.put("ratio", originalBytes.get() == 0 ? 0 : (double) storedBytes.get() / originalBytes.get());
+        metrics.put("passThroughDownloads", passThroughCount.get());
+        metrics.put("passThroughSavedBytes", passThroughSavedBytes.get());
+        metrics.put("decodedDownloads", decodedCount.get());
+        metrics.put("sweptTempFiles", sweptTempFileCount.get());
+        return metrics;
+    }
+
+    /**
+     * 删除最后修改时间早于指定时间的压缩临时文件
+     *
+     * @return 删除的文件数
+     */
+    private int sweepTempFiles(long modifiedBefore) {
+        int swept = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(tempRoot, "*" + TEMP_SUFFIX)) {
+            for (Path file : stream) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < modifiedBefore && Files.deleteIfExists(file)) {
+                        swept++;
+                    }
+                } catch (IOException e) {
+                    System.err.println("删除压缩临时文件失败：" + file + "，" + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("扫描压缩临时目录失败：" + tempRoot + "，" + e.getMessage());
+        }
+        sweptTempFileCount.addAndGet(swept);
+        return swept;
+    }
+
+    /**
+     * 扩展名在列表中或内容嗅探为文本，且文件头不是已压缩格式
+     */
+    private boolean isCompressible(InputStreamSource source, String fileExtension) throws IOException {
+        byte[] head = new byte[SNIFF_BYTES];
+        int length = 0;
+        try (InputStream inputStream = source.getInputStream()) {
+            int read;
+            while (length < head.length && (read = inputStream.read(head, length, head.length - length)) != -1) {
+                length += read;
+            }
+        }
+        for (byte[] magic : COMPRESSED_MAGICS) {
+            if (length >= magic.length && Arrays.equals(Arrays.copyOf(head, magic.length), magic)) {
+                return false;
+            }
+        }
+        if (fileExtension != null && extensionSet.contains(fileExtension.toLowerCase(Locale.ROOT))) {
+            return true;
+        }
+        return looksLikeText(head, length);
+    }
+
+    /**
+     * 不含NUL且控制字符不超过1%视为文本（UTF-8多字节字符的字节均不小于0x80，不影响判断）
+     */
+    private static boolean looksLikeText(byte[] head, int length) {
+        if (length == 0) {
+            return false;
+        }
+        int control = 0;
+        for (int i = 0; i < length; i++) {
+            int b = head[i] & 0xff;
+            if (b == 0) {
+                return false;
+            }
+            if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f' && b != 0x1b) {
+                control++;
+            }
+        }
+        return control * 100 <= length;
+    }
+
+    /**
+     * 压缩后的临时文件，写入FTP服务器后调用 {@link #discard()} 删除
+     */
+    public static class Compressed {
+
+        private final Path file;
+        private final long size;
+
+        Compressed(Path file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        public InputStreamSource getSource() {
+            return new FileSystemResource(file);
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void discard() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.err.println("删除压缩临时文件失败：" + file + "，" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 可指定压缩级别的gzip输出流
+     */
+    private static class LeveledGzipOutputStream extends GZIPOutputStream {
+
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+
+    /**
+     * 边写边解压的输出流：写入gzip字节，向目标流输出解压后的内容。
+     * 只支持本服务写入的gzip格式（10字节头部、无扩展字段），结束时校验CRC32和长度。
+     */
+    public static class GunzipOutputStream extends FilterOutputStream {
+
+        private static final int HEADER_SIZE = 10;
+        private static final int TRAILER_SIZE = 8;
+
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] header = new byte[HEADER_SIZE];
+        private final byte[] trailer = new byte[TRAILER_SIZE];
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private boolean ended = false;
+        private int headerRead = 0;
+        private int trailerRead = 0;
+        private long inflatedBytes = 0;
+
+        GunzipOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (headerRead < HEADER_SIZE) {
+                    int n = Math.min(len, HEADER_SIZE - headerRead);
+                    System.arraycopy(b, off, header, headerRead, n);
+                    headerRead += n;
+                    off += n;
+                    len -= n;
+                    if (headerRead == HEADER_SIZE && (header[0] != 0x1f || header[1] != (byte) 0x8b
+                            || header[2] != 8 || header[3] != 0)) {
+                        throw new IOException("不支持的gzip头部");
+                    }
+                } else if (!inflater.finished()) {
+                    inflater.setInput(b, off, len);
+                    inflate();
+                    int consumed = len - inflater.getRemaining();
+                    off += consumed;
+                    len -= consumed;
+                } else {
+                    int n = Math.min(len, TRAILER_SIZE - trailerRead);
+                    if (n == 0) {
+                        throw new IOException("gzip内容结束后存在多余数据");
+                    }
+                    System.arraycopy(b, off, trailer, trailerRead, n);
+                    trailerRead += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+        }
+
+        /**
+         * 校验内容完整（CRC32和长度与尾部一致），不关闭目标流
+         */
+        public void finish() throws IOException {
+            if (!inflater.finished() || trailerRead < TRAILER_SIZE) {
+                throw new IOException("gzip内容不完整");
+            }
+            if (readInt(trailer, 0) != (int) crc.getValue() || readInt(trailer, 4) != (int) inflatedBytes) {
+                throw new IOException("gzip内容校验失败");
+            }
+            out.flush();
+        }
+
+        /**
+         * 释放解压器，不关闭目标流
+         */
+        @Override
+        public void close() {
+            if (!ended) {
+                ended = true;
+                inflater.end();
+            }
+        }
+
+        private void inflate() throws IOException {
+            try {
+                int n;
+                while ((n = inflater.inflate(buffer)) > 0) {
+                    crc.update(buffer, 0, n);
+                    inflatedBytes += n;
+                    out.write(buffer, 0, n);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("gzip内容损坏：" + e.getMessage(), e);
+            }
+        }
+
+        private static int readInt(byte[] bytes, int offset) {
+            return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8
+                    | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+        }
+    }
+}
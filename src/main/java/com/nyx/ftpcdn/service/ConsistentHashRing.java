@@ -0,0 +1,104 @@
+package com.nyx.ftpcdn.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 一致性哈希环
+ *
+ * 每个节点在环上放置若干虚拟节点，键顺时针找到的第一个虚拟节点即为其所属节点。
+ * 增加或移除一个节点时，只有约1/N的键需要迁移。
+ *
+ * @author nyx
+ */
+public class ConsistentHashRing {
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    private final Set<String> nodes;
+
+    /**
+     * @param nodes 节点名称
+     * @param virtualNodes 每个节点的虚拟节点数量
+     */
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("一致性哈希环至少需要一个节点");
+        }
+        this.nodes = Collections.unmodifiableSet(new LinkedHashSet<>(nodes));
+        for (String node : this.nodes) {
+            for (int i = 0; i < Math.max(1, virtualNodes); i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * 查找键所属的节点
+     *
+     * @param key 键
+     * @return 节点名称
+     */
+    public String locate(String key) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * 沿环顺时针查找键所属的前count个不同节点
+     *
+     * @param key 键
+     * @param count 节点数量（超过节点总数时返回全部节点）
+     * @return 节点名称，第一个与 {@link #locate(String)} 一致
+     */
+    public List<String> locate(String key, int count) {
+        int limit = Math.min(count, nodes.size());
+        Set<String> result = new LinkedHashSet<>();
+        long hash = hash(key);
+        for (String node : ring.tailMap(hash, true).values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(node);
+        }
+        for (String node : ring.values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(node);
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * 获取所有节点
+     */
+    public Set<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * 取MD5摘要的前8字节作为环上的位置
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前JVM不支持MD5", e);
+        }
+    }
+}
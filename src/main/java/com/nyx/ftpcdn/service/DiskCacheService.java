@@ -0,0 +1,416 @@
+package com.nyx.ftpcdn.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地磁盘缓存服务
+ *
+ * 以生成的文件名为键在本地磁盘缓存FTP文件。生成的文件名对应的内容不会改变，
+ * 因此缓存条目只在文件被删除时失效，其余情况按LRU和容量上限淘汰。
+ *
+ * @author nyx
+ */
+@Service
+public class DiskCacheService {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    @Value("${cache.disk.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cache.disk.dir:./data/cache}")
+    private String cacheDir;
+
+    @Value("${cache.disk.max-bytes:10737418240}")
+    private long maxBytes;
+
+    @Value("${cache.disk.max-object-bytes:1073741824}")
+    private long maxObjectBytes;
+
+    private Path cacheRoot;
+
+    /** 缓存索引（访问顺序，最久未访问的在最前），值为文件大小 */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(256, 0.75f, true);
+
+    /** 当前缓存占用字节数，由index锁保护 */
+    private long currentBytes = 0;
+
+    // 缓存统计
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong fillCount = new AtomicLong();
+    private final AtomicLong fillFailureCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+
+    /**
+     * 启动时扫描缓存目录重建索引
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        cacheRoot = Paths.get(cacheDir).toAbsolutePath().normalize();
+        Files.createDirectories(cacheRoot);
+
+        // 按最后修改时间排序，近似恢复LRU顺序
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheRoot, Files::isRegularFile)) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    // 上次运行中断的填充
+                    deleteQuietly(file);
+                } else {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort((a, b) -> Long.compare(lastModified(a), lastModified(b)));
+
+        List<Path> victims;
+        synchronized (index) {
+            for (Path file : files) {
+                try {
+                    long size = Files.size(file);
+                    index.put(file.getFileName().toString(), size);
+                    currentBytes += size;
+                } catch (IOException e) {
+                    deleteQuietly(file);
+                }
+            }
+            victims = evictIfNeeded();
+        }
+        victims.forEach(this::deleteQuietly);
+        System.out.println("磁盘缓存索引重建完成，条目数：" + index.size() + "，占用字节：" + currentBytes);
+    }
+
+    /**
+     * 查找完整的缓存文件，供下载接口交给Servlet容器以sendfile直接发送（零拷贝）。
+     * 命中时计入命中次数和输出字节数；未命中不计数，由随后的 {@link #transferTo} 计入。
+     *
+     * @param key 缓存键（生成的文件名）
+     * @param bytes 将要发送的字节数
+     * @return 缓存文件路径，未缓存或文件已被截断返回null
+     */
+    public Path lookup(String key, long bytes) {
+        if (!enabled) {
+            return null;
+        }
+        Long indexedSize;
+        synchronized (index) {
+            indexedSize = index.get(key);
+        }
+        if (indexedSize == null) {
+            return null;
+        }
+        Path path = resolve(key);
+        try {
+            if (Files.size(path) < indexedSize) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        hitCount.incrementAndGet();
+        bytesServed.addAndGet(bytes);
+        return path;
+    }
+
+    /**
+     * 从缓存读取文件并写入输出流（FileChannel.transferTo）
+     *
+     * 目标是Servlet输出流时transferTo只能经过Channels.newChannel包装的通道逐块拷贝，
+     * 不是零拷贝：数据仍要读入JVM缓冲区再写入响应。省去的是回源FTP的网络读取。
+     * 容器支持sendfile时下载接口先通过 {@link #lookup} 取得文件直接发送，这里只处理其余情况。
+     * 缓存文件比索引记录的短（被截断）时视为未命中并删除该条目。
+     *
+     * @param key 缓存键（生成的文件名）
+     * @param offset 起始偏移量
+     * @param length 读取长度，小于0表示读取到文件末尾
+     * @param outputStream 目标输出流
+     * @return 缓存命中并写出返回true，未命中返回false
+     * @throws IOException 写出失败，或已写出部分数据后缓存文件被截断
+     */
+    public boolean transferTo(String key, long offset, long length, OutputStream outputStream) throws IOException {
+        if (!enabled) {
+            return false;
+        }
+        Long indexedSize;
+        synchronized (index) {
+            indexedSize = index.get(key);
+        }
+        if (indexedSize == null) {
+            missCount.incrementAndGet();
+            return false;
+        }
+
+        long transferred;
+        try (FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < indexedSize) {
+                System.err.println("磁盘缓存文件已被截断，删除缓存条目：" + key + "，大小：" + size + "/" + indexedSize);
+                remove(key);
+                missCount.incrementAndGet();
+                return false;
+            }
+            long end = length < 0 ? size : Math.min(size, offset + length);
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = offset;
+            while (position < end) {
+                long count = channel.transferTo(position, end - position, target);
+                if (count <= 0) {
+                    // 读取过程中被截断
+                    remove(key);
+                    if (position == offset) {
+                        missCount.incrementAndGet();
+                        return false;
+                    }
+                    throw new IOException("磁盘缓存文件读取中被截断：" + key + "，已写出：" + (position - offset));
+                }
+                position += count;
+            }
+            transferred = end - offset;
+        } catch (NoSuchFileException e) {
+            // 文件已被外部删除
+            remove(key);
+            missCount.incrementAndGet();
+            return false;
+        }
+
+        hitCount.incrementAndGet();
+        bytesServed.addAndGet(transferred);
+        return true;
+    }
+
+    /**
+     * 开始填充缓存
+     *
+     * @param key 缓存键（生成的文件名）
+     * @param expectedSize 预期文件大小，未知时传null
+     * @return 缓存填充器，不适合缓存时返回null
+     */
+    public CacheFill openFill(String key, Long expectedSize) {
+        if (!enabled || (expectedSize != null && expectedSize > maxObjectBytes)) {
+            return null;
+        }
+        Path tempFile = cacheRoot.resolve(key + "." + UUID.randomUUID() + TEMP_SUFFIX);
+        try {
+            return new CacheFill(key, expectedSize, tempFile, Files.newOutputStream(tempFile));
+        } catch (IOException e) {
+            System.err.println("创建缓存临时文件失败：" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 删除缓存条目（文件被删除时调用）
+     *
+     * @param key 缓存键（生成的文件名）
+     */
+    public void invalidate(String key) {
+        if (enabled) {
+            remove(key);
+        }
+    }
+
+    /**
+     * 获取缓存统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long hits = hitCount.get();
+        long lookups = hits + missCount.get();
+        metrics.put("enabled", enabled);
+        synchronized (index) {
+            metrics.put("entries", index.size());
+            metrics.put("currentBytes", currentBytes);
+        }
+        metrics.put("maxBytes", maxBytes);
+        metrics.put("hits", hits);
+        metrics.put("misses", missCount.get());
+        metrics.put("hitRatio", lookups == 0 ? 0 : (double) hits / lookups);
+        metrics.put("bytesSaved", bytesServed.get());
+        metrics.put("fills", fillCount.get());
+        metrics.put("fillFailures", fillFailureCount.get());
+        metrics.put("evictions", evictionCount.get());
+        metrics.put("evictedBytes", evictedBytes.get());
+        return metrics;
+    }
+
+    /**
+     * 将填充完成的文件登记到索引
+     */
+    private void register(String key, Path tempFile, long size) throws IOException {
+        Files.move(tempFile, resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        List<Path> victims;
+        synchronized (index) {
+            Long previous = index.put(key, size);
+            if (previous != null) {
+                currentBytes -= previous;
+            }
+            currentBytes += size;
+            victims = evictIfNeeded();
+        }
+        victims.forEach(this::deleteQuietly);
+        fillCount.incrementAndGet();
+    }
+
+    /**
+     * 超出容量时按LRU淘汰，调用方需持有index锁
+     *
+     * @return 需要删除的文件
+     */
+    private List<Path> evictIfNeeded() {
+        List<Path> victims = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            currentBytes -= eldest.getValue();
+            evictionCount.incrementAndGet();
+            evictedBytes.addAndGet(eldest.getValue());
+            victims.add(resolve(eldest.getKey()));
+        }
+        return victims;
+    }
+
+    private void remove(String key) {
+        synchronized (index) {
+            Long size = index.remove(key);
+            if (size == null) {
+                return;
+            }
+            currentBytes -= size;
+        }
+        deleteQuietly(resolve(key));
+    }
+
+    private Path resolve(String key) {
+        Path path = cacheRoot.resolve(key).normalize();
+        if (!cacheRoot.equals(path.getParent())) {
+            throw new IllegalArgumentException("非法的缓存键：" + key);
+        }
+        return path;
+    }
+
+    private long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("删除缓存文件失败：" + path + "，" + e.getMessage());
+        }
+    }
+
+    /**
+     * 缓存填充器：数据先写入临时文件，完整写入后原子重命名为缓存文件。
+     * 写入失败时只放弃缓存，不影响正在进行的下载。
+     */
+    public class CacheFill {
+
+        private final String key;
+        private final Long expectedSize;
+        private final Path tempFile;
+        private final OutputStream fileStream;
+        private long written = 0;
+        private boolean failed = false;
+
+        private final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                if (failed) {
+                    return;
+                }
+                try {
+                    fileStream.write(b, off, len);
+                    written += len;
+                } catch (IOException e) {
+                    failed = true;
+                    System.err.println("写入缓存文件失败：" + e.getMessage());
+                }
+            }
+        };
+
+        CacheFill(String key, Long expectedSize, Path tempFile, OutputStream fileStream) {
+            this.key = key;
+            this.expectedSize = expectedSize;
+            this.tempFile = tempFile;
+            this.fileStream = fileStream;
+        }
+
+        /**
+         * 获取写入缓存的输出流（写入失败不会抛出异常）
+         */
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        /**
+         * 数据完整写入后提交到缓存
+         */
+        public void commit() {
+            try {
+                fileStream.close();
+                if (failed || (expectedSize != null && written != expectedSize)) {
+                    abort();
+                    return;
+                }
+                register(key, tempFile, written);
+            } catch (IOException e) {
+                System.err.println("提交缓存文件失败：" + e.getMessage());
+                abort();
+            }
+        }
+
+        /**
+         * 放弃本次填充
+         */
+        public void abort() {
+            fillFailureCount.incrementAndGet();
+            try {
+                fileStream.close();
+            } catch (IOException ignored) {
+                // 临时文件随后删除
+            }
+            deleteQuietly(tempFile);
+        }
+    }
+}
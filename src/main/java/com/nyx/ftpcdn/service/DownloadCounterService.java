@@ -0,0 +1,203 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.mapper.FileInfoMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 下载次数写回缓冲
+ *
+ * 每次下载只在内存中按文件ID的LongAdder分散累加，热点文件的并发下载不会争用同一个值。
+ * 定期用 sumThenReset 取走各文件的增量，通过 UPDATE ... CASE id WHEN ... 批量写回数据库。
+ * 计数器创建后不再移除（移除与累加之间无法避免丢失计数），内存占用为启动以来下载过的文件数个计数器；
+ * sumThenReset 在JDK 9及以上对每个单元原子地取走并清零，与并发累加之间不会丢失计数。
+ * 未写回的增量超过上限时提前写回，应用关闭时写回剩余增量。
+ * 进程异常退出最多丢失一个写回周期（或上限数量）内的计数。
+ * 查询文件信息时合并尚未写回的增量。
+ *
+ * @author nyx
+ */
+@Service
+public class DownloadCounterService {
+
+    @Value("${download.counter.batch-size:500}")
+    private int batchSize;
+
+    /** 未写回的下载次数达到该值时立即写回 */
+    @Value("${download.counter.max-pending:10000}")
+    private long maxPending;
+
+    @Autowired
+    private FileInfoMapper fileInfoMapper;
+
+    /** 文件ID -> 尚未写回的下载次数 */
+    private final Map<Long, LongAdder> pending = new ConcurrentHashMap<>();
+
+    private final LongAdder pendingTotal = new LongAdder();
+
+    private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "download-counter-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+
+    // 统计
+    private final AtomicLong flushedCount = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong flushFailureCount = new AtomicLong();
+    private volatile long lastFlushedAt = 0;
+
+    /**
+     * 记录一次下载
+     *
+     * @param id 文件ID
+     */
+    public void increment(Long id) {
+        pending.computeIfAbsent(id, key -> new LongAdder()).increment();
+        pendingTotal.increment();
+        if (pendingTotal.sum() >= maxPending && flushRequested.compareAndSet(false, true)) {
+            flushExecutor.execute(() -> {
+                flushRequested.set(false);
+                flush();
+            });
+        }
+    }
+
+    /**
+     * 获取尚未写回的下载次数
+     *
+     * @param id 文件ID
+     * @return 未写回的次数
+     */
+    public long getPending(Long id) {
+        LongAdder delta = pending.get(id);
+        return delta != null ? delta.sum() : 0;
+    }
+
+    /**
+     * 将尚未写回的下载次数合并到文件信息中
+     *
+     * @param fileInfo 文件信息，可以为null
+     */
+    public void mergePending(FileInfo fileInfo) {
+        if (fileInfo == null || pending.isEmpty()) {
+            return;
+        }
+        long delta = getPending(fileInfo.getId());
+        if (delta > 0) {
+            int current = fileInfo.getDownloadCount() != null ? fileInfo.getDownloadCount() : 0;
+            fileInfo.setDownloadCount((int) Math.min(Integer.MAX_VALUE, current + delta));
+        }
+    }
+
+    /**
+     * 将尚未写回的下载次数合并到文件列表中
+     *
+     * @param fileInfos 文件列表
+     */
+    public void mergePending(List<FileInfo> fileInfos) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        for (FileInfo fileInfo : fileInfos) {
+            mergePending(fileInfo);
+        }
+    }
+
+    /**
+     * 定期写回累计的下载次数
+     */
+    @Scheduled(fixedDelayString = "${download.counter.flush-interval-ms:5000}")
+    public void scheduledFlush() {
+        flush();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushExecutor.shutdownNow();
+        flush();
+    }
+
+    /**
+     * 批量写回累计的下载次数，写回失败的增量保留到下次
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<Long, Long> deltas = new LinkedHashMap<>();
+        for (Map.Entry<Long, LongAdder> entry : pending.entrySet()) {
+            // 取走计数并清零，之后的下载继续累加到同一个计数器
+            long delta = entry.getValue().sumThenReset();
+            if (delta == 0) {
+                continue;
+            }
+            pendingTotal.add(-delta);
+            deltas.put(entry.getKey(), delta);
+            if (deltas.size() >= batchSize) {
+                write(deltas);
+                deltas = new LinkedHashMap<>();
+            }
+        }
+        if (!deltas.isEmpty()) {
+            write(deltas);
+        }
+        lastFlushedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 获取写回统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long pendingFiles = 0;
+        for (LongAdder delta : pending.values()) {
+            if (delta.sum() > 0) {
+                pendingFiles++;
+            }
+        }
+        metrics.put("pendingFiles", pendingFiles);
+        metrics.put("trackedFiles", pending.size());
+        metrics.put("pendingDownloads", pendingTotal.sum());
+        metrics.put("maxPending", maxPending);
+        metrics.put("flushedDownloads", flushedCount.get());
+        metrics.put("flushedRows", flushedRows.get());
+        metrics.put("flushFailures", flushFailureCount.get());
+        metrics.put("lastFlushedAt", lastFlushedAt);
+        return metrics;
+    }
+
+    private void write(Map<Long, Long> deltas) {
+        try {
+            flushedRows.addAndGet(fileInfoMapper.addDownloadCounts(deltas));
+            for (long delta : deltas.values()) {
+                flushedCount.addAndGet(delta);
+            }
+        } catch (RuntimeException e) {
+            flushFailureCount.incrementAndGet();
+            System.err.println("写回下载次数失败，" + deltas.size() + "个文件的计数保留到下次：" + e.getMessage());
+            for (Map.Entry<Long, Long> entry : deltas.entrySet()) {
+                pending.computeIfAbsent(entry.getKey(), key -> new LongAdder()).add(entry.getValue());
+                pendingTotal.add(entry.getValue());
+            }
+        }
+    }
+}
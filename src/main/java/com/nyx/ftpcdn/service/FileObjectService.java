@@ -0,0 +1,110 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.FileObject;
+import com.nyx.ftpcdn.mapper.FileObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * 物理存储对象服务类
+ *
+ * 相同内容（SHA-256相同）的文件在FTP服务器上只保存一份，
+ * 通过引用计数决定何时真正删除FTP文件。
+ *
+ * @author nyx
+ */
+@Service
+public class FileObjectService {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    @Autowired
+    private FileObjectMapper fileObjectMapper;
+
+    /**
+     * 登记新上传的物理对象。若相同内容的对象已存在，则增加其引用计数并返回已有对象，
+     * 调用方应删除本次上传的多余文件。
+     *
+     * @param contentHash 内容哈希
+     * @param objectName 本次上传的FTP文件名
+     * @param fileSize 文件大小
+     * @param contentEncoding 存储编码，原样保存时为null
+     * @param storedSize FTP上保存的字节数
+     * @param replicaNodes 本次上传已写入的副本节点
+     * @return 实际引用的存储对象（已有对象的存储编码可能与本次上传不同）
+     */
+    public FileObject acquire(String contentHash, String objectName, long fileSize, String contentEncoding,
+                              long storedSize, List<String> replicaNodes) {
+        FileObject fileObject = new FileObject(contentHash, objectName, fileSize, replicaNodes.get(0),
+                FtpService.joinNodes(replicaNodes));
+        fileObject.setContentEncoding(contentEncoding);
+        fileObject.setStoredSize(storedSize);
+        fileObjectMapper.upsert(fileObject);
+        return fileObjectMapper.selectByHash(contentHash);
+    }
+
+    /**
+     * 若相同内容的对象已存在，则增加引用计数（秒传）
+     *
+     * @param contentHash 内容哈希
+     * @param fileSize 文件大小，用于校验
+     * @return 已存在的存储对象，不存在返回null
+     */
+    @Transactional
+    public FileObject acquireExisting(String contentHash, long fileSize) {
+        FileObject fileObject = fileObjectMapper.selectByHash(contentHash);
+        if (fileObject == null || fileObject.getFileSize() != fileSize) {
+            return null;
+        }
+        if (fileObjectMapper.incrementRefCount(contentHash) == 0) {
+            return null;
+        }
+        return fileObject;
+    }
+
+    /**
+     * 释放一个引用
+     *
+     * @param contentHash 内容哈希
+     * @return 最后一个引用被释放时返回该对象（调用方应删除FTP文件），否则返回null
+     */
+    @Transactional
+    public FileObject release(String contentHash) {
+        // 先加行锁再读取，保证与并发的秒传互斥
+        fileObjectMapper.decrementRefCount(contentHash);
+        FileObject fileObject = fileObjectMapper.selectByHash(contentHash);
+        if (fileObject == null || fileObject.getRefCount() > 0) {
+            return null;
+        }
+        fileObjectMapper.deleteUnreferenced(contentHash);
+        return fileObject;
+    }
+
+    /**
+     * 创建SHA-256摘要
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前JVM不支持SHA-256", e);
+        }
+    }
+
+    /**
+     * 摘要转换为小写十六进制字符串
+     */
+    public static String toHex(byte[] digest) {
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX_DIGITS[digest[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,279 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.mapper.FileInfoMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 已删除文件的后台清理服务
+ *
+ * 删除文件时只标记记录（deleted_at），由本服务定期按ID分批扫描标记删除的记录：
+ * 释放存储对象的引用，将需要删除的FTP文件按节点分组，每个节点在同一个会话中批量DELE，
+ * 全部副本删除成功后通过 DELETE ... WHERE id IN (...) 批量删除记录。
+ * 删除失败的记录保留，按指数退避在之后的清理中重试。
+ *
+ * @author nyx
+ */
+@Service
+public class FilePurgeService {
+
+    @Value("${delete.purge.enabled:true}")
+    private boolean enabled;
+
+    @Value("${delete.purge.batch-size:500}")
+    private int batchSize;
+
+    @Value("${delete.purge.initial-backoff-ms:10000}")
+    private long initialBackoffMs;
+
+    @Value("${delete.purge.max-backoff-ms:600000}")
+    private long maxBackoffMs;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private FtpService ftpService;
+
+    @Autowired
+    private FileInfoMapper fileInfoMapper;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "file-purge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /** 删除失败的记录：ID -> {失败次数, 下次重试时间} */
+    private final Map<Long, long[]> retries = new ConcurrentHashMap<>();
+
+    // 统计
+    private final AtomicLong purgedCount = new AtomicLong();
+    private final AtomicLong deletedObjectCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile long lastStartedAt = 0;
+    private volatile long lastFinishedAt = 0;
+
+    /**
+     * 定期清理标记删除的文件
+     */
+    @Scheduled(fixedDelayString = "${delete.purge.interval-ms:10000}",
+            initialDelayString = "${delete.purge.interval-ms:10000}")
+    public void scheduledPurge() {
+        if (enabled) {
+            trigger();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 未清理的记录仍保持标记删除状态，下次启动后继续
+        executor.shutdownNow();
+    }
+
+    /**
+     * 在后台开始一轮清理
+     *
+     * @return 已有清理在运行时返回false
+     */
+    public boolean trigger() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        executor.execute(() -> {
+            try {
+                purge();
+            } catch (RuntimeException e) {
+                System.err.println("文件清理异常终止：" + e.getMessage());
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 获取清理统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("running", running.get());
+        metrics.put("purged", purgedCount.get());
+        metrics.put("deletedObjects", deletedObjectCount.get());
+        metrics.put("failed", failedCount.get());
+        metrics.put("retrying", retries.size());
+        metrics.put("lastStartedAt", lastStartedAt);
+        metrics.put("lastFinishedAt", lastFinishedAt);
+        return metrics;
+    }
+
+    private void purge() {
+        lastStartedAt = System.currentTimeMillis();
+        long purged = purgedCount.get();
+        long afterId = 0;
+        List<FileInfo> batch;
+        do {
+            batch = fileInfoMapper.selectDeletedAfterId(afterId, batchSize);
+            if (batch.isEmpty() || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            afterId = batch.get(batch.size() - 1).getId();
+            purgeBatch(batch);
+        } while (batch.size() == batchSize);
+
+        lastFinishedAt = System.currentTimeMillis();
+        if (purgedCount.get() > purged) {
+            System.out.println("文件清理结束，删除记录数：" + (purgedCount.get() - purged) + "，等待重试：" + retries.size());
+        }
+    }
+
+    /**
+     * 清理一批标记删除的记录
+     */
+    private void purgeBatch(List<FileInfo> batch) {
+        long now = System.currentTimeMillis();
+        List<Long> removableIds = new ArrayList<>();
+        Map<String, List<String>> fileNamesByNode = new LinkedHashMap<>();
+        Map<String, Long> idsByFileName = new LinkedHashMap<>();
+        Map<FileInfo, List<String>> variantsByFile = new LinkedHashMap<>();
+        for (FileInfo fileInfo : batch) {
+            long[] retry = retries.get(fileInfo.getId());
+            if (retry != null && retry[1] > now) {
+                continue;
+            }
+
+            Set<String> nodes;
+            if (FileInfo.STATUS_PENDING.equals(fileInfo.getStatus())) {
+                // 尚未写入FTP服务器，由后台上传任务清理暂存文件和已写入的副本
+                removableIds.add(fileInfo.getId());
+                continue;
+            } else if (FileInfo.STATUS_FAILED.equals(fileInfo.getStatus())) {
+                // 未登记存储对象，只需清理各副本节点上可能残留的部分文件
+                nodes = new LinkedHashSet<>(ftpService.selectNodes(fileInfo.getGeneratedFileName()));
+            } else {
+                if (FileInfo.STATUS_READY.equals(fileInfo.getStatus()) && !release(fileInfo)) {
+                    continue;
+                }
+                // 同时清理尚未登记的副本（仲裁返回后才写完的副本）
+                nodes = new LinkedHashSet<>(ftpService.resolveReplicas(fileInfo.getStorageNode(),
+                        fileInfo.getReplicaNodes()));
+                nodes.addAll(ftpService.selectNodes(fileInfo.getGeneratedFileName()));
+            }
+            for (String node : nodes) {
+                fileNamesByNode.computeIfAbsent(node, key -> new ArrayList<>()).add(fileInfo.getGeneratedFileName());
+            }
+            idsByFileName.put(fileInfo.getGeneratedFileName(), fileInfo.getId());
+            if (!FileInfo.STATUS_FAILED.equals(fileInfo.getStatus())) {
+                // 顺带从登记的节点删除缩略图（已移除的节点跳过），删除失败不影响记录的清理
+                Map<String, List<String>> variants = getStoredVariants(fileInfo);
+                if (!variants.isEmpty()) {
+                    variantsByFile.put(fileInfo, new ArrayList<>(variants.keySet()));
+                }
+                for (Map.Entry<String, List<String>> variant : variants.entrySet()) {
+                    for (String node : variant.getValue()) {
+                        if (ftpService.hasNode(node)) {
+                            fileNamesByNode.computeIfAbsent(node, key -> new ArrayList<>()).add(variant.getKey());
+                        }
+                    }
+                }
+            }
+        }
+
+        Set<String> failed = fileNamesByNode.isEmpty()
+                ? new LinkedHashSet<>() : ftpService.deleteBatch(fileNamesByNode);
+        for (Map.Entry<String, Long> entry : idsByFileName.entrySet()) {
+            if (failed.contains(entry.getKey())) {
+                scheduleRetry(entry.getValue(), now);
+            } else {
+                deletedObjectCount.incrementAndGet();
+                removableIds.add(entry.getValue());
+            }
+        }
+        for (Map.Entry<FileInfo, List<String>> entry : variantsByFile.entrySet()) {
+            // 有变体删除失败时保留登记，同一内容再次上传并删除时重试
+            if (Collections.disjoint(failed, entry.getValue())) {
+                forgetVariants(entry.getKey());
+            }
+        }
+
+        if (!removableIds.isEmpty()) {
+            purgedCount.addAndGet(fileInfoMapper.deleteByIds(removableIds));
+            for (Long id : removableIds) {
+                retries.remove(id);
+            }
+        }
+    }
+
+    /**
+     * 释放记录引用的存储对象
+     *
+     * @return 需要删除FTP文件返回true；仍有其他引用（记录已删除）或释放失败返回false
+     */
+    private boolean release(FileInfo fileInfo) {
+        try {
+            if (fileService.releaseDeletedFile(fileInfo)) {
+                return true;
+            }
+            purgedCount.incrementAndGet();
+            retries.remove(fileInfo.getId());
+            return false;
+        } catch (RuntimeException e) {
+            System.err.println("释放存储对象失败：" + fileInfo.getGeneratedFileName() + "，" + e.getMessage());
+            scheduleRetry(fileInfo.getId(), System.currentTimeMillis());
+            return false;
+        }
+    }
+
+    /**
+     * 查询登记过的缩略图及其节点，查询失败时跳过缩略图，不影响记录的清理
+     */
+    private Map<String, List<String>> getStoredVariants(FileInfo fileInfo) {
+        try {
+            return thumbnailService.getStoredVariants(fileInfo);
+        } catch (RuntimeException e) {
+            System.err.println("查询缩略图登记失败：" + fileInfo.getGeneratedFileName() + "，" + e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    private void forgetVariants(FileInfo fileInfo) {
+        try {
+            thumbnailService.forgetVariants(fileInfo);
+        } catch (RuntimeException e) {
+            System.err.println("删除缩略图登记失败：" + fileInfo.getGeneratedFileName() + "，" + e.getMessage());
+        }
+    }
+
+    private void scheduleRetry(Long id, long now) {
+        failedCount.incrementAndGet();
+        long[] retry = retries.computeIfAbsent(id, key -> new long[2]);
+        retry[0]++;
+        long backoff = Math.min(maxBackoffMs, initialBackoffMs << Math.min(retry[0] - 1, 20));
+        retry[1] = now + backoff;
+        System.err.println("删除FTP文件失败，" + backoff + "ms后重试：" + id);
+    }
+}
@@ -0,0 +1,697 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.mapper.FileInfoMapper;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 文件名和描述的内存倒排索引
+ *
+ * 对原始文件名和描述（小写）分别切分二元组和三元组，每个n-gram对应一个按文件ID升序、
+ * 差值变长编码压缩的倒排表。关键词不少于3个字符时取其全部三元组的倒排表求交集，
+ * 2个字符时直接使用二元组的倒排表，1个字符时遍历全部文档；候选文档再用子串匹配确认，
+ * 结果与 LIKE '%关键词%' 一致。
+ * 结果按匹配位置排序（文件名完全相同 > 文件名前缀 > 文件名包含 > 仅描述包含），同分按上传时间倒序。
+ *
+ * 启动后通过MyBatis游标流式读取全部文件在后台建立索引，建立完成前搜索回退到数据库。
+ * 上传、修改描述、删除时增量更新；修改和删除只移除文档，倒排表中的过期ID在查询确认时过滤，
+ * 过期ID过多时在后台重建索引，重建期间的更新会在替换前重放到新索引。
+ *
+ * @author nyx
+ */
+@Service
+public class FileSearchIndex {
+
+    /** 匹配得分：文件名与关键词相同 */
+    private static final int SCORE_NAME_EXACT = 4;
+    /** 匹配得分：文件名以关键词开头 */
+    private static final int SCORE_NAME_PREFIX = 3;
+    /** 匹配得分：文件名包含关键词 */
+    private static final int SCORE_NAME_CONTAINS = 2;
+    /** 匹配得分：仅描述包含关键词 */
+    private static final int SCORE_DESCRIPTION = 1;
+
+    /** 排序：得分高在前，同分按上传时间、ID倒序 */
+    private static final Comparator<long[]> RANK_ORDER = (a, b) -> {
+        for (int i = 0; i < 3; i++) {
+            int compare = Long.compare(b[i], a[i]);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return 0;
+    };
+
+    @Value("${search.index.enabled:true}")
+    private boolean enabled;
+
+    /** 过期ID占文档数的比例超过该值时重建 */
+    @Value("${search.index.rebuild-stale-ratio:0.25}")
+    private double rebuildStaleRatio;
+
+    @Autowired
+    private FileInfoMapper fileInfoMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** 当前索引，建立完成前为null */
+    private volatile Index index;
+
+    /** 重建期间被修改的文件（删除的值为null），替换前重放到新索引；不在重建时为null */
+    private Map<Long, Doc> touchedDuringBuild;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "file-search-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean building = new AtomicBoolean(false);
+
+    // 统计
+    private final AtomicLong queryCount = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+    private final AtomicLong buildCount = new AtomicLong();
+    private volatile long lastBuildMillis = 0;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (enabled) {
+            rebuild();
+        }
+    }
+
+    /**
+     * 定期检查过期ID数量，过多时重建
+     */
+    @Scheduled(fixedDelayString = "${search.index.check-interval-ms:300000}",
+            initialDelayString = "${search.index.check-interval-ms:300000}")
+    public void scheduledCheck() {
+        Index current = index;
+        if (current != null && current.staleCount > Math.max(10_000, current.docs.size() * rebuildStaleRatio)) {
+            rebuild();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 索引是否已可用
+     */
+    public boolean isReady() {
+        return index != null;
+    }
+
+    /**
+     * 在后台重建索引
+     *
+     * @return 已有重建在运行时返回false
+     */
+    public boolean rebuild() {
+        if (!building.compareAndSet(false, true)) {
+            return false;
+        }
+        executor.execute(() -> {
+            try {
+                build();
+            } catch (RuntimeException e) {
+                System.err.println("建立搜索索引失败：" + e.getMessage());
+                lock.writeLock().lock();
+                try {
+                    touchedDuringBuild = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } finally {
+                building.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 新增或更新文件（上传、修改描述后调用）
+     *
+     * @param fileInfos 文件信息
+     */
+    public void index(Collection<FileInfo> fileInfos) {
+        lock.writeLock().lock();
+        try {
+            for (FileInfo fileInfo : fileInfos) {
+                Doc doc = new Doc(fileInfo);
+                if (index != null) {
+                    index.put(doc);
+                }
+                if (touchedDuringBuild != null) {
+                    touchedDuringBuild.put(doc.id, doc);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 移除文件（删除后调用）
+     *
+     * @param ids 文件ID
+     */
+    public void remove(Collection<Long> ids) {
+        lock.writeLock().lock();
+        try {
+            for (Long id : ids) {
+                if (index != null) {
+                    index.remove(id);
+                }
+                if (touchedDuringBuild != null) {
+                    touchedDuringBuild.put(id, null);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按页码搜索
+     *
+     * @param keyword 关键词
+     * @param offset 跳过的结果数
+     * @param limit 返回的结果数
+     * @return 搜索结果，索引未建立时返回null
+     */
+    public SearchResult search(String keyword, int offset, int limit) {
+        return search(keyword, null, offset, limit);
+    }
+
+    /**
+     * 按游标搜索
+     *
+     * @param keyword 关键词
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @param limit 返回的结果数
+     * @return 搜索结果，索引未建立时返回null
+     * @throws IllegalArgumentException 游标无效
+     */
+    public SearchResult search(String keyword, String cursor, int limit) {
+        return search(keyword, decodeCursor(cursor), 0, limit);
+    }
+
+    /**
+     * 获取索引统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            Index current = index;
+            metrics.put("ready", current != null);
+            metrics.put("building", building.get());
+            metrics.put("documents", current != null ? current.docs.size() : 0);
+            metrics.put("grams", current != null ? current.postings.size() : 0);
+            metrics.put("postingBytes", current != null ? current.postingBytes() : 0);
+            metrics.put("staleIds", current != null ? current.staleCount : 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+        long queries = queryCount.get();
+        metrics.put("queries", queries);
+        metrics.put("avgQueryMicros", queries > 0 ? queryNanos.get() / queries / 1000 : 0);
+        metrics.put("builds", buildCount.get());
+        metrics.put("lastBuildMillis", lastBuildMillis);
+        return metrics;
+    }
+
+    private SearchResult search(String keyword, long[] after, int offset, int limit) {
+        String query = normalize(keyword);
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            Index current = index;
+            if (current == null || query.isEmpty()) {
+                return null;
+            }
+
+            // 保留排在游标之后的前 offset + limit 个结果（堆顶为其中排名最后的）
+            int keep = offset + limit;
+            PriorityQueue<long[]> top = new PriorityQueue<>(Math.max(1, Math.min(keep, 1024)), RANK_ORDER.reversed());
+            long total = 0;
+            long matchedAfter = 0;
+            for (Doc doc : current.candidates(query)) {
+                int score = doc.score(query);
+                if (score == 0) {
+                    continue;
+                }
+                total++;
+                long[] rank = {score, doc.uploadTime, doc.id};
+                if (after != null && RANK_ORDER.compare(rank, after) <= 0) {
+                    continue;
+                }
+                matchedAfter++;
+                if (top.size() < keep) {
+                    top.add(rank);
+                } else if (keep > 0 && RANK_ORDER.compare(rank, top.peek()) < 0) {
+                    top.poll();
+                    top.add(rank);
+                }
+            }
+
+            List<long[]> ranked = new ArrayList<>(top);
+            ranked.sort(RANK_ORDER);
+            List<Long> ids = new ArrayList<>();
+            for (int i = offset; i < ranked.size(); i++) {
+                ids.add(ranked.get(i)[2]);
+            }
+            String nextCursor = null;
+            if (!ids.isEmpty() && matchedAfter > offset + ids.size()) {
+                nextCursor = encodeCursor(ranked.get(ranked.size() - 1));
+            }
+            return new SearchResult(ids, total, nextCursor);
+        } finally {
+            lock.readLock().unlock();
+            queryCount.incrementAndGet();
+            queryNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 通过游标流式读取全部文件建立新索引，重放建立期间的修改后替换
+     */
+    private void build() {
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            touchedDuringBuild = new HashMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Index built = new Index();
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setReadOnly(true);
+        template.execute(status -> {
+            try (Cursor<FileInfo> cursor = fileInfoMapper.scanSearchFields()) {
+                for (FileInfo fileInfo : cursor) {
+                    built.put(new Doc(fileInfo));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("关闭游标失败：" + e.getMessage());
+            }
+            return null;
+        });
+
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<Long, Doc> entry : touchedDuringBuild.entrySet()) {
+                if (entry.getValue() != null) {
+                    built.put(entry.getValue());
+                } else {
+                    built.remove(entry.getKey());
+                }
+            }
+            built.staleCount = 0;
+            index = built;
+            touchedDuringBuild = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        lastBuildMillis = System.currentTimeMillis() - start;
+        buildCount.incrementAndGet();
+        System.out.println("搜索索引建立完成，文档数：" + built.docs.size() + "，n-gram数：" + built.postings.size() +
+                "，耗时：" + lastBuildMillis + "ms");
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 关键词用于查找的n-gram：不少于3个字符取全部三元组，2个字符取自身，1个字符不使用索引
+     */
+    private static Set<String> queryGrams(String query) {
+        Set<String> grams = new HashSet<>();
+        if (query.length() == 2) {
+            grams.add(query);
+        }
+        for (int i = 0; i + 3 <= query.length(); i++) {
+            grams.add(query.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    /**
+     * 游标为最后一个结果的 (得分, 上传时间, ID)
+     */
+    private static String encodeCursor(long[] rank) {
+        String value = rank[0] + "_" + rank[1] + "_" + rank[2];
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long[] decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("_");
+            return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("分页游标无效");
+        }
+    }
+
+    /**
+     * 搜索结果
+     */
+    public static class SearchResult {
+
+        private final List<Long> ids;
+        private final long total;
+        private final String nextCursor;
+
+        SearchResult(List<Long> ids, long total, String nextCursor) {
+            this.ids = ids;
+            this.total = total;
+            this.nextCursor = nextCursor;
+        }
+
+        /** 当前页的文件ID（按排名） */
+        public List<Long> getIds() {
+            return ids;
+        }
+
+        /** 匹配总数 */
+        public long getTotal() {
+            return total;
+        }
+
+        /** 下一页游标，没有下一页时为null */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    /**
+     * 索引中的文档
+     */
+    private static final class Doc {
+
+        final long id;
+        final long uploadTime;
+        final String name;
+        final String description;
+
+        Doc(FileInfo fileInfo) {
+            this.id = fileInfo.getId();
+            this.uploadTime = fileInfo.getUploadTime() != null
+                    ? fileInfo.getUploadTime().toEpochSecond(ZoneOffset.UTC) : Long.MIN_VALUE;
+            this.name = normalize(fileInfo.getOriginalFileName());
+            this.description = normalize(fileInfo.getDescription());
+        }
+
+        int score(String query) {
+            if (name.equals(query)) {
+                return SCORE_NAME_EXACT;
+            }
+            if (name.startsWith(query)) {
+                return SCORE_NAME_PREFIX;
+            }
+            if (name.contains(query)) {
+                return SCORE_NAME_CONTAINS;
+            }
+            return description.contains(query) ? SCORE_DESCRIPTION : 0;
+        }
+
+        void collectGrams(Set<String> grams) {
+            collectGrams(name, grams);
+            collectGrams(description, grams);
+        }
+
+        private static void collectGrams(String text, Set<String> grams) {
+            for (int i = 0; i + 2 <= text.length(); i++) {
+                grams.add(text.substring(i, i + 2));
+                if (i + 3 <= text.length()) {
+                    grams.add(text.substring(i, i + 3));
+                }
+            }
+        }
+    }
+
+    /**
+     * 索引数据（由外层的读写锁保护）
+     */
+    private static final class Index {
+
+        final Map<Long, Doc> docs = new HashMap<>();
+        final Map<String, Posting> postings = new HashMap<>();
+
+        /** 倒排表中已不对应当前文档内容的ID数量 */
+        long staleCount = 0;
+
+        void put(Doc doc) {
+            if (docs.put(doc.id, doc) != null) {
+                staleCount++;
+            }
+            Set<String> grams = new HashSet<>();
+            doc.collectGrams(grams);
+            for (String gram : grams) {
+                postings.computeIfAbsent(gram, key -> new Posting()).add(doc.id);
+            }
+        }
+
+        void remove(long id) {
+            if (docs.remove(id) != null) {
+                staleCount++;
+            }
+        }
+
+        /**
+         * 可能包含关键词的文档（需要再用子串匹配确认）
+         */
+        Collection<Doc> candidates(String query) {
+            Set<String> grams = queryGrams(query);
+            if (grams.isEmpty()) {
+                return docs.values();
+            }
+            List<Posting> lists = new ArrayList<>();
+            for (String gram : grams) {
+                Posting posting = postings.get(gram);
+                if (posting == null) {
+                    return Collections.emptyList();
+                }
+                lists.add(posting);
+            }
+            lists.sort(Comparator.comparingInt(Posting::size));
+
+            long[] ids = lists.get(0).decode();
+            int size = ids.length;
+            for (int i = 1; i < lists.size() && size > 0; i++) {
+                size = intersect(ids, size, lists.get(i).decode());
+            }
+            List<Doc> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Doc doc = docs.get(ids[i]);
+                if (doc != null) {
+                    result.add(doc);
+                }
+            }
+            return result;
+        }
+
+        long postingBytes() {
+            long bytes = 0;
+            for (Posting posting : postings.values()) {
+                bytes += posting.byteSize();
+            }
+            return bytes;
+        }
+
+        /**
+         * 有序数组求交集，结果写回ids的前部
+         */
+        private static int intersect(long[] ids, int size, long[] other) {
+            int count = 0;
+            int j = 0;
+            for (int i = 0; i < size && j < other.length; i++) {
+                while (j < other.length && other[j] < ids[i]) {
+                    j++;
+                }
+                if (j < other.length && other[j] == ids[i]) {
+                    ids[count++] = ids[i];
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 倒排表：升序文件ID的差值按7位一组变长编码
+     *
+     * 小于等于末尾ID的文件ID（修改历史文件时出现）不重新编码，先放入待合并缓冲区，
+     * 查询解码时排序合并；缓冲区超过已编码ID数的1/8时才整体重新编码，摊还到每次添加。
+     * 重建索引时生成新的倒排表，缓冲区随之清空。
+     */
+    static final class Posting {
+
+        /** 待合并缓冲区超过该数量且超过已编码ID数的1/8时重新编码 */
+        private static final int MIN_PENDING_BEFORE_COMPACT = 16;
+
+        byte[] data = new byte[4];
+        int length = 0;
+        int count = 0;
+        long last = 0;
+
+        /** 待合并的文件ID（无序，可能与已编码的ID重复） */
+        long[] pending;
+        int pendingCount = 0;
+
+        void add(long id) {
+            if (count == 0 || id > last) {
+                append(id);
+                return;
+            }
+            if (id == last) {
+                return;
+            }
+            if (pending == null) {
+                pending = new long[4];
+            } else if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, pendingCount * 2);
+            }
+            pending[pendingCount++] = id;
+            if (pendingCount > Math.max(MIN_PENDING_BEFORE_COMPACT, count / 8)) {
+                compact();
+            }
+        }
+
+        /**
+         * ID数量上限（含待合并缓冲区中可能重复的ID），用于安排求交集的顺序
+         */
+        int size() {
+            return count + pendingCount;
+        }
+
+        long byteSize() {
+            return length + (long) pendingCount * Long.BYTES;
+        }
+
+        /**
+         * 解码为升序、不重复的文件ID
+         */
+        long[] decode() {
+            long[] ids = decodeEncoded();
+            if (pendingCount == 0) {
+                return ids;
+            }
+            long[] extra = Arrays.copyOf(pending, pendingCount);
+            Arrays.sort(extra);
+            return merge(ids, extra);
+        }
+
+        /**
+         * 将待合并缓冲区并入编码数据
+         */
+        void compact() {
+            long[] ids = decode();
+            data = new byte[Math.max(4, length + pendingCount * 2)];
+            length = 0;
+            count = 0;
+            last = 0;
+            pending = null;
+            pendingCount = 0;
+            for (long id : ids) {
+                append(id);
+            }
+        }
+
+        private void append(long id) {
+            long delta = id - last;
+            if (length + 10 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + 10));
+            }
+            while ((delta & ~0x7FL) != 0) {
+                data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+            last = id;
+            count++;
+        }
+
+        private long[] decodeEncoded() {
+            long[] ids = new long[count];
+            long value = 0;
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                value += delta;
+                ids[i] = value;
+            }
+            return ids;
+        }
+
+        /**
+         * 合并两个升序数组并去重
+         */
+        private static long[] merge(long[] a, long[] b) {
+            long[] merged = new long[a.length + b.length];
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < a.length || j < b.length) {
+                long next = j >= b.length || i < a.length && a[i] <= b[j] ? a[i++] : b[j++];
+                if (size == 0 || merged[size - 1] != next) {
+                    merged[size++] = next;
+                }
+            }
+            return size == merged.length ? merged : Arrays.copyOf(merged, size);
+        }
+    }
+}
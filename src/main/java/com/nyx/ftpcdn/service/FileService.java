@@ -1,19 +1,47 @@
 package com.nyx.ftpcdn.service;
 
+import com.github.pagehelper.Page;
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
+import com.nyx.ftpcdn.entity.BatchUploadResult;
+import com.nyx.ftpcdn.entity.CursorPage;
 import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.entity.FileObject;
 import com.nyx.ftpcdn.mapper.FileInfoMapper;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.PostConstruct;
 import java.time.LocalDateTime;
-import java.io.IOException;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 文件服务类
@@ -29,6 +57,57 @@ public class FileService {
     @Autowired
     private FtpService ftpService;
     
+    @Autowired
+    private FileObjectService fileObjectService;
+    
+    @Autowired
+    private DiskCacheService diskCacheService;
+    
+    @Autowired
+    private MemoryCacheService memoryCacheService;
+    
+    @Autowired
+    private StorageRebalanceService storageRebalanceService;
+    
+    @Autowired
+    private DownloadCounterService downloadCounterService;
+    
+    @Autowired
+    private FileSearchIndex fileSearchIndex;
+    
+    @Autowired
+    private FileStatsService fileStatsService;
+    
+    @Autowired
+    private CompressionService compressionService;
+    
+    @Autowired
+    private CdnPrefixService cdnPrefixService;
+    
+    /** 仲裁返回后仍在写入的副本读取的上传文件副本（请求结束后multipart临时文件会被删除） */
+    @Value("${upload.replica-temp-dir:./data/replica-tmp}")
+    private String replicaTempDir;
+    
+    private Path replicaTempRoot;
+    
+    /** 计算内容哈希的读取缓冲区大小 */
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    
+    /** 批量上传时每条INSERT语句包含的最大行数 */
+    private static final int BATCH_INSERT_ROWS = 500;
+    
+    @PostConstruct
+    public void init() throws IOException {
+        replicaTempRoot = Paths.get(replicaTempDir).toAbsolutePath().normalize();
+        Files.createDirectories(replicaTempRoot);
+        // 启动时没有正在写入的副本，剩下的都是上次运行遗留的
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(replicaTempRoot)) {
+            for (Path leftover : stream) {
+                deleteQuietly(leftover);
+            }
+        }
+    }
+    
     /**
      * 上传文件
      * 
@@ -38,6 +117,8 @@ public class FileService {
      * @return 上传成功的文件信息
      */
     public FileInfo uploadFile(MultipartFile file, String description, String cdnPrefix) {
+        // 前缀不存在时在传输文件前失败
+        cdnPrefixService.resolvePrefixId(cdnPrefix);
         try {
             // 获取原始文件名和扩展名
             String originalFileName = file.getOriginalFilename();
@@ -46,38 +127,62 @@ public class FileService {
             // 生成新的文件名：UUID + 时间戳 + 扩展名
             String generatedFileName = generateFileName(fileExtension);
             
-            // 上传文件到FTP服务器
-            boolean uploadSuccess = ftpService.uploadFile(file, generatedFileName);
-            if (!uploadSuccess) {
-                throw new RuntimeException("文件上传到FTP服务器失败");
+            // 先在本地计算内容SHA-256，相同内容已存在时无需写入FTP服务器
+            String contentHash = computeContentHash(file);
+            FileInfo existing = instantUpload(contentHash, originalFileName, file.getSize(), description, cdnPrefix);
+            if (existing != null) {
+                return existing;
             }
             
-            // 构建完整的CDN访问URL
-            String fullUrl = buildFullUrl(cdnPrefix, generatedFileName);
-            
-            // 构建FTP路径
-            String ftpPath = ftpService.getFtpBasePath() + "/" + generatedFileName;
-            
-            // 创建文件信息对象
-            FileInfo fileInfo = new FileInfo(
-                originalFileName,
-                generatedFileName,
-                fileExtension,
-                file.getSize(),
-                description,
-                cdnPrefix,
-                fullUrl,
-                ftpPath
-            );
+            // 文本类文件压缩后写入，并行写入各副本节点，达到写入仲裁数即视为成功，其余副本由后台修复
+            CompressionService.Compressed compressed = compressionService.compress(file, fileExtension, file.getSize());
+            List<String> nodes = ftpService.selectNodes(generatedFileName);
+            InputStreamSource source = compressed != null ? compressed.getSource() : file;
+            Path replicaCopy = null;
+            if (compressed == null && nodes.size() > ftpService.getWriteQuorum()) {
+                // 仲裁返回后请求随即结束，multipart临时文件会被删除，其余副本改为读取自有的副本
+                replicaCopy = copyForReplicas(file);
+                source = new FileSystemResource(replicaCopy);
+            }
+            CompletableFuture<List<String>> finished = new CompletableFuture<>();
+            List<String> replicaNodes;
+            try {
+                replicaNodes = ftpService.uploadReplicas(nodes, source, generatedFileName, 0,
+                        ftpService.getWriteQuorum(), finished::complete);
+            } finally {
+                // 仲裁返回后其余副本仍在读取，全部结束后再删除
+                if (compressed != null) {
+                    finished.thenRun(compressed::discard);
+                }
+                if (replicaCopy != null) {
+                    Path copy = replicaCopy;
+                    finished.thenRun(() -> deleteQuietly(copy));
+                }
+            }
+            if (replicaNodes.size() < ftpService.getWriteQuorum()) {
+                for (String node : replicaNodes) {
+                    ftpService.deleteFile(node, generatedFileName);
+                }
+                discardLateReplicas(finished, replicaNodes, generatedFileName);
+                throw new RuntimeException("文件上传到FTP服务器失败");
+            }
             
             // 保存到数据库
-            int result = fileInfoMapper.insert(fileInfo);
-            if (result > 0) {
-                System.out.println("文件信息保存成功：" + fileInfo);
-                return fileInfo;
-            } else {
-                throw new RuntimeException("文件信息保存到数据库失败");
+            FileInfo fileInfo;
+            try {
+                fileInfo = saveUploadedFile(originalFileName, generatedFileName, replicaNodes, file.getSize(),
+                        compressed != null ? CompressionService.GZIP : null,
+                        compressed != null ? compressed.getSize() : file.getSize(),
+                        description, cdnPrefix, contentHash);
+            } catch (RuntimeException e) {
+                discardLateReplicas(finished, replicaNodes, generatedFileName);
+                throw e;
             }
+            if (!fileInfo.getGeneratedFileName().equals(generatedFileName)) {
+                // 复用了已有对象，本次写入的文件已删除
+                discardLateReplicas(finished, replicaNodes, generatedFileName);
+            }
+            return fileInfo;
             
         } catch (Exception e) {
             System.err.println("文件上传过程中发生异常：" + e.getMessage());
@@ -86,6 +191,399 @@ public class FileService {
         }
     }
     
+    /**
+     * 将上传文件复制到副本临时目录，由写入副本的任务全部结束后删除
+     */
+    private Path copyForReplicas(MultipartFile file) throws IOException {
+        Path copy = replicaTempRoot.resolve(UUID.randomUUID().toString() + ".tmp");
+        try (InputStream inputStream = file.getInputStream()) {
+            Files.copy(inputStream, copy, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(copy);
+            throw e;
+        }
+        return copy;
+    }
+    
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("删除临时文件失败：" + path + "，" + e.getMessage());
+        }
+    }
+    
+    /**
+     * 批量上传文件。内容哈希在本地计算，已存在的内容直接秒传；
+     * 需要写入的文件按节点分组，每个节点在同一个FTP会话中依次写入；
+     * 文件信息通过多行INSERT批量保存。单个文件失败不影响其他文件。
+     * 
+     * @param files 上传的文件
+     * @param description 文件描述
+     * @param cdnPrefix CDN前缀
+     * @return 每个文件的上传结果（与传入顺序一致）
+     */
+    public List<BatchUploadResult> uploadFiles(List<MultipartFile> files, String description, String cdnPrefix) {
+        cdnPrefixService.resolvePrefixId(cdnPrefix);
+        List<BatchEntry> entries = new ArrayList<>();
+        List<BatchEntry> uploads = new ArrayList<>();
+        for (MultipartFile file : files) {
+            BatchEntry entry = new BatchEntry(file);
+            entries.add(entry);
+            if (file.isEmpty()) {
+                entry.result.fail("文件为空");
+                continue;
+            }
+            try {
+                entry.contentHash = computeContentHash(file);
+                FileObject existing = fileObjectService.acquireExisting(entry.contentHash, file.getSize());
+                if (existing != null) {
+                    entry.fileObject = existing;
+                    entry.instant = true;
+                } else {
+                    entry.generatedFileName = generateStorageFileName(file.getOriginalFilename());
+                    entry.compressed = compressionService.compress(file,
+                            getFileExtension(file.getOriginalFilename()), file.getSize());
+                    uploads.add(entry);
+                }
+            } catch (Exception e) {
+                entry.result.fail("文件上传失败：" + e.getMessage());
+            }
+        }
+        
+        // 写入FTP服务器，达到写入仲裁数的文件登记存储对象
+        if (!uploads.isEmpty()) {
+            List<String> fileNames = new ArrayList<>();
+            List<InputStreamSource> sources = new ArrayList<>();
+            for (BatchEntry entry : uploads) {
+                fileNames.add(entry.generatedFileName);
+                sources.add(entry.compressed != null ? entry.compressed.getSource() : entry.file);
+            }
+            List<List<String>> stored;
+            try {
+                stored = ftpService.uploadBatch(fileNames, sources);
+            } finally {
+                for (BatchEntry entry : uploads) {
+                    if (entry.compressed != null) {
+                        entry.compressed.discard();
+                    }
+                }
+            }
+            for (int i = 0; i < uploads.size(); i++) {
+                BatchEntry entry = uploads.get(i);
+                List<String> replicaNodes = stored.get(i);
+                if (replicaNodes.size() < ftpService.getWriteQuorum()) {
+                    for (String node : replicaNodes) {
+                        ftpService.deleteFile(node, entry.generatedFileName);
+                    }
+                    entry.result.fail("文件上传到FTP服务器失败");
+                    continue;
+                }
+                try {
+                    entry.fileObject = fileObjectService.acquire(entry.contentHash, entry.generatedFileName,
+                            entry.file.getSize(), entry.compressed != null ? CompressionService.GZIP : null,
+                            entry.compressed != null ? entry.compressed.getSize() : entry.file.getSize(),
+                            replicaNodes);
+                } catch (RuntimeException e) {
+                    for (String node : replicaNodes) {
+                        ftpService.deleteFile(node, entry.generatedFileName);
+                    }
+                    entry.result.fail("存储对象登记失败：" + e.getMessage());
+                    continue;
+                }
+                if (!entry.fileObject.getObjectName().equals(entry.generatedFileName)) {
+                    // 相同内容已存在（可能是同一批次中的另一个文件）
+                    for (String node : replicaNodes) {
+                        ftpService.deleteFile(node, entry.generatedFileName);
+                    }
+                }
+            }
+        }
+        
+        // 批量保存文件信息，失败时释放该批次引用的存储对象
+        List<BatchEntry> pending = new ArrayList<>();
+        for (BatchEntry entry : entries) {
+            if (entry.fileObject != null) {
+                FileObject fileObject = entry.fileObject;
+                entry.fileInfo = buildFileInfo(entry.file.getOriginalFilename(), fileObject.getObjectName(),
+                        fileObject.getStorageNode(), fileObject.getReplicaNodes(),
+                        getFileExtension(entry.file.getOriginalFilename()), entry.file.getSize(), description,
+                        cdnPrefix, entry.contentHash, fileObject.getContentEncoding(), fileObject.getStoredSize(),
+                        FileInfo.STATUS_READY);
+                pending.add(entry);
+            }
+        }
+        for (int start = 0; start < pending.size(); start += BATCH_INSERT_ROWS) {
+            List<BatchEntry> chunk = pending.subList(start, Math.min(pending.size(), start + BATCH_INSERT_ROWS));
+            List<FileInfo> rows = new ArrayList<>();
+            for (BatchEntry entry : chunk) {
+                rows.add(entry.fileInfo);
+            }
+            try {
+                fileInfoMapper.insertBatch(rows);
+            } catch (RuntimeException e) {
+                System.err.println("批量保存文件信息失败：" + e.getMessage());
+                for (BatchEntry entry : chunk) {
+                    releaseStorage(entry.fileObject.getObjectName(), entry.fileObject.getStorageNode(),
+                            entry.fileObject.getReplicaNodes(), entry.contentHash);
+                    entry.result.fail("文件信息保存到数据库失败");
+                }
+                continue;
+            }
+            fileSearchIndex.index(rows);
+            fileStatsService.added(rows);
+            for (BatchEntry entry : chunk) {
+                entry.result.succeed(entry.fileInfo, entry.instant ? "秒传成功" : "文件上传成功");
+                scheduleRepairIfNeeded(entry.fileInfo);
+            }
+        }
+        
+        List<BatchUploadResult> results = new ArrayList<>();
+        int succeeded = 0;
+        for (BatchEntry entry : entries) {
+            results.add(entry.result);
+            succeeded += entry.result.isSuccess() ? 1 : 0;
+        }
+        System.out.println("批量上传完成，成功：" + succeeded + "/" + entries.size());
+        return results;
+    }
+    
+    /**
+     * 为原始文件名生成FTP存储文件名
+     * 
+     * @param originalFileName 原始文件名
+     * @return 生成的文件名
+     */
+    public String generateStorageFileName(String originalFileName) {
+        return generateFileName(getFileExtension(originalFileName));
+    }
+    
+    /**
+     * 秒传：相同内容已存在时直接创建文件记录，无需传输文件内容
+     * 
+     * @param contentHash 内容SHA-256
+     * @param originalFileName 原始文件名
+     * @param fileSize 文件大小
+     * @param description 文件描述
+     * @param cdnPrefix CDN前缀
+     * @return 文件信息，内容不存在时返回null
+     */
+    public FileInfo instantUpload(String contentHash, String originalFileName, long fileSize,
+                                  String description, String cdnPrefix) {
+        FileObject fileObject = fileObjectService.acquireExisting(contentHash, fileSize);
+        if (fileObject == null) {
+            return null;
+        }
+        System.out.println("秒传命中：" + fileObject);
+        return saveFileInfoOrRelease(originalFileName, fileObject, fileSize, description, cdnPrefix, contentHash);
+    }
+    
+    /**
+     * 文件已写入FTP服务器后，登记存储对象并保存文件信息到数据库。
+     * 若相同内容已存在，则复用已有对象并删除本次上传的多余文件。
+     * 
+     * @param originalFileName 原始文件名
+     * @param generatedFileName 本次上传使用的文件名
+     * @param replicaNodes 本次上传已写入的副本节点
+     * @param fileSize 文件大小
+     * @param description 文件描述
+     * @param cdnPrefix CDN前缀
+     * @param contentHash 内容SHA-256
+     * @return 保存后的文件信息
+     */
+    public FileInfo saveUploadedFile(String originalFileName, String generatedFileName, List<String> replicaNodes,
+                                     long fileSize, String description, String cdnPrefix, String contentHash) {
+        return saveUploadedFile(originalFileName, generatedFileName, replicaNodes, fileSize, null, fileSize,
+                description, cdnPrefix, contentHash);
+    }
+    
+    /**
+     * 文件已写入FTP服务器后，登记存储对象并保存文件信息到数据库（写入的内容可能已压缩）
+     * 
+     * @param originalFileName 原始文件名
+     * @param generatedFileName 本次上传使用的文件名
+     * @param replicaNodes 本次上传已写入的副本节点
+     * @param fileSize 文件大小
+     * @param contentEncoding 存储编码，原样写入时为null
+     * @param storedSize 写入FTP服务器的字节数
+     * @param description 文件描述
+     * @param cdnPrefix CDN前缀
+     * @param contentHash 内容SHA-256
+     * @return 保存后的文件信息
+     */
+    public FileInfo saveUploadedFile(String originalFileName, String generatedFileName, List<String> replicaNodes,
+                                     long fileSize, String contentEncoding, long storedSize, String description,
+                                     String cdnPrefix, String contentHash) {
+        FileObject fileObject = fileObjectService.acquire(contentHash, generatedFileName, fileSize, contentEncoding,
+                storedSize, replicaNodes);
+        if (!fileObject.getObjectName().equals(generatedFileName)) {
+            System.out.println("内容已存在，复用存储对象：" + fileObject.getObjectName());
+            for (String node : replicaNodes) {
+                ftpService.deleteFile(node, generatedFileName);
+            }
+        }
+        FileInfo fileInfo = saveFileInfoOrRelease(originalFileName, fileObject, fileSize,
+                description, cdnPrefix, contentHash);
+        scheduleRepairIfNeeded(fileInfo);
+        return fileInfo;
+    }
+    
+    /**
+     * 创建等待后台写入FTP服务器的文件记录（异步上传）
+     * 
+     * @param originalFileName 原始文件名
+     * @param generatedFileName 生成的文件名
+     * @param fileSize 文件大小
+     * @param description 文件描述
+     * @param cdnPrefix CDN前缀
+     * @param contentHash 内容SHA-256
+     * @return 状态为PENDING的文件信息（已分配主节点）
+     */
+    public FileInfo createPendingFile(String originalFileName, String generatedFileName, long fileSize,
+                                      String description, String cdnPrefix, String contentHash) {
+        return saveFileInfo(originalFileName, generatedFileName, ftpService.selectNodes(generatedFileName).get(0),
+                null, getFileExtension(originalFileName), fileSize, description, cdnPrefix, contentHash,
+                null, null, FileInfo.STATUS_PENDING);
+    }
+    
+    /**
+     * 后台写入FTP服务器完成后，登记存储对象并将文件状态置为READY
+     * 
+     * @param fileInfo 状态为PENDING的文件信息（写入的内容已压缩时带有存储编码和存储字节数）
+     * @param replicaNodes 已写入的副本节点
+     * @return 成功返回true；文件在上传期间已被删除返回false
+     */
+    public boolean completePendingFile(FileInfo fileInfo, List<String> replicaNodes) {
+        String uploadedName = fileInfo.getGeneratedFileName();
+        FileObject fileObject = fileObjectService.acquire(fileInfo.getContentHash(), uploadedName,
+                fileInfo.getFileSize(), fileInfo.getContentEncoding(), CompressionService.getStoredSize(fileInfo),
+                replicaNodes);
+        if (!fileObject.getObjectName().equals(uploadedName)) {
+            // 上传期间出现了相同内容的对象，改为引用已有对象
+            System.out.println("内容已存在，复用存储对象：" + fileObject.getObjectName());
+            for (String node : replicaNodes) {
+                ftpService.deleteFile(node, uploadedName);
+            }
+            fileInfo.setGeneratedFileName(fileObject.getObjectName());
+            cdnPrefixService.resolveUrl(fileInfo);
+            fileInfo.setFtpPath(ftpService.getObjectPath(fileObject.getObjectName()));
+        }
+        fileInfo.setContentEncoding(fileObject.getContentEncoding());
+        fileInfo.setStoredSize(fileObject.getStoredSize());
+        fileInfo.setStorageNode(fileObject.getStorageNode());
+        fileInfo.setReplicaNodes(fileObject.getReplicaNodes());
+        fileInfoMapper.updateStorage(fileInfo);
+        
+        if (fileInfoMapper.updateStatus(fileInfo.getId(), FileInfo.STATUS_PENDING, FileInfo.STATUS_READY) == 0) {
+            releaseStorage(fileObject.getObjectName(), fileObject.getStorageNode(), fileObject.getReplicaNodes(),
+                    fileInfo.getContentHash());
+            return false;
+        }
+        fileInfo.setStatus(FileInfo.STATUS_READY);
+        scheduleRepairIfNeeded(fileInfo);
+        return true;
+    }
+    
+    /**
+     * 将等待写入的文件标记为失败
+     * 
+     * @param id 文件ID
+     */
+    public void markFileFailed(Long id) {
+        fileInfoMapper.updateStatus(id, FileInfo.STATUS_PENDING, FileInfo.STATUS_FAILED);
+    }
+    
+    /**
+     * 查询指定状态的文件
+     * 
+     * @param status 文件状态
+     * @return 文件列表
+     */
+    public List<FileInfo> getFilesByStatus(String status) {
+        return fileInfoMapper.selectByStatus(status);
+    }
+    
+    private FileInfo saveFileInfoOrRelease(String originalFileName, FileObject fileObject, long fileSize,
+                                           String description, String cdnPrefix, String contentHash) {
+        try {
+            return saveFileInfo(originalFileName, fileObject.getObjectName(), fileObject.getStorageNode(),
+                    fileObject.getReplicaNodes(), getFileExtension(originalFileName), fileSize, description,
+                    cdnPrefix, contentHash, fileObject.getContentEncoding(), fileObject.getStoredSize(),
+                    FileInfo.STATUS_READY);
+        } catch (RuntimeException e) {
+            releaseStorage(fileObject.getObjectName(), fileObject.getStorageNode(), fileObject.getReplicaNodes(),
+                    contentHash);
+            throw e;
+        }
+    }
+    
+    private FileInfo saveFileInfo(String originalFileName, String generatedFileName, String storageNode,
+                                  String replicaNodes, String fileExtension, long fileSize, String description,
+                                  String cdnPrefix, String contentHash, String contentEncoding, Long storedSize,
+                                  String status) {
+        FileInfo fileInfo = buildFileInfo(originalFileName, generatedFileName, storageNode, replicaNodes,
+                fileExtension, fileSize, description, cdnPrefix, contentHash, contentEncoding, storedSize, status);
+        
+        // 保存到数据库
+        int result = fileInfoMapper.insert(fileInfo);
+        if (result > 0) {
+            fileSearchIndex.index(Collections.singletonList(fileInfo));
+            fileStatsService.added(Collections.singletonList(fileInfo));
+            System.out.println("文件信息保存成功：" + fileInfo);
+            return fileInfo;
+        } else {
+            throw new RuntimeException("文件信息保存到数据库失败");
+        }
+    }
+    
+    private FileInfo buildFileInfo(String originalFileName, String generatedFileName, String storageNode,
+                                   String replicaNodes, String fileExtension, long fileSize, String description,
+                                   String cdnPrefix, String contentHash, String contentEncoding, Long storedSize,
+                                   String status) {
+        // 记录只保存前缀ID，访问URL在读取时拼接
+        Long cdnPrefixId = cdnPrefixService.resolvePrefixId(cdnPrefix);
+        
+        // 构建FTP路径
+        String ftpPath = ftpService.getObjectPath(generatedFileName);
+        
+        // 创建文件信息对象
+        FileInfo fileInfo = new FileInfo(
+            originalFileName,
+            generatedFileName,
+            fileExtension,
+            fileSize,
+            description,
+            cdnPrefixId,
+            ftpPath
+        );
+        fileInfo.setContentHash(contentHash);
+        fileInfo.setContentEncoding(contentEncoding);
+        fileInfo.setStoredSize(storedSize);
+        fileInfo.setStatus(status);
+        fileInfo.setStorageNode(storageNode);
+        fileInfo.setReplicaNodes(replicaNodes);
+        cdnPrefixService.resolveUrl(fileInfo);
+        return fileInfo;
+    }
+    
+    /**
+     * 所有副本任务结束后，删除仲裁返回后才写入完成、但本次写入的文件未被使用的副本
+     */
+    private void discardLateReplicas(CompletableFuture<List<String>> finished, List<String> confirmed,
+                                     String fileName) {
+        finished.thenAccept(stored -> ftpService.deleteLateReplicas(stored, confirmed, fileName));
+    }
+    
+    /**
+     * 已确认的副本数少于配置的副本数时，安排后台补齐（仲裁返回后才完成的副本由修复任务登记）
+     */
+    private void scheduleRepairIfNeeded(FileInfo fileInfo) {
+        List<String> replicas = ftpService.resolveReplicas(fileInfo.getStorageNode(), fileInfo.getReplicaNodes());
+        if (replicas.size() < ftpService.getReplicationFactor()) {
+            storageRebalanceService.scheduleRepair(fileInfo.getId());
+        }
+    }
+    
     /**
      * 分页查询文件列表
      * 
@@ -94,9 +592,23 @@ public class FileService {
      * @return 分页结果
      */
     public PageInfo<FileInfo> getFileList(int pageNum, int pageSize) {
-        PageHelper.startPage(pageNum, pageSize);
-        List<FileInfo> fileList = fileInfoMapper.selectAll();
-        return new PageInfo<>(fileList);
+        if (!fileStatsService.isReady()) {
+            PageHelper.startPage(pageNum, pageSize);
+            List<FileInfo> fileList = fileInfoMapper.selectAll();
+            downloadCounterService.mergePending(fileList);
+            cdnPrefixService.resolveUrls(fileList);
+            return new PageInfo<>(fileList);
+        }
+        
+        // 总数取自内存计数器，不执行COUNT查询；页码超出范围时取最后一页（与reasonable一致）
+        long total = fileStatsService.getTotalFiles();
+        int pages = (int) Math.max(1, (total + pageSize - 1) / pageSize);
+        PageHelper.startPage(Math.max(1, Math.min(pageNum, pages)), pageSize, false);
+        Page<FileInfo> page = (Page<FileInfo>) fileInfoMapper.selectAll();
+        page.setTotal(total);
+        downloadCounterService.mergePending(page);
+        cdnPrefixService.resolveUrls(page);
+        return new PageInfo<>(page);
     }
     
     /**
@@ -108,11 +620,126 @@ public class FileService {
      * @return 分页结果
      */
     public PageInfo<FileInfo> searchFiles(String keyword, int pageNum, int pageSize) {
+        int page = Math.max(1, pageNum);
+        FileSearchIndex.SearchResult searchResult = fileSearchIndex.search(keyword, (page - 1) * pageSize, pageSize);
+        if (searchResult != null) {
+            Page<FileInfo> result = new Page<>(page, pageSize);
+            result.setTotal(searchResult.getTotal());
+            result.addAll(loadInOrder(searchResult.getIds()));
+            return new PageInfo<>(result);
+        }
+        
+        // 索引尚未建立时回退到数据库模糊查询
         PageHelper.startPage(pageNum, pageSize);
         List<FileInfo> fileList = fileInfoMapper.searchByKeyword(keyword);
+        downloadCounterService.mergePending(fileList);
+        cdnPrefixService.resolveUrls(fileList);
         return new PageInfo<>(fileList);
     }
     
+    /**
+     * 游标分页查询文件列表（按上传时间倒序），翻页代价与页码无关
+     * 
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @param pageSize 每页大小
+     * @param withTotal 是否统计总数（需要额外的COUNT查询）
+     * @return 分页结果
+     */
+    public CursorPage<FileInfo> getFilePage(String cursor, int pageSize, boolean withTotal) {
+        FileInfo after = decodeCursor(cursor);
+        List<FileInfo> fileList = fileInfoMapper.selectPageAfter(after.getUploadTime(), after.getId(), pageSize + 1);
+        Long total = null;
+        if (withTotal) {
+            total = fileStatsService.isReady() ? fileStatsService.getTotalFiles() : fileInfoMapper.countAll();
+        }
+        return toCursorPage(fileList, pageSize, total);
+    }
+    
+    /**
+     * 游标分页搜索文件
+     * 
+     * @param keyword 搜索关键词
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @param pageSize 每页大小
+     * @param withTotal 是否统计总数
+     * @return 分页结果
+     */
+    public CursorPage<FileInfo> searchFilePage(String keyword, String cursor, int pageSize, boolean withTotal) {
+        if (fileSearchIndex.isReady()) {
+            FileSearchIndex.SearchResult searchResult = fileSearchIndex.search(keyword, cursor, pageSize);
+            if (searchResult != null) {
+                return new CursorPage<>(loadInOrder(searchResult.getIds()), searchResult.getNextCursor(),
+                        withTotal ? searchResult.getTotal() : null);
+            }
+        }
+        FileInfo after = decodeCursor(cursor);
+        List<FileInfo> fileList = fileInfoMapper.searchPageAfter(keyword, after.getUploadTime(), after.getId(),
+                pageSize + 1);
+        Long total = withTotal ? fileInfoMapper.countByKeyword(keyword) : null;
+        return toCursorPage(fileList, pageSize, total);
+    }
+    
+    /**
+     * 按给定ID顺序加载文件信息（查询期间被删除的文件跳过）
+     */
+    private List<FileInfo> loadInOrder(List<Long> ids) {
+        List<FileInfo> fileList = new ArrayList<>();
+        if (ids.isEmpty()) {
+            return fileList;
+        }
+        Map<Long, FileInfo> byId = new HashMap<>();
+        for (FileInfo fileInfo : fileInfoMapper.selectByIds(ids)) {
+            byId.put(fileInfo.getId(), fileInfo);
+        }
+        for (Long id : ids) {
+            FileInfo fileInfo = byId.get(id);
+            if (fileInfo != null) {
+                fileList.add(fileInfo);
+            }
+        }
+        downloadCounterService.mergePending(fileList);
+        cdnPrefixService.resolveUrls(fileList);
+        return fileList;
+    }
+    
+    /**
+     * 多查询的一行用于判断是否有下一页
+     */
+    private CursorPage<FileInfo> toCursorPage(List<FileInfo> fileList, int pageSize, Long total) {
+        String nextCursor = null;
+        if (fileList.size() > pageSize) {
+            fileList = new ArrayList<>(fileList.subList(0, pageSize));
+            nextCursor = encodeCursor(fileList.get(pageSize - 1));
+        }
+        downloadCounterService.mergePending(fileList);
+        cdnPrefixService.resolveUrls(fileList);
+        return new CursorPage<>(fileList, nextCursor, total);
+    }
+    
+    /**
+     * 游标为最后一行的 (uploadTime, id)，Base64编码后对客户端不透明
+     */
+    private String encodeCursor(FileInfo last) {
+        String value = last.getUploadTime() + "_" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private FileInfo decodeCursor(String cursor) {
+        FileInfo after = new FileInfo();
+        if (cursor == null || cursor.isEmpty()) {
+            return after;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.lastIndexOf('_');
+            after.setUploadTime(LocalDateTime.parse(value.substring(0, separator)));
+            after.setId(Long.parseLong(value.substring(separator + 1)));
+            return after;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("分页游标无效");
+        }
+    }
+    
     /**
      * 根据ID查询文件信息
      * 
@@ -120,7 +747,10 @@ public class FileService {
      * @return 文件信息
      */
     public FileInfo getFileById(Long id) {
-        return fileInfoMapper.selectById(id);
+        FileInfo fileInfo = fileInfoMapper.selectById(id);
+        downloadCounterService.mergePending(fileInfo);
+        cdnPrefixService.resolveUrl(fileInfo);
+        return fileInfo;
     }
     
     /**
@@ -132,52 +762,154 @@ public class FileService {
      */
     public boolean updateFileDescription(Long id, String description) {
         int result = fileInfoMapper.updateDescription(id, description);
-        return result > 0;
+        if (result == 0) {
+            return false;
+        }
+        FileInfo fileInfo = fileInfoMapper.selectById(id);
+        if (fileInfo != null) {
+            fileSearchIndex.index(Collections.singletonList(fileInfo));
+        }
+        return true;
     }
     
     /**
-     * 增加文件下载次数
+     * 增加文件下载次数（先在内存中累加，由 {@link DownloadCounterService} 定期批量写回）
      * 
      * @param id 文件ID
      */
     public void incrementDownloadCount(Long id) {
-        fileInfoMapper.incrementDownloadCount(id);
+        downloadCounterService.increment(id);
     }
     
     /**
-     * 从FTP服务器下载文件
+     * 读取FTP上保存的内容并写入输出流（优先从本地磁盘缓存读取，未命中时回源FTP服务器）。
+     * 压缩保存的文件输出的是gzip字节。
      * 
-     * @param fileName 文件名
-     * @return 文件内容字节数组
+     * @param fileInfo 文件信息
+     * @param outputStream 目标输出流
+     * @return 下载是否成功
      */
-    public byte[] downloadFileFromFtp(String fileName) {
-        return ftpService.downloadFile(fileName);
+    public boolean downloadFileContent(FileInfo fileInfo, OutputStream outputStream) throws IOException {
+        return downloadFileContent(fileInfo, 0, -1, outputStream);
     }
     
     /**
-     * 删除文件
+     * 读取文件的原始内容并写入输出流，压缩保存的文件边读边解压
      * 
-     * @param id 文件ID
-     * @return 删除是否成功
+     * @param fileInfo 文件信息
+     * @param outputStream 目标输出流
+     * @return 下载是否成功
      */
-    public boolean deleteFile(Long id) {
+    public boolean downloadDecodedContent(FileInfo fileInfo, OutputStream outputStream) throws IOException {
+        if (!CompressionService.isGzipStored(fileInfo)) {
+            return downloadFileContent(fileInfo, outputStream);
+        }
+        CompressionService.GunzipOutputStream gunzip = compressionService.newGunzipStream(outputStream);
         try {
-            // 先查询文件信息
-            FileInfo fileInfo = fileInfoMapper.selectById(id);
-            if (fileInfo == null) {
+            if (!downloadFileContent(fileInfo, gunzip)) {
                 return false;
             }
-            
-            // 删除FTP服务器上的文件
-            boolean ftpDeleteSuccess = ftpService.deleteFile(fileInfo.getGeneratedFileName());
-            if (!ftpDeleteSuccess) {
-                System.err.println("删除FTP文件失败，但继续删除数据库记录");
+            gunzip.finish();
+            return true;
+        } finally {
+            gunzip.close();
+        }
+    }
+    
+    /**
+     * 读取FTP上保存的内容的指定区间并写入输出流（压缩保存的文件为gzip字节的区间）。
+     * 依次查找堆外内存缓存、本地磁盘缓存，都未命中时回源FTP服务器。
+     * 
+     * @param fileInfo 文件信息
+     * @param offset 起始偏移量
+     * @param length 读取长度，小于0表示读取到文件末尾
+     * @param outputStream 目标输出流
+     * @return 下载是否成功
+     */
+    public boolean downloadFileContent(FileInfo fileInfo, long offset, long length,
+                                       OutputStream outputStream) throws IOException {
+        String objectName = fileInfo.getGeneratedFileName();
+        long storedSize = CompressionService.getStoredSize(fileInfo);
+        if (!memoryCacheService.isCacheable(storedSize)) {
+            return downloadThroughDiskCache(fileInfo, offset, length, outputStream);
+        }
+        
+        if (memoryCacheService.transferTo(objectName, offset, length, outputStream)) {
+            return true;
+        }
+        if (offset != 0 || length >= 0) {
+            return downloadThroughDiskCache(fileInfo, offset, length, outputStream);
+        }
+        
+        // 小文件完整下载时同时保留一份内容，尝试放入堆外缓存
+        ByteArrayOutputStream content = new ByteArrayOutputStream((int) storedSize);
+        boolean success = downloadThroughDiskCache(fileInfo, 0, -1, new TeeOutputStream(outputStream, content));
+        if (success) {
+            memoryCacheService.put(objectName, content.toByteArray(), content.size());
+        }
+        return success;
+    }
+    
+    /**
+     * 查找保存的内容在本地文件系统中的完整文件（本地磁盘缓存或本地存储节点上的副本），
+     * 供下载接口交给Servlet容器以sendfile发送。
+     * 
+     * @param fileInfo 文件信息
+     * @param bytes 将要发送的字节数
+     * @return 没有本地文件返回null，此时按 {@link #downloadFileContent} 流式输出
+     */
+    public Path getLocalContentPath(FileInfo fileInfo, long bytes) {
+        String objectName = fileInfo.getGeneratedFileName();
+        Path cached = diskCacheService.lookup(objectName, bytes);
+        if (cached != null) {
+            return cached;
+        }
+        return ftpService.getLocalPath(
+                ftpService.resolveReplicas(fileInfo.getStorageNode(), fileInfo.getReplicaNodes()), objectName);
+    }
+    
+    /**
+     * 优先从本地磁盘缓存读取，未命中时回源FTP服务器
+     */
+    private boolean downloadThroughDiskCache(FileInfo fileInfo, long offset, long length,
+                                             OutputStream outputStream) throws IOException {
+        String objectName = fileInfo.getGeneratedFileName();
+        if (diskCacheService.transferTo(objectName, offset, length, outputStream)) {
+            return true;
+        }
+        
+        // 完整下载时顺带填充磁盘缓存，Range请求直接回源
+        List<String> replicas = ftpService.resolveReplicas(fileInfo.getStorageNode(), fileInfo.getReplicaNodes());
+        long storedSize = CompressionService.getStoredSize(fileInfo);
+        DiskCacheService.CacheFill cacheFill = offset == 0 && length < 0
+                ? diskCacheService.openFill(objectName, storedSize) : null;
+        if (cacheFill == null) {
+            return ftpService.downloadSegmented(replicas, objectName, storedSize, offset, length, outputStream);
+        }
+        
+        boolean success = false;
+        try {
+            success = ftpService.downloadSegmented(replicas, objectName, storedSize, 0, -1,
+                    new TeeOutputStream(outputStream, cacheFill.getOutputStream()));
+            return success;
+        } finally {
+            if (success) {
+                cacheFill.commit();
+            } else {
+                cacheFill.abort();
             }
-            
-            // 删除数据库记录
-            int result = fileInfoMapper.deleteById(id);
-            return result > 0;
-            
+        }
+    }
+    
+    /**
+     * 删除文件。记录立即标记删除后返回，存储对象和记录由 {@link FilePurgeService} 在后台清理
+     * 
+     * @param id 文件ID
+     * @return 删除是否成功
+     */
+    public boolean deleteFile(Long id) {
+        try {
+            return !deleteFiles(Collections.singletonList(id)).isEmpty();
         } catch (Exception e) {
             System.err.println("删除文件过程中发生异常：" + e.getMessage());
             e.printStackTrace();
@@ -185,6 +917,120 @@ public class FileService {
         }
     }
     
+    /**
+     * 批量删除文件，只标记删除，不等待FTP服务器
+     * 
+     * @param ids 文件ID
+     * @return 本次标记删除的文件ID（不存在或已删除的ID不包含在内）
+     */
+    public List<Long> deleteFiles(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<FileInfo> liveFiles = fileInfoMapper.selectByIds(ids);
+        List<Long> liveIds = new ArrayList<>();
+        for (FileInfo fileInfo : liveFiles) {
+            liveIds.add(fileInfo.getId());
+        }
+        if (liveIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int marked = fileInfoMapper.markDeleted(liveIds);
+        if (marked == 0) {
+            return Collections.emptyList();
+        }
+        fileSearchIndex.remove(liveIds);
+        if (marked == liveIds.size()) {
+            fileStatsService.removed(liveFiles);
+        } else {
+            // 部分文件被并发删除，无法确定由哪个请求扣减，在后台重新校准
+            fileStatsService.requestReconcile();
+        }
+        System.out.println("文件已标记删除：" + liveIds);
+        return liveIds;
+    }
+    
+    /**
+     * 释放已标记删除的文件引用的存储对象（由后台清理任务调用）。
+     * 仍有其他文件引用该对象时直接删除记录；最后一个引用被释放时将记录置为PURGING并写入对象的副本节点，
+     * FTP文件删除后再删除记录。释放引用和更新记录在同一个事务中，保证引用只释放一次。
+     * 
+     * @param fileInfo 已标记删除、状态为READY的文件信息，返回时已更新为PURGING状态及副本节点
+     * @return 需要删除FTP文件时返回true
+     */
+    @Transactional
+    public boolean releaseDeletedFile(FileInfo fileInfo) {
+        String storageNode = fileInfo.getStorageNode();
+        String replicaNodes = fileInfo.getReplicaNodes();
+        if (fileInfo.getContentHash() != null) {
+            FileObject released = fileObjectService.release(fileInfo.getContentHash());
+            if (released == null) {
+                if (fileInfoMapper.deleteById(fileInfo.getId()) == 0) {
+                    throw new RuntimeException("文件记录已被删除：" + fileInfo.getId());
+                }
+                return false;
+            }
+            // 以存储对象记录的节点为准（副本修复或重平衡可能刚刚更新过）
+            storageNode = released.getStorageNode();
+            replicaNodes = released.getReplicaNodes();
+        }
+        if (fileInfoMapper.markPurging(fileInfo.getId(), storageNode, replicaNodes) == 0) {
+            throw new RuntimeException("文件记录状态已变化：" + fileInfo.getId());
+        }
+        fileInfo.setStatus(FileInfo.STATUS_PURGING);
+        fileInfo.setStorageNode(storageNode);
+        fileInfo.setReplicaNodes(replicaNodes);
+        memoryCacheService.invalidate(fileInfo.getGeneratedFileName());
+        diskCacheService.invalidate(fileInfo.getGeneratedFileName());
+        return true;
+    }
+    
+    /**
+     * 释放文件引用的存储对象
+     * 
+     * @param objectName FTP文件名
+     * @param storageNode 文件记录中的主节点
+     * @param replicaNodes 文件记录中的副本节点
+     * @param contentHash 内容SHA-256，历史数据可能为空
+     */
+    private void releaseStorage(String objectName, String storageNode, String replicaNodes, String contentHash) {
+        if (contentHash != null) {
+            FileObject released = fileObjectService.release(contentHash);
+            if (released == null) {
+                // 仍有其他文件引用该对象
+                return;
+            }
+            // 以存储对象记录的节点为准（副本修复或重平衡可能刚刚更新过）
+            storageNode = released.getStorageNode();
+            replicaNodes = released.getReplicaNodes();
+        }
+        memoryCacheService.invalidate(objectName);
+        diskCacheService.invalidate(objectName);
+        
+        // 同时清理尚未登记的副本（仲裁返回后才写完的副本）
+        Set<String> nodes = new LinkedHashSet<>(ftpService.resolveReplicas(storageNode, replicaNodes));
+        nodes.addAll(ftpService.selectNodes(objectName));
+        for (String node : nodes) {
+            if (!ftpService.deleteFile(node, objectName)) {
+                System.err.println("删除FTP文件失败：" + node + "/" + objectName);
+            }
+        }
+    }
+    
+    /**
+     * 计算上传文件内容的SHA-256
+     */
+    private String computeContentHash(MultipartFile file) throws IOException {
+        MessageDigest digest = FileObjectService.newDigest();
+        try (InputStream inputStream = new DigestInputStream(file.getInputStream(), digest)) {
+            byte[] buffer = new byte[HASH_BUFFER_SIZE];
+            while (inputStream.read(buffer) != -1) {
+                // 读取过程中更新摘要
+            }
+        }
+        return FileObjectService.toHex(digest.digest());
+    }
+    
     /**
      * 生成文件名：UUID + 时间戳 + 扩展名
      * 
@@ -222,17 +1068,21 @@ public class FileService {
     }
     
     /**
-     * 构建完整的CDN访问URL
-     * 
-     * @param cdnPrefix CDN前缀
-     * @param fileName 文件名
-     * @return 完整的URL
+     * 批量上传中的一个文件
      */
-    private String buildFullUrl(String cdnPrefix, String fileName) {
-        if (cdnPrefix.endsWith("/")) {
-            return cdnPrefix + fileName;
-        } else {
-            return cdnPrefix + "/" + fileName;
+    private static class BatchEntry {
+        private final MultipartFile file;
+        private final BatchUploadResult result;
+        private String contentHash;
+        private String generatedFileName;
+        private CompressionService.Compressed compressed;
+        private FileObject fileObject;
+        private FileInfo fileInfo;
+        private boolean instant = false;
+        
+        BatchEntry(MultipartFile file) {
+            this.file = file;
+            this.result = new BatchUploadResult(file.getOriginalFilename());
         }
     }
-}
\ No newline at end of file
+}
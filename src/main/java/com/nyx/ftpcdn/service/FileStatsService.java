@@ -0,0 +1,201 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.mapper.FileInfoMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文件统计计数器
+ *
+ * 在内存中维护文件总数、总字节数和各扩展名的文件数（不含已标记删除的文件），
+ * 保存和删除文件时增量更新，分页列表直接使用总数而不再执行 COUNT(*)。
+ * 启动后及定期通过一次分组查询与数据库校准，修正并发写入或应用之外的修改造成的偏差。
+ * 请求路径上无法确定增量时（例如并发删除）通过 {@link #requestReconcile} 在后台校准，不阻塞请求。
+ *
+ * @author nyx
+ */
+@Service
+public class FileStatsService {
+
+    @Autowired
+    private FileInfoMapper fileInfoMapper;
+
+    private final AtomicLong totalFiles = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final Map<String, AtomicLong> filesByExtension = new ConcurrentHashMap<>();
+
+    /** 是否已完成第一次校准 */
+    private volatile boolean ready = false;
+
+    /** 后台校准线程，多个校准请求在排队期间合并为一次 */
+    private final ExecutorService reconcileExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "file-stats-reconcile");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** 已有校准在排队等待执行 */
+    private final AtomicBoolean reconcileQueued = new AtomicBoolean(false);
+
+    // 统计
+    private final AtomicLong reconcileCount = new AtomicLong();
+    private volatile long lastReconciledAt = 0;
+    private volatile long lastFileDrift = 0;
+    private volatile long lastByteDrift = 0;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        scheduledReconcile();
+    }
+
+    /**
+     * 定期与数据库校准
+     */
+    @Scheduled(fixedDelayString = "${stats.reconcile-interval-ms:600000}",
+            initialDelayString = "${stats.reconcile-interval-ms:600000}")
+    public void scheduledReconcile() {
+        try {
+            reconcile();
+        } catch (RuntimeException e) {
+            System.err.println("文件统计校准失败：" + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reconcileExecutor.shutdownNow();
+    }
+
+    /**
+     * 请求在后台重新校准，已有校准在排队时直接返回
+     */
+    public void requestReconcile() {
+        if (!reconcileQueued.compareAndSet(false, true)) {
+            return;
+        }
+        reconcileExecutor.execute(() -> {
+            // 开始执行前清除标记，执行期间的新请求会再排一次，保证读到其后的数据
+            reconcileQueued.set(false);
+            scheduledReconcile();
+        });
+    }
+
+    /**
+     * 计数器是否可用（完成第一次校准前分页列表仍执行COUNT查询）
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 文件总数
+     */
+    public long getTotalFiles() {
+        return totalFiles.get();
+    }
+
+    /**
+     * 记录新保存的文件
+     *
+     * @param fileInfos 文件信息
+     */
+    public void added(Collection<FileInfo> fileInfos) {
+        for (FileInfo fileInfo : fileInfos) {
+            apply(fileInfo, 1);
+        }
+    }
+
+    /**
+     * 记录已删除的文件
+     *
+     * @param fileInfos 文件信息
+     */
+    public void removed(Collection<FileInfo> fileInfos) {
+        for (FileInfo fileInfo : fileInfos) {
+            apply(fileInfo, -1);
+        }
+    }
+
+    /**
+     * 通过一次分组查询重新计算全部计数器
+     */
+    public synchronized void reconcile() {
+        long files = 0;
+        long bytes = 0;
+        Map<String, Long> byExtension = new TreeMap<>();
+        for (Map<String, Object> row : fileInfoMapper.countByExtension()) {
+            long count = ((Number) row.get("fileCount")).longValue();
+            files += count;
+            bytes += ((Number) row.get("totalBytes")).longValue();
+            byExtension.merge(normalizeExtension((String) row.get("fileExtension")), count, Long::sum);
+        }
+
+        lastFileDrift = totalFiles.getAndSet(files) - files;
+        lastByteDrift = totalBytes.getAndSet(bytes) - bytes;
+        filesByExtension.keySet().retainAll(byExtension.keySet());
+        for (Map.Entry<String, Long> entry : byExtension.entrySet()) {
+            filesByExtension.computeIfAbsent(entry.getKey(), key -> new AtomicLong()).set(entry.getValue());
+        }
+        lastReconciledAt = System.currentTimeMillis();
+        reconcileCount.incrementAndGet();
+        if (ready && (lastFileDrift != 0 || lastByteDrift != 0)) {
+            System.out.println("文件统计已校准，文件数偏差：" + lastFileDrift + "，字节数偏差：" + lastByteDrift);
+        }
+        ready = true;
+    }
+
+    /**
+     * 获取统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> byExtension = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : filesByExtension.entrySet()) {
+            if (entry.getValue().get() > 0) {
+                byExtension.put(entry.getKey(), entry.getValue().get());
+            }
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("ready", ready);
+        metrics.put("totalFiles", totalFiles.get());
+        metrics.put("totalBytes", totalBytes.get());
+        metrics.put("filesByExtension", byExtension);
+        metrics.put("reconciles", reconcileCount.get());
+        metrics.put("lastReconciledAt", lastReconciledAt);
+        metrics.put("lastFileDrift", lastFileDrift);
+        metrics.put("lastByteDrift", lastByteDrift);
+        return metrics;
+    }
+
+    private void apply(FileInfo fileInfo, int sign) {
+        totalFiles.addAndGet(sign);
+        totalBytes.addAndGet(sign * (fileInfo.getFileSize() != null ? fileInfo.getFileSize() : 0));
+        filesByExtension.computeIfAbsent(normalizeExtension(fileInfo.getFileExtension()), key -> new AtomicLong())
+                .addAndGet(sign);
+    }
+
+    /**
+     * 扩展名不区分大小写（与数据库的排序规则一致）
+     */
+    private static String normalizeExtension(String extension) {
+        return extension == null ? "" : extension.toLowerCase(Locale.ROOT);
+    }
+}
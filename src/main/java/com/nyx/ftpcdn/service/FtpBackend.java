@@ -0,0 +1,95 @@
+package com.nyx.ftpcdn.service;
+
+/**
+ * 存储节点配置（对应 ftp.backends 列表中的一项）
+ *
+ * @author nyx
+ */
+public class FtpBackend {
+
+    public static final String TYPE_FTP = "ftp";
+    public static final String TYPE_LOCAL = "local";
+
+    private String name;            // 节点名称，记录在文件信息中，配置后不应修改
+    private String type = TYPE_FTP; // 存储类型：ftp / local
+    private String host;            // 主机地址（ftp）
+    private int port = 21;          // 端口（ftp）
+    private String username;        // 用户名（ftp）
+    private String password;        // 密码（ftp）
+    private String path;            // 存储根目录（local，可以是挂载的NAS卷）
+
+    public FtpBackend() {}
+
+    public FtpBackend(String name, String host, int port, String username, String password) {
+        this.name = name;
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    @Override
+    public String toString() {
+        return "FtpBackend{" +
+                "name='" + name + '\'' +
+                ", type='" + type + '\'' +
+                (TYPE_LOCAL.equals(type) ? ", path='" + path + '\'' : ", host='" + host + '\'' + ", port=" + port) +
+                '}';
+    }
+}
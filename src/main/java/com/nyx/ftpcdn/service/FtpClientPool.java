@@ -0,0 +1,379 @@
+package com.nyx.ftpcdn.service;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FTP连接池
+ *
+ * 维护一组已登录、已切换到二进制被动模式的FTPClient会话，
+ * 避免每次上传/下载/删除都重新进行TCP连接和USER/PASS握手。
+ * 每个FTP存储节点对应一个连接池实例，由 {@link FtpStorageBackend} 创建和关闭。
+ *
+ * @author nyx
+ */
+@Component
+@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+public class FtpClientPool {
+
+    private final FtpBackend backend;
+
+    @Value("${ftp.pool.max-total:8}")
+    private int maxTotal;
+
+    @Value("${ftp.pool.max-idle:8}")
+    private int maxIdle;
+
+    @Value("${ftp.pool.borrow-timeout-ms:10000}")
+    private long borrowTimeoutMs;
+
+    @Value("${ftp.pool.idle-timeout-ms:300000}")
+    private long idleTimeoutMs;
+
+    @Value("${ftp.pool.max-lifetime-ms:1800000}")
+    private long maxLifetimeMs;
+
+    @Value("${ftp.pool.validation-interval-ms:30000}")
+    private long validationIntervalMs;
+
+    @Value("${ftp.pool.eviction-interval-ms:60000}")
+    private long evictionIntervalMs;
+
+    @Value("${ftp.pool.connect-timeout-ms:10000}")
+    private int connectTimeoutMs;
+
+    @Value("${ftp.pool.data-timeout-ms:60000}")
+    private int dataTimeoutMs;
+
+    /** 空闲会话（LIFO，优先复用最近归还的会话） */
+    private final LinkedBlockingDeque<PooledFtpClient> idleClients = new LinkedBlockingDeque<>();
+
+    /** 已借出的会话 */
+    private final Map<FTPClient, PooledFtpClient> borrowedClients = new ConcurrentHashMap<>();
+
+    /** 控制会话总数的许可 */
+    private Semaphore permits;
+
+    private ScheduledExecutorService evictor;
+
+    // 连接池统计
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowTimeoutCount = new AtomicLong();
+    private final AtomicLong validationFailureCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong totalBorrowWaitNanos = new AtomicLong();
+
+    /**
+     * FTP操作回调
+     */
+    public interface FtpCallback<T> {
+        T doInFtp(FTPClient ftpClient) throws IOException;
+    }
+
+    public FtpClientPool(FtpBackend backend) {
+        this.backend = backend;
+    }
+
+    @PostConstruct
+    public void init() {
+        permits = new Semaphore(Math.max(1, maxTotal), true);
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ftp-pool-evictor-" + backend.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evictIdleClients,
+                evictionIntervalMs, evictionIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        PooledFtpClient pooled;
+        while ((pooled = idleClients.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    /**
+     * 借用一个FTP会话执行操作，完成后自动归还。
+     * 如果操作因连接断开而失败，会丢弃该会话并使用新会话重试一次。
+     *
+     * @param callback FTP操作
+     * @return 操作结果
+     */
+    public <T> T execute(FtpCallback<T> callback) throws IOException {
+        return execute(callback, true);
+    }
+
+    /**
+     * 借用一个FTP会话执行操作，完成后自动归还。
+     *
+     * @param callback FTP操作
+     * @param retryOnBrokenSession 连接断开时是否使用新会话重试一次
+     * @return 操作结果
+     */
+    public <T> T execute(FtpCallback<T> callback, boolean retryOnBrokenSession) throws IOException {
+        FTPClient ftpClient = borrow();
+        try {
+            T result = callback.doInFtp(ftpClient);
+            release(ftpClient);
+            return result;
+        } catch (IOException e) {
+            invalidate(ftpClient);
+            if (!retryOnBrokenSession) {
+                throw e;
+            }
+            System.err.println("FTP会话异常，丢弃后重试：" + e.getMessage());
+        } catch (RuntimeException e) {
+            invalidate(ftpClient);
+            throw e;
+        }
+
+        FTPClient retryClient = borrow();
+        try {
+            T result = callback.doInFtp(retryClient);
+            release(retryClient);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            invalidate(retryClient);
+            throw e;
+        }
+    }
+
+    /**
+     * 从连接池借用一个已登录的FTP会话
+     *
+     * @return FTP客户端
+     */
+    public FTPClient borrow() throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                borrowTimeoutCount.incrementAndGet();
+                throw new IOException("获取FTP连接超时（" + borrowTimeoutMs + "ms）");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待FTP连接时被中断", e);
+        }
+        totalBorrowWaitNanos.addAndGet(System.nanoTime() - start);
+
+        try {
+            PooledFtpClient pooled;
+            while ((pooled = idleClients.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    break;
+                }
+                validationFailureCount.incrementAndGet();
+                destroy(pooled);
+            }
+            if (pooled == null) {
+                pooled = create();
+            }
+            borrowedClients.put(pooled.client, pooled);
+            borrowCount.incrementAndGet();
+            return pooled.client;
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 归还FTP会话
+     *
+     * @param ftpClient FTP客户端
+     */
+    public void release(FTPClient ftpClient) {
+        PooledFtpClient pooled = borrowedClients.remove(ftpClient);
+        if (pooled == null) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            if (!ftpClient.isConnected() || now - pooled.createdAt > maxLifetimeMs
+                    || idleClients.size() >= maxIdle) {
+                destroy(pooled);
+            } else {
+                pooled.lastReturnedAt = now;
+                idleClients.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 丢弃已损坏的FTP会话
+     *
+     * @param ftpClient FTP客户端
+     */
+    public void invalidate(FTPClient ftpClient) {
+        PooledFtpClient pooled = borrowedClients.remove(ftpClient);
+        if (pooled == null) {
+            return;
+        }
+        try {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 获取连接池统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long borrows = borrowCount.get();
+        metrics.put("host", backend.getHost() + ":" + backend.getPort());
+        metrics.put("maxTotal", maxTotal);
+        metrics.put("active", borrowedClients.size());
+        metrics.put("idle", idleClients.size());
+        metrics.put("waiting", permits.getQueueLength());
+        metrics.put("created", createdCount.get());
+        metrics.put("destroyed", destroyedCount.get());
+        metrics.put("borrowed", borrows);
+        metrics.put("borrowTimeouts", borrowTimeoutCount.get());
+        metrics.put("validationFailures", validationFailureCount.get());
+        metrics.put("evicted", evictedCount.get());
+        metrics.put("avgBorrowWaitMs", borrows == 0 ? 0 : totalBorrowWaitNanos.get() / borrows / 1_000_000.0);
+        return metrics;
+    }
+
+    /**
+     * 创建并登录一个新的FTP会话
+     */
+    private PooledFtpClient create() throws IOException {
+        FTPClient ftpClient = new FTPClient();
+        ftpClient.setConnectTimeout(connectTimeoutMs);
+        ftpClient.setDataTimeout(Duration.ofMillis(dataTimeoutMs));
+        try {
+            // 连接FTP服务器
+            ftpClient.connect(backend.getHost(), backend.getPort());
+
+            // 检查连接状态
+            int replyCode = ftpClient.getReplyCode();
+            if (!FTPReply.isPositiveCompletion(replyCode)) {
+                throw new IOException("FTP服务器" + backend.getName() + "连接失败，返回码：" + replyCode);
+            }
+
+            // 登录FTP服务器
+            if (!ftpClient.login(backend.getUsername(), backend.getPassword())) {
+                throw new IOException("FTP服务器" + backend.getName() + "登录失败");
+            }
+
+            // 设置文件传输模式为二进制
+            ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+
+            // 进入被动模式
+            ftpClient.enterLocalPassiveMode();
+        } catch (IOException e) {
+            disconnectQuietly(ftpClient);
+            throw e;
+        }
+
+        createdCount.incrementAndGet();
+        return new PooledFtpClient(ftpClient);
+    }
+
+    /**
+     * 检查空闲会话是否仍可用（超过校验间隔时发送NOOP）
+     */
+    private boolean isUsable(PooledFtpClient pooled) {
+        long now = System.currentTimeMillis();
+        if (!pooled.client.isConnected() || now - pooled.createdAt > maxLifetimeMs) {
+            return false;
+        }
+        if (now - pooled.lastReturnedAt < validationIntervalMs) {
+            return true;
+        }
+        try {
+            return pooled.client.sendNoOp();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 回收超过空闲时间或生命周期的会话
+     */
+    private void evictIdleClients() {
+        try {
+            long now = System.currentTimeMillis();
+            Iterator<PooledFtpClient> iterator = idleClients.descendingIterator();
+            while (iterator.hasNext()) {
+                PooledFtpClient pooled = iterator.next();
+                if (now - pooled.lastReturnedAt > idleTimeoutMs || now - pooled.createdAt > maxLifetimeMs) {
+                    if (idleClients.remove(pooled)) {
+                        evictedCount.incrementAndGet();
+                        destroy(pooled);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("回收空闲FTP连接时发生异常：" + e.getMessage());
+        }
+    }
+
+    private void destroy(PooledFtpClient pooled) {
+        destroyedCount.incrementAndGet();
+        disconnectQuietly(pooled.client);
+    }
+
+    private void disconnectQuietly(FTPClient ftpClient) {
+        try {
+            if (ftpClient.isConnected()) {
+                try {
+                    ftpClient.logout();
+                } finally {
+                    ftpClient.disconnect();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("关闭FTP连接时发生异常：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 连接池中的FTP会话
+     */
+    private static class PooledFtpClient {
+        private final FTPClient client;
+        private final long createdAt;
+        private volatile long lastReturnedAt;
+
+        PooledFtpClient(FTPClient client) {
+            this.client = client;
+            this.createdAt = System.currentTimeMillis();
+            this.lastReturnedAt = this.createdAt;
+        }
+    }
+}
@@ -1,24 +1,69 @@
 package com.nyx.ftpcdn.service;
 
-import org.apache.commons.net.ftp.FTP;
-import org.apache.commons.net.ftp.FTPClient;
-import org.apache.commons.net.ftp.FTPReply;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * FTP服务类
  * 
+ * 支持多个存储节点（ftp.backends），每个节点是一个 {@link StorageBackend}：
+ * FTP服务器（{@link FtpStorageBackend}）或本地/NAS目录（{@link LocalStorageBackend}），由节点的type决定。
+ * 文件按生成的文件名通过一致性哈希环分配到
+ * ftp.replication.factor 个节点，并行写入，至少 write-quorum 个节点成功即视为上传成功。
+ * 副本所在节点记录在文件信息中，读取时按节点延迟从低到高尝试，读取中途失败会切换到下一个副本续传。
+ * 大文件按字节区间分段，通过多个FTP会话并行读取后按顺序写出。
+ * 文件在各节点上的位置由 {@link StorageLayout} 决定。
+ * 未配置 ftp.backends 时使用 ftp.host（storage.type 为 local 时使用 storage.local.path）作为唯一节点。
+ * 
  * @author nyx
  */
 @Service
 public class FtpService {
     
+    /** 未配置多节点时单个节点的名称 */
+    public static final String DEFAULT_NODE = "default";
+    
+    @Value("${ftp.basePath:/uploads}")
+    private String ftpBasePath;
+    
     @Value("${ftp.host:localhost}")
     private String ftpHost;
     
@@ -31,208 +76,892 @@ public class FtpService {
     @Value("${ftp.password:}")
     private String ftpPassword;
     
-    @Value("${ftp.basePath:/uploads}")
-    private String ftpBasePath;
+    /** 未配置 ftp.backends 时唯一节点的存储类型：ftp / local */
+    @Value("${storage.type:ftp}")
+    private String storageType;
+    
+    @Value("${storage.local.path:./data/storage}")
+    private String localStoragePath;
+    
+    @Value("${ftp.sharding.virtual-nodes:160}")
+    private int virtualNodes;
+    
+    @Value("${ftp.replication.factor:1}")
+    private int replicationFactor;
+    
+    @Value("${ftp.replication.write-quorum:1}")
+    private int writeQuorum;
+    
+    /** 节点连续失败后降低读取优先级的时间 */
+    @Value("${ftp.replication.failure-cooldown-ms:30000}")
+    private long failureCooldownMs;
+    
+    @Value("${ftp.segmented.enabled:true}")
+    private boolean segmentedEnabled;
+    
+    /** 读取区间达到该大小时才分段并行下载 */
+    @Value("${ftp.segmented.min-file-bytes:67108864}")
+    private long segmentedMinFileBytes;
+    
+    /** 单次下载最多同时使用的FTP会话数（同时也是待写出分段的上限） */
+    @Value("${ftp.segmented.max-parallelism:4}")
+    private int segmentedMaxParallelism;
+    
+    @Value("${ftp.segmented.min-segment-bytes:4194304}")
+    private int segmentedMinSegmentBytes;
+    
+    @Value("${ftp.segmented.max-segment-bytes:16777216}")
+    private int segmentedMaxSegmentBytes;
+    
+    /** 同时进行的分段下载数量上限，超出时退回单连接下载 */
+    @Value("${ftp.segmented.max-concurrent-downloads:2}")
+    private int segmentedMaxConcurrentDownloads;
+    
+    @Autowired
+    private Environment environment;
+    
+    @Autowired
+    private StorageLayout storageLayout;
+    
+    @Autowired
+    private ObjectProvider<FtpStorageBackend> ftpStorageBackendProvider;
+    
+    @Autowired
+    private ObjectProvider<LocalStorageBackend> localStorageBackendProvider;
+    
+    /** 各节点的存储后端（按配置顺序） */
+    private final Map<String, StorageBackend> storageBackends = new LinkedHashMap<>();
+    
+    private ConsistentHashRing hashRing;
+    
+    /** 历史数据（未记录节点）所在的节点，即配置的第一个节点 */
+    private String legacyNode;
+    
+    /** 各节点的健康状况 */
+    private final Map<String, NodeHealth> nodeHealth = new ConcurrentHashMap<>();
+    
+    /** 并行写入副本、并行读取分段的线程（并发量由各节点连接池限制） */
+    private final AtomicInteger transferThreadCount = new AtomicInteger();
+    private final ExecutorService transferExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ftp-transfer-" + transferThreadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private Semaphore segmentedPermits;
+    
+    /** 仲裁返回后仍在写入副本的文件名 -> 所有副本任务结束时完成 */
+    private final Map<String, CompletableFuture<List<String>>> inFlightWrites = new ConcurrentHashMap<>();
+    
+    // 分段下载统计
+    private final AtomicLong segmentedDownloadCount = new AtomicLong();
+    private final AtomicLong segmentedFailureCount = new AtomicLong();
+    private final AtomicLong segmentedFallbackCount = new AtomicLong();
+    private final AtomicLong segmentCount = new AtomicLong();
+    private final AtomicLong segmentedBytes = new AtomicLong();
+    
+    @PostConstruct
+    public void init() {
+        List<FtpBackend> backends = Binder.get(environment)
+                .bind("ftp.backends", Bindable.listOf(FtpBackend.class))
+                .orElse(Collections.emptyList());
+        if (backends.isEmpty()) {
+            FtpBackend backend = new FtpBackend(DEFAULT_NODE, ftpHost, ftpPort, ftpUsername, ftpPassword);
+            backend.setType(storageType);
+            backend.setPath(localStoragePath);
+            backends = Collections.singletonList(backend);
+        }
+        
+        for (FtpBackend backend : backends) {
+            if (backend.getName() == null || backend.getName().isEmpty()) {
+                throw new IllegalStateException("存储节点必须配置name：" + backend);
+            }
+            if (storageBackends.containsKey(backend.getName())) {
+                throw new IllegalStateException("存储节点名称重复：" + backend.getName());
+            }
+            storageBackends.put(backend.getName(), createBackend(backend));
+            nodeHealth.put(backend.getName(), new NodeHealth());
+        }
+        legacyNode = backends.get(0).getName();
+        hashRing = new ConsistentHashRing(storageBackends.keySet(), virtualNodes);
+        replicationFactor = Math.max(1, Math.min(replicationFactor, storageBackends.size()));
+        writeQuorum = Math.max(1, Math.min(writeQuorum, replicationFactor));
+        segmentedPermits = new Semaphore(Math.max(1, segmentedMaxConcurrentDownloads));
+        System.out.println("存储节点：" + backends + "，副本数：" + replicationFactor + "，写入仲裁数：" + writeQuorum);
+    }
+    
+    @PreDestroy
+    public void close() {
+        transferExecutor.shutdownNow();
+        for (StorageBackend storageBackend : storageBackends.values()) {
+            storageBackend.close();
+        }
+    }
+    
+    private StorageBackend createBackend(FtpBackend backend) {
+        if (FtpBackend.TYPE_LOCAL.equals(backend.getType())) {
+            return localStorageBackendProvider.getObject(backend);
+        }
+        if (FtpBackend.TYPE_FTP.equals(backend.getType())) {
+            return ftpStorageBackendProvider.getObject(backend);
+        }
+        throw new IllegalStateException("不支持的存储类型：" + backend);
+    }
+    
+    /**
+     * 按一致性哈希为新文件选择副本节点
+     * 
+     * @param fileName 生成的文件名
+     * @return 节点名称，第一个为主节点
+     */
+    public List<String> selectNodes(String fileName) {
+        return hashRing.locate(fileName, replicationFactor);
+    }
+    
+    /**
+     * 获取写入仲裁数（至少写入成功的副本数）
+     */
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+    
+    /**
+     * 获取副本数
+     */
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+    
+    /**
+     * 解析文件信息中记录的副本节点
+     * 
+     * @param storageNode 记录的主节点，可以为null
+     * @param replicaNodes 记录的副本节点（逗号分隔），可以为null
+     * @return 副本节点列表，未记录副本时只包含主节点
+     */
+    public List<String> resolveReplicas(String storageNode, String replicaNodes) {
+        List<String> replicas = splitNodes(replicaNodes);
+        if (replicas.isEmpty()) {
+            replicas.add(resolveNode(storageNode));
+        }
+        return replicas;
+    }
+    
+    /**
+     * 拆分逗号分隔的节点列表
+     */
+    public static List<String> splitNodes(String nodes) {
+        List<String> result = new ArrayList<>();
+        if (nodes != null) {
+            for (String node : nodes.split(",")) {
+                if (!node.trim().isEmpty()) {
+                    result.add(node.trim());
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 合并为逗号分隔的节点列表
+     */
+    public static String joinNodes(List<String> nodes) {
+        return nodes.isEmpty() ? null : String.join(",", nodes);
+    }
+    
+    /**
+     * 将文件信息中记录的节点解析为实际节点（未记录节点的历史数据位于第一个节点）
+     * 
+     * @param node 记录的节点名称，可以为null
+     * @return 节点名称
+     */
+    public String resolveNode(String node) {
+        return node != null ? node : legacyNode;
+    }
+    
+    /**
+     * 节点是否仍在配置中
+     * 
+     * @param node 节点名称，null表示历史数据所在节点
+     */
+    public boolean hasNode(String node) {
+        return storageBackends.containsKey(resolveNode(node));
+    }
+    
+    /**
+     * 获取所有节点名称
+     */
+    public List<String> getNodeNames() {
+        return new ArrayList<>(storageBackends.keySet());
+    }
     
     /**
      * 上传文件到FTP服务器
      * 
+     * @param node 存储节点
      * @param file 要上传的文件
      * @param fileName 文件名
      * @return 上传成功返回true，否则返回false
      */
-    public boolean uploadFile(MultipartFile file, String fileName) {
-        FTPClient ftpClient = new FTPClient();
+    public boolean uploadFile(String node, InputStreamSource file, String fileName) {
+        return uploadFile(node, file, fileName, 0);
+    }
+    
+    /**
+     * 并行写入多个副本，等待全部完成（或quorum个成功）后返回
+     * 
+     * @param nodes 副本节点
+     * @param file 要上传的数据（每个副本单独打开一次）
+     * @param fileName 文件名
+     * @param offset 写入的起始偏移量，0表示新建文件
+     * @param quorum 需要成功的副本数，小于节点数时数据源须在返回后仍然可读，应使用带回调的重载
+     * @return 返回时已写入成功的节点（按传入顺序），少于quorum表示写入失败
+     */
+    public List<String> uploadReplicas(List<String> nodes, InputStreamSource file, String fileName,
+                                       long offset, int quorum) {
+        return uploadReplicas(nodes, file, fileName, offset, quorum, null);
+    }
+    
+    /**
+     * 并行写入多个副本，达到仲裁数后立即返回，其余副本在后台继续写入。
+     * 所有副本任务结束后（可能晚于返回）以实际写入成功的全部节点调用onFinished，
+     * 数据源（暂存文件、压缩临时文件）只能在回调中删除；返回后才完成的副本由后台副本修复登记。
+     * 
+     * @param nodes 副本节点
+     * @param file 要上传的数据（每个副本单独打开一次）
+     * @param fileName 文件名
+     * @param offset 写入的起始偏移量，0表示新建文件
+     * @param quorum 需要成功的副本数，等于节点数时等待全部完成
+     * @param onFinished 所有副本任务结束后的回调，参数为写入成功的全部节点（按传入顺序），可以为null
+     * @return 返回时已写入成功的节点（按传入顺序），少于quorum表示写入失败
+     */
+    public List<String> uploadReplicas(List<String> nodes, InputStreamSource file, String fileName,
+                                       long offset, int quorum, Consumer<List<String>> onFinished) {
+        if (nodes.size() == 1) {
+            List<String> result = uploadFile(nodes.get(0), file, fileName, offset)
+                    ? new ArrayList<>(nodes) : new ArrayList<>();
+            notifyFinished(onFinished, result);
+            return result;
+        }
+        
+        // 所有副本任务结束时完成，期间后台副本修复不向这些节点复制同名文件
+        CompletableFuture<List<String>> finished = new CompletableFuture<>();
+        inFlightWrites.put(fileName, finished);
+        finished.thenAccept(written -> {
+            inFlightWrites.remove(fileName, finished);
+            notifyFinished(onFinished, written);
+        });
+        Set<String> stored = ConcurrentHashMap.newKeySet();
+        AtomicInteger remaining = new AtomicInteger(nodes.size());
+        
+        CompletionService<String> completionService = new ExecutorCompletionService<>(transferExecutor);
+        for (String node : nodes) {
+            completionService.submit(() -> {
+                try {
+                    if (uploadFile(node, file, fileName, offset)) {
+                        stored.add(node);
+                        return node;
+                    }
+                    return null;
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        finished.complete(inNodeOrder(nodes, stored));
+                    }
+                }
+            });
+        }
+        
+        Set<String> succeeded = new HashSet<>();
         try {
-            // 连接FTP服务器
-            ftpClient.connect(ftpHost, ftpPort);
-            
-            // 检查连接状态
-            int replyCode = ftpClient.getReplyCode();
-            if (!FTPReply.isPositiveCompletion(replyCode)) {
-                System.err.println("FTP服务器连接失败，返回码：" + replyCode);
-                return false;
+            for (int done = 0; done < nodes.size() && succeeded.size() < quorum; done++) {
+                String node = completionService.take().get();
+                if (node != null) {
+                    succeeded.add(node);
+                }
             }
-            
-            // 登录FTP服务器
-            boolean loginSuccess = ftpClient.login(ftpUsername, ftpPassword);
-            if (!loginSuccess) {
-                System.err.println("FTP服务器登录失败");
-                return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("写入副本时发生异常：" + e.getCause());
+        }
+        
+        List<String> result = inNodeOrder(nodes, succeeded);
+        if (result.size() < nodes.size()) {
+            System.out.println("副本写入已达仲裁或结束：" + fileName + "，已确认：" + result + "，目标：" + nodes);
+        }
+        return result;
+    }
+    
+    /**
+     * 文件是否还有仲裁返回后仍在进行的副本写入
+     * 
+     * @param fileName 文件名
+     * @return 仍在写入返回true
+     */
+    public boolean isReplicaWriteInFlight(String fileName) {
+        return inFlightWrites.containsKey(fileName);
+    }
+    
+    /**
+     * 删除仲裁返回后才写入完成、但不会被记录使用的副本（写入失败或复用了已有对象时）
+     * 
+     * @param stored 所有副本任务结束后写入成功的节点
+     * @param confirmed 返回时已确认（已由调用方处理）的节点
+     * @param fileName 文件名
+     */
+    public void deleteLateReplicas(List<String> stored, List<String> confirmed, String fileName) {
+        for (String node : stored) {
+            if (!confirmed.contains(node)) {
+                deleteFile(node, fileName);
             }
-            
-            // 设置文件传输模式为二进制
-            ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
-            
-            // 进入被动模式
-            ftpClient.enterLocalPassiveMode();
-            
-            // 创建上传目录（如果不存在）
-            createDirectoryIfNotExists(ftpClient, ftpBasePath);
-            
-            // 切换到上传目录
-            ftpClient.changeWorkingDirectory(ftpBasePath);
-            
-            // 上传文件
-            try (InputStream inputStream = file.getInputStream()) {
-                boolean uploadSuccess = ftpClient.storeFile(fileName, inputStream);
-                if (uploadSuccess) {
-                    System.out.println("文件上传成功：" + fileName);
-                    return true;
-                } else {
-                    System.err.println("文件上传失败：" + fileName);
-                    return false;
-                }
+        }
+    }
+    
+    private static List<String> inNodeOrder(List<String> nodes, Set<String> succeeded) {
+        List<String> result = new ArrayList<>();
+        for (String node : nodes) {
+            if (succeeded.contains(node)) {
+                result.add(node);
             }
-            
-        } catch (IOException e) {
-            System.err.println("FTP上传过程中发生异常：" + e.getMessage());
-            e.printStackTrace();
-            return false;
-        } finally {
-            // 关闭FTP连接
+        }
+        return result;
+    }
+    
+    private static void notifyFinished(Consumer<List<String>> onFinished, List<String> stored) {
+        if (onFinished == null) {
+            return;
+        }
+        try {
+            onFinished.accept(stored);
+        } catch (RuntimeException e) {
+            System.err.println("副本写入完成回调异常：" + e.getMessage());
+        }
+    }
+    
+    /**
+     * 批量写入多个新文件：按副本节点分组，各节点并行，节点内在同一个会话中依次写入，
+     * 避免每个文件都借用会话。所有节点写完后返回，不提前按仲裁返回。
+     * 
+     * @param fileNames 文件名
+     * @param sources 要写入的数据（与文件名一一对应）
+     * @return 每个文件已写入成功的节点（与传入顺序一致，节点按selectNodes的顺序）
+     */
+    public List<List<String>> uploadBatch(List<String> fileNames, List<? extends InputStreamSource> sources) {
+        List<List<String>> targets = new ArrayList<>();
+        Map<String, List<Integer>> indexesByNode = new LinkedHashMap<>();
+        for (int i = 0; i < fileNames.size(); i++) {
+            List<String> nodes = selectNodes(fileNames.get(i));
+            targets.add(nodes);
+            for (String node : nodes) {
+                indexesByNode.computeIfAbsent(node, key -> new ArrayList<>()).add(i);
+            }
+        }
+        
+        Map<String, Future<boolean[]>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : indexesByNode.entrySet()) {
+            futures.put(entry.getKey(), transferExecutor.submit(
+                    () -> uploadBatch(entry.getKey(), entry.getValue(), fileNames, sources)));
+        }
+        Map<String, boolean[]> storedByNode = new HashMap<>();
+        for (Map.Entry<String, Future<boolean[]>> entry : futures.entrySet()) {
             try {
-                if (ftpClient.isConnected()) {
-                    ftpClient.logout();
-                    ftpClient.disconnect();
+                storedByNode.put(entry.getKey(), entry.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                System.err.println("批量写入时发生异常（" + entry.getKey() + "）：" + e.getCause());
+            }
+        }
+        
+        List<List<String>> result = new ArrayList<>();
+        for (int i = 0; i < fileNames.size(); i++) {
+            List<String> succeeded = new ArrayList<>();
+            for (String node : targets.get(i)) {
+                boolean[] stored = storedByNode.get(node);
+                if (stored != null && stored[i]) {
+                    succeeded.add(node);
                 }
-            } catch (IOException e) {
-                System.err.println("关闭FTP连接时发生异常：" + e.getMessage());
             }
+            result.add(succeeded);
         }
+        return result;
     }
     
     /**
-     * 删除FTP服务器上的文件
+     * 在一个节点上依次写入一组文件
      * 
+     * @return 按文件在整个批次中的序号标记是否写入成功
+     */
+    private boolean[] uploadBatch(String node, List<Integer> indexes, List<String> fileNames,
+                                  List<? extends InputStreamSource> sources) {
+        List<String> batchNames = new ArrayList<>();
+        List<InputStreamSource> batchSources = new ArrayList<>();
+        for (int index : indexes) {
+            batchNames.add(fileNames.get(index));
+            batchSources.add(sources.get(index));
+        }
+        boolean[] results = new boolean[indexes.size()];
+        try {
+            getBackend(node).storeAll(batchSources, batchNames, results);
+            recordResult(node, true);
+        } catch (IOException e) {
+            recordResult(node, false);
+            System.err.println("批量上传过程中发生异常（" + node + "）：" + e.getMessage());
+        }
+        
+        boolean[] stored = new boolean[fileNames.size()];
+        int count = 0;
+        for (int i = 0; i < indexes.size(); i++) {
+            stored[indexes.get(i)] = results[i];
+            count += results[i] ? 1 : 0;
+        }
+        System.out.println("批量上传完成：" + node + "，成功：" + count + "/" + indexes.size());
+        return stored;
+    }
+    
+    /**
+     * 从指定偏移量开始写入存储节点上的文件（FTP节点通过REST + STOR实现）。
+     * 同一区间重复写入结果一致，因此分片提交失败后可以安全重试。
+     * 
+     * @param node 存储节点
+     * @param file 要上传的数据
+     * @param fileName 文件名
+     * @param offset 写入的起始偏移量，0表示新建文件
+     * @return 上传成功返回true，否则返回false
+     */
+    public boolean uploadFile(String node, InputStreamSource file, String fileName, long offset) {
+        String targetNode = resolveNode(node);
+        try {
+            boolean stored = getBackend(targetNode).store(file, fileName, offset);
+            if (stored) {
+                System.out.println("文件上传成功：" + targetNode + "/" + fileName + (offset > 0 ? "，偏移量：" + offset : ""));
+            } else {
+                System.err.println("文件上传失败：" + targetNode + "/" + fileName);
+            }
+            recordResult(targetNode, stored);
+            return stored;
+        } catch (IOException e) {
+            recordResult(targetNode, false);
+            System.err.println("上传过程中发生异常（" + targetNode + "）：" + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * 删除存储节点上的文件
+     * 
+     * @param node 存储节点
      * @param fileName 文件名
      * @return 删除成功返回true，否则返回false
      */
-    public boolean deleteFile(String fileName) {
-        FTPClient ftpClient = new FTPClient();
+    public boolean deleteFile(String node, String fileName) {
+        String targetNode = resolveNode(node);
         try {
-            // 连接并登录FTP服务器
-            ftpClient.connect(ftpHost, ftpPort);
-            ftpClient.login(ftpUsername, ftpPassword);
-            
-            // 切换到上传目录
-            ftpClient.changeWorkingDirectory(ftpBasePath);
-            
-            // 删除文件
-            boolean deleteSuccess = ftpClient.deleteFile(fileName);
+            boolean deleteSuccess = getBackend(targetNode).delete(fileName);
             if (deleteSuccess) {
-                System.out.println("文件删除成功：" + fileName);
-                return true;
+                System.out.println("文件删除成功：" + targetNode + "/" + fileName);
             } else {
-                System.err.println("文件删除失败：" + fileName);
-                return false;
+                System.err.println("文件删除失败：" + targetNode + "/" + fileName);
             }
-            
+            return deleteSuccess;
         } catch (IOException e) {
-            System.err.println("FTP删除过程中发生异常：" + e.getMessage());
+            System.err.println("删除过程中发生异常：" + e.getMessage());
             e.printStackTrace();
             return false;
-        } finally {
+        }
+    }
+    
+    /**
+     * 批量删除存储节点上的文件。各节点并行执行，每个节点在同一个FTP会话中依次删除
+     *
+     * @param fileNamesByNode 每个节点要删除的文件名
+     * @return 因连接或读写异常未能确认删除的文件名（文件不存在视为已删除）
+     */
+    public Set<String> deleteBatch(Map<String, List<String>> fileNamesByNode) {
+        Map<String, Future<boolean[]>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : fileNamesByNode.entrySet()) {
+            futures.put(entry.getKey(), transferExecutor.submit(() -> deleteBatch(entry.getKey(), entry.getValue())));
+        }
+    
+        Set<String> failed = new LinkedHashSet<>();
+        for (Map.Entry<String, Future<boolean[]>> entry : futures.entrySet()) {
+            List<String> fileNames = fileNamesByNode.get(entry.getKey());
             try {
-                if (ftpClient.isConnected()) {
-                    ftpClient.logout();
-                    ftpClient.disconnect();
+                boolean[] deleted = entry.getValue().get();
+                if (deleted == null) {
+                    failed.addAll(fileNames);
                 }
-            } catch (IOException e) {
-                System.err.println("关闭FTP连接时发生异常：" + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.addAll(fileNames);
+            } catch (ExecutionException e) {
+                System.err.println("批量删除时发生异常（" + entry.getKey() + "）：" + e.getCause());
+                failed.addAll(fileNames);
             }
         }
+        return failed;
     }
     
     /**
-     * 创建目录（如果不存在）
+     * 在一个节点上依次删除一组文件
+     *
+     * @return 每个文件是否删除，发生异常时返回null
+     */
+    private boolean[] deleteBatch(String node, List<String> fileNames) {
+        boolean[] results = new boolean[fileNames.size()];
+        try {
+            getBackend(resolveNode(node)).deleteAll(fileNames, results);
+        } catch (IOException e) {
+            System.err.println("批量删除过程中发生异常（" + node + "）：" + e.getMessage());
+            return null;
+        }
+        int count = 0;
+        for (boolean deleted : results) {
+            count += deleted ? 1 : 0;
+        }
+        System.out.println("批量删除完成：" + node + "，删除：" + count + "/" + fileNames.size());
+        return results;
+    }
+    
+    /**
+     * 查询存储节点上文件的大小（FTP节点使用SIZE命令）
      * 
-     * @param ftpClient FTP客户端
-     * @param dirPath 目录路径
+     * @param node 存储节点
+     * @param fileName 文件名
+     * @return 文件大小，文件不存在或查询失败返回-1
      */
-    private void createDirectoryIfNotExists(FTPClient ftpClient, String dirPath) throws IOException {
-        String[] dirs = dirPath.split("/");
-        String currentDir = "";
-        
-        for (String dir : dirs) {
-            if (dir.isEmpty()) continue;
-            
-            currentDir += "/" + dir;
-            
-            // 尝试切换到目录
-            if (!ftpClient.changeWorkingDirectory(currentDir)) {
-                // 目录不存在，创建目录
-                if (ftpClient.makeDirectory(currentDir)) {
-                    System.out.println("创建目录成功：" + currentDir);
-                } else {
-                    System.err.println("创建目录失败：" + currentDir);
-                }
-            }
+    public long getFileSize(String node, String fileName) {
+        try {
+            return getBackend(resolveNode(node)).stat(fileName);
+        } catch (IOException e) {
+            return -1;
         }
     }
     
     /**
-     * 从FTP服务器下载文件
+     * 列出存储节点上的所有文件（遍历全部目录，耗时与文件数量成正比）
      * 
+     * @param node 存储节点
+     * @return 文件名
+     */
+    public List<String> listFiles(String node) throws IOException {
+        return getBackend(resolveNode(node)).list();
+    }
+    
+    /**
+     * 将平铺在基础目录中的文件移动到按哈希分区的子目录（FTP节点使用RNFR/RNTO，不传输数据）
+     * 
+     * @param node 存储节点
      * @param fileName 文件名
-     * @return 文件内容字节数组，下载失败返回null
+     * @return 该节点的基础目录中已没有此文件（已移动、原本已在新位置或不存在）返回true，移动失败返回false
      */
-    public byte[] downloadFile(String fileName) {
-        FTPClient ftpClient = new FTPClient();
+    public boolean relocateLegacyObject(String node, String fileName) {
+        String targetNode = resolveNode(node);
         try {
-            // 连接FTP服务器
-            ftpClient.connect(ftpHost, ftpPort);
-            
-            // 检查连接状态
-            int replyCode = ftpClient.getReplyCode();
-            if (!FTPReply.isPositiveCompletion(replyCode)) {
-                System.err.println("FTP服务器连接失败，返回码：" + replyCode);
-                return null;
+            return getBackend(targetNode).relocateLegacyObject(fileName);
+        } catch (IOException e) {
+            System.err.println("移动文件过程中发生异常（" + targetNode + "）：" + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * 从存储节点下载文件并写入输出流
+     * 
+     * @param node 存储节点
+     * @param fileName 文件名
+     * @param outputStream 目标输出流
+     * @return 下载成功返回true，否则返回false
+     */
+    public boolean downloadFile(String node, String fileName, OutputStream outputStream) {
+        return downloadFile(node, fileName, 0, -1, outputStream);
+    }
+    
+    /**
+     * 从多个副本中读取文件的指定区间。按节点健康状况和延迟排序依次尝试，
+     * 读取中途失败时从已写出的位置开始切换到下一个副本续传。
+     * 
+     * @param replicas 副本节点
+     * @param fileName 文件名
+     * @param offset 起始偏移量
+     * @param length 读取长度，小于0表示读取到文件末尾
+     * @param outputStream 目标输出流
+     * @return 下载成功返回true，否则返回false
+     */
+    public boolean downloadFile(List<String> replicas, String fileName, long offset, long length,
+                                OutputStream outputStream) {
+        TrackingOutputStream trackingStream = new TrackingOutputStream(outputStream);
+        for (String node : orderByHealth(replicas)) {
+            long written = trackingStream.getCount();
+            if (length >= 0 && written >= length) {
+                return true;
             }
-            
-            // 登录FTP服务器
-            boolean loginSuccess = ftpClient.login(ftpUsername, ftpPassword);
-            if (!loginSuccess) {
-                System.err.println("FTP服务器登录失败");
-                return null;
+            if (downloadFile(node, fileName, offset + written, length < 0 ? -1 : length - written, trackingStream)) {
+                return true;
             }
-            
-            // 设置文件传输模式为二进制
-            ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
-            
-            // 进入被动模式
-            ftpClient.enterLocalPassiveMode();
-            
-            // 切换到上传目录
-            ftpClient.changeWorkingDirectory(ftpBasePath);
-            
-            // 下载文件
-            try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-                boolean downloadSuccess = ftpClient.retrieveFile(fileName, outputStream);
-                if (downloadSuccess) {
-                    System.out.println("文件下载成功：" + fileName);
-                    return outputStream.toByteArray();
-                } else {
-                    System.err.println("文件下载失败：" + fileName);
-                    return null;
+            if (trackingStream.isBroken()) {
+                // 客户端已断开，无需切换副本
+                return false;
+            }
+            System.err.println("副本读取失败，切换到下一个副本：" + node + "/" + fileName + "，已写出：" + trackingStream.getCount());
+        }
+        return false;
+    }
+    
+    /**
+     * 从多个副本中读取文件的指定区间，区间较大时分段并行读取。
+     * 分段大小和并行度按区间长度确定：每段取区间的1/(4×并行度)，并限制在配置的上下限之间。
+     * 各分段轮流从健康的副本读取，读完的分段按顺序写出，最多缓存并行度个分段；
+     * 单个分段读取失败时切换副本重试该分段。
+     * 
+     * @param replicas 副本节点
+     * @param fileName 文件名
+     * @param fileSize 文件大小（未知时为null，直接单连接读取）
+     * @param offset 起始偏移量
+     * @param length 读取长度，小于0表示读取到文件末尾
+     * @param outputStream 目标输出流
+     * @return 下载成功返回true，否则返回false
+     */
+    public boolean downloadSegmented(List<String> replicas, String fileName, Long fileSize, long offset, long length,
+                                     OutputStream outputStream) {
+        long rangeLength = fileSize == null ? -1
+                : length < 0 ? fileSize - offset : Math.min(length, fileSize - offset);
+        if (!segmentedEnabled || rangeLength < segmentedMinFileBytes) {
+            return downloadFile(replicas, fileName, offset, length, outputStream);
+        }
+        if (!segmentedPermits.tryAcquire()) {
+            // 限制同时缓存的分段总量，繁忙时退回单连接下载
+            segmentedFallbackCount.incrementAndGet();
+            return downloadFile(replicas, fileName, offset, length, outputStream);
+        }
+        try {
+            segmentedDownloadCount.incrementAndGet();
+            boolean success = downloadSegments(replicas, fileName, offset, rangeLength, outputStream);
+            if (!success) {
+                segmentedFailureCount.incrementAndGet();
+            }
+            return success;
+        } finally {
+            segmentedPermits.release();
+        }
+    }
+    
+    /**
+     * 并行读取各分段，按顺序写出
+     */
+    private boolean downloadSegments(List<String> replicas, String fileName, long offset, long rangeLength,
+                                     OutputStream outputStream) {
+        int parallelism = Math.max(1, segmentedMaxParallelism);
+        long segmentSize = Math.max(segmentedMinSegmentBytes,
+                Math.min(segmentedMaxSegmentBytes, rangeLength / (parallelism * 4L)));
+        int segments = (int) ((rangeLength + segmentSize - 1) / segmentSize);
+        parallelism = Math.min(parallelism, segments);
+        
+        List<String> ordered = orderByHealth(replicas);
+        ArrayDeque<Future<ByteArrayOutputStream>> window = new ArrayDeque<>();
+        AtomicBoolean aborted = new AtomicBoolean(false);
+        int submitted = 0;
+        try {
+            for (int index = 0; index < segments; index++) {
+                // 只有写出最早的分段后才提交新的分段，已读完但未写出的分段不超过parallelism个
+                while (submitted < segments && window.size() < parallelism) {
+                    long segmentOffset = submitted * segmentSize;
+                    int segmentLength = (int) Math.min(segmentSize, rangeLength - segmentOffset);
+                    window.addLast(submitSegment(rotateHealthy(ordered, submitted), fileName,
+                            offset + segmentOffset, segmentLength, aborted));
+                    submitted++;
+                }
+                ByteArrayOutputStream segment = window.pollFirst().get();
+                if (segment == null) {
+                    System.err.println("分段下载失败：" + fileName + "，分段：" + index + "/" + segments);
+                    return false;
                 }
+                segment.writeTo(outputStream);
+                segmentedBytes.addAndGet(segment.size());
             }
-            
+            return true;
         } catch (IOException e) {
-            System.err.println("FTP下载过程中发生异常：" + e.getMessage());
-            e.printStackTrace();
-            return null;
+            System.err.println("分段下载写出失败（客户端可能已断开）：" + fileName + "，" + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            System.err.println("分段下载过程中发生异常：" + fileName + "，" + e.getCause());
+            return false;
         } finally {
-            // 关闭FTP连接
-            try {
-                if (ftpClient.isConnected()) {
-                    ftpClient.logout();
-                    ftpClient.disconnect();
+            // 尚未开始的分段直接跳过，正在读取的分段在下一次写入缓冲区时中止并关闭数据连接。
+            // 等这些任务都结束后再返回，分段缓冲区释放之前不归还并发许可
+            aborted.set(true);
+            awaitSegments(window);
+        }
+    }
+    
+    /**
+     * 等待已提交的分段任务结束，忽略其结果
+     */
+    private void awaitSegments(ArrayDeque<Future<ByteArrayOutputStream>> window) {
+        boolean interrupted = false;
+        for (Future<ByteArrayOutputStream> future : window) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
                 }
-            } catch (IOException e) {
-                System.err.println("关闭FTP连接时发生异常：" + e.getMessage());
             }
         }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * 提交一个分段的读取任务，读取失败或长度不符时结果为null
+     */
+    private Future<ByteArrayOutputStream> submitSegment(List<String> replicas, String fileName,
+                                                        long segmentOffset, int segmentLength, AtomicBoolean aborted) {
+        return transferExecutor.submit(() -> {
+            if (aborted.get()) {
+                return null;
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(segmentLength);
+            if (!downloadFile(replicas, fileName, segmentOffset, segmentLength, new AbortableOutputStream(buffer, aborted))
+                    || buffer.size() != segmentLength) {
+                return null;
+            }
+            segmentCount.incrementAndGet();
+            return buffer;
+        });
+    }
+    
+    /**
+     * 按分段序号轮换健康副本的顺序，使各分段分散到不同节点读取
+     */
+    private List<String> rotateHealthy(List<String> ordered, int index) {
+        long now = System.currentTimeMillis();
+        int healthy = 0;
+        while (healthy < ordered.size() && isHealthy(nodeHealth.get(ordered.get(healthy)), now)) {
+            healthy++;
+        }
+        if (healthy <= 1) {
+            return ordered;
+        }
+        List<String> rotated = new ArrayList<>(ordered.size());
+        for (int i = 0; i < healthy; i++) {
+            rotated.add(ordered.get((index + i) % healthy));
+        }
+        rotated.addAll(ordered.subList(healthy, ordered.size()));
+        return rotated;
+    }
+    
+    /**
+     * 从存储节点下载文件的指定区间（FTP节点通过REST命令从偏移量开始读取）
+     * 
+     * @param node 存储节点
+     * @param fileName 文件名
+     * @param offset 起始偏移量
+     * @param length 读取长度，小于0表示读取到文件末尾
+     * @param outputStream 目标输出流
+     * @return 下载成功返回true，否则返回false
+     */
+    public boolean downloadFile(String node, String fileName, long offset, long length, OutputStream outputStream) {
+        String targetNode = resolveNode(node);
+        LatencyRecordingOutputStream recordingStream = new LatencyRecordingOutputStream(outputStream, targetNode);
+        try {
+            boolean downloadSuccess = getBackend(targetNode).read(fileName, offset, length, recordingStream);
+            if (downloadSuccess) {
+                System.out.println("文件下载成功：" + targetNode + "/" + fileName + (offset > 0 || length >= 0
+                        ? "，区间：" + offset + "+" + (length >= 0 ? length : "*") : ""));
+            }
+            recordResult(targetNode, downloadSuccess);
+            return downloadSuccess;
+        } catch (IOException e) {
+            if (recordingStream.isOutputFailed()) {
+                // 客户端断开或分段下载已放弃，与节点状况无关
+                System.out.println("下载中止（输出端失败）：" + targetNode + "/" + fileName + "，" + e.getMessage());
+                return false;
+            }
+            recordResult(targetNode, false);
+            System.err.println("下载过程中发生异常（" + targetNode + "）：" + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * 查找保存在本地存储节点上的副本文件，供下载接口以sendfile直接发送。
+     * 只考虑健康的节点，FTP节点没有本地路径。
+     * 
+     * @param replicas 副本节点
+     * @param fileName 文件名
+     * @return 没有可用的本地副本返回null
+     */
+    public Path getLocalPath(List<String> replicas, String fileName) {
+        long now = System.currentTimeMillis();
+        for (String node : orderByHealth(replicas)) {
+            String targetNode = resolveNode(node);
+            StorageBackend storageBackend = storageBackends.get(targetNode);
+            if (storageBackend == null || !isHealthy(nodeHealth.get(targetNode), now)) {
+                continue;
+            }
+            Path path = storageBackend.getLocalPath(fileName);
+            if (path != null) {
+                return path;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 获取各节点的存储后端统计信息（FTP节点为连接池统计）
+     */
+    public Map<String, Object> getPoolMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (Map.Entry<String, StorageBackend> entry : storageBackends.entrySet()) {
+            metrics.put(entry.getKey(), entry.getValue().getMetrics());
+        }
+        return metrics;
+    }
+    
+    /**
+     * 获取各节点的健康状况
+     */
+    public Map<String, Object> getNodeHealth() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, NodeHealth> entry : nodeHealth.entrySet()) {
+            NodeHealth health = entry.getValue();
+            Map<String, Object> nodeMetrics = new LinkedHashMap<>();
+            nodeMetrics.put("healthy", isHealthy(health, now));
+            nodeMetrics.put("latencyMs", health.latencyMs);
+            nodeMetrics.put("successes", health.successCount.get());
+            nodeMetrics.put("failures", health.failureCount.get());
+            nodeMetrics.put("consecutiveFailures", health.consecutiveFailures.get());
+            nodeMetrics.put("lastFailureAt", health.lastFailureAt);
+            metrics.put(entry.getKey(), nodeMetrics);
+        }
+        return metrics;
+    }
+    
+    /**
+     * 获取分段并行下载统计信息
+     */
+    public Map<String, Object> getSegmentedMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", segmentedEnabled);
+        metrics.put("minFileBytes", segmentedMinFileBytes);
+        metrics.put("maxParallelism", segmentedMaxParallelism);
+        metrics.put("active", Math.max(1, segmentedMaxConcurrentDownloads) - segmentedPermits.availablePermits());
+        metrics.put("downloads", segmentedDownloadCount.get());
+        metrics.put("failures", segmentedFailureCount.get());
+        metrics.put("fallbacks", segmentedFallbackCount.get());
+        metrics.put("segments", segmentCount.get());
+        metrics.put("bytes", segmentedBytes.get());
+        return metrics;
     }
     
     /**
@@ -241,4 +970,212 @@ public class FtpService {
     public String getFtpBasePath() {
         return ftpBasePath;
     }
-}
\ No newline at end of file
+    
+    /**
+     * 获取文件在FTP服务器上的路径（记录在文件信息的ftpPath中）
+     * 
+     * @param fileName 文件名
+     * @return 绝对路径
+     */
+    public String getObjectPath(String fileName) {
+        return StorageLayout.join(ftpBasePath, storageLayout.objectKey(fileName));
+    }
+    
+    /**
+     * 获取文件相对于基础目录的路径（CDN回源使用的路径）。取自记录的ftpPath，
+     * 布局迁移完成前仍平铺在基础目录中的文件返回文件名，迁移后返回分区目录下的路径
+     * 
+     * @param ftpPath 记录的FTP路径
+     * @param fileName 文件名
+     * @return 相对路径，例如 3f/a2/xxx.jpg
+     */
+    public String getPublicKey(String ftpPath, String fileName) {
+        String base = ftpBasePath.endsWith("/") ? ftpBasePath : ftpBasePath + "/";
+        if (ftpPath != null && ftpPath.startsWith(base) && ftpPath.endsWith("/" + fileName)) {
+            return ftpPath.substring(base.length());
+        }
+        return storageLayout.isLegacyFallback() ? fileName : storageLayout.objectKey(fileName);
+    }
+    
+    /**
+     * 按健康状况和读取延迟排序副本：近期连续失败的节点排在最后
+     */
+    private List<String> orderByHealth(List<String> replicas) {
+        long now = System.currentTimeMillis();
+        List<String> ordered = new ArrayList<>(replicas);
+        ordered.sort(Comparator.<String, Boolean>comparing(node -> !isHealthy(nodeHealth.get(node), now))
+                .thenComparingDouble(node -> nodeHealth.containsKey(node) ? nodeHealth.get(node).latencyMs : 0));
+        return ordered;
+    }
+    
+    private boolean isHealthy(NodeHealth health, long now) {
+        return health == null || health.consecutiveFailures.get() == 0
+                || now - health.lastFailureAt > failureCooldownMs;
+    }
+    
+    private void recordResult(String node, boolean success) {
+        NodeHealth health = nodeHealth.get(node);
+        if (health == null) {
+            return;
+        }
+        if (success) {
+            health.successCount.incrementAndGet();
+            health.consecutiveFailures.set(0);
+        } else {
+            health.failureCount.incrementAndGet();
+            health.consecutiveFailures.incrementAndGet();
+            health.lastFailureAt = System.currentTimeMillis();
+        }
+    }
+    
+    private void recordLatency(String node, long nanos) {
+        NodeHealth health = nodeHealth.get(node);
+        if (health != null) {
+            double millis = nanos / 1_000_000.0;
+            health.latencyMs = health.latencyMs == 0 ? millis : health.latencyMs * 0.8 + millis * 0.2;
+        }
+    }
+    
+    private StorageBackend getBackend(String node) throws IOException {
+        StorageBackend storageBackend = storageBackends.get(node);
+        if (storageBackend == null) {
+            throw new IOException("存储节点未配置：" + node);
+        }
+        return storageBackend;
+    }
+    
+    /**
+     * 节点健康状况（读取延迟为收到第一个字节耗时的指数移动平均）
+     */
+    private static class NodeHealth {
+        private final AtomicLong successCount = new AtomicLong();
+        private final AtomicLong failureCount = new AtomicLong();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long lastFailureAt = 0;
+        private volatile double latencyMs = 0;
+    }
+    
+    /**
+     * 记录已写出字节数的输出流，并区分写出失败（客户端断开）与读取失败
+     */
+    private static class TrackingOutputStream extends FilterOutputStream {
+        
+        private long count = 0;
+        private boolean broken = false;
+        
+        TrackingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                broken = true;
+                throw e;
+            }
+            count += len;
+        }
+        
+        long getCount() {
+            return count;
+        }
+        
+        boolean isBroken() {
+            return broken;
+        }
+    }
+    
+    /**
+     * 分段下载放弃后中止正在进行的分段读取
+     */
+    private static class AbortableOutputStream extends FilterOutputStream {
+        
+        private final AtomicBoolean aborted;
+        
+        AbortableOutputStream(OutputStream out, AtomicBoolean aborted) {
+            super(out);
+            this.aborted = aborted;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (aborted.get()) {
+                throw new SegmentAbortedException();
+            }
+            out.write(b, off, len);
+        }
+    }
+    
+    private static class SegmentAbortedException extends IOException {
+        
+        private static final long serialVersionUID = 1L;
+        
+        SegmentAbortedException() {
+            super("分段下载已放弃");
+        }
+    }
+    
+    /**
+     * 收到第一个字节时记录节点的读取延迟，并记录写出端是否失败
+     */
+    private class LatencyRecordingOutputStream extends FilterOutputStream {
+        
+        private final String node;
+        private final long start = System.nanoTime();
+        private boolean recorded = false;
+        private boolean outputFailed = false;
+        
+        LatencyRecordingOutputStream(OutputStream out, String node) {
+            super(out);
+            this.node = node;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!recorded) {
+                recorded = true;
+                recordLatency(node, System.nanoTime() - start);
+            }
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                outputFailed = true;
+                throw e;
+            }
+        }
+        
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                outputFailed = true;
+                throw e;
+            }
+        }
+        
+        /**
+         * 是否因写出失败（而不是读取节点失败）中止
+         */
+        boolean isOutputFailed() {
+            return outputFailed;
+        }
+    }
+}
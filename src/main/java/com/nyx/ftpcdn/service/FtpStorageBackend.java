@@ -0,0 +1,346 @@
+package com.nyx.ftpcdn.service;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FTP存储后端
+ *
+ * 通过连接池复用已登录的会话，文件路径使用绝对路径，避免每次操作都发送CWD。
+ * 已确认存在的目录缓存在内存中，稳定运行时上传不再发送目录命令。
+ *
+ * @author nyx
+ */
+@Component
+@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+public class FtpStorageBackend implements StorageBackend {
+
+    /** 流式传输缓冲区大小 */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FtpBackend backend;
+
+    @Value("${ftp.basePath:/uploads}")
+    private String ftpBasePath;
+
+    @Autowired
+    private StorageLayout storageLayout;
+
+    @Autowired
+    private ObjectProvider<FtpClientPool> ftpClientPoolProvider;
+
+    private FtpClientPool ftpClientPool;
+
+    /** 已确认存在的目录 */
+    private final Set<String> knownDirectories = ConcurrentHashMap.newKeySet();
+
+    public FtpStorageBackend(FtpBackend backend) {
+        this.backend = backend;
+    }
+
+    @PostConstruct
+    public void init() {
+        ftpClientPool = ftpClientPoolProvider.getObject(backend);
+    }
+
+    /**
+     * 通过REST + STOR写入
+     */
+    @Override
+    public boolean store(InputStreamSource source, String fileName, long offset) throws IOException {
+        return ftpClientPool.execute(ftpClient -> store(ftpClient, source, fileName, offset));
+    }
+
+    /**
+     * 在同一个会话中依次STOR，目录已确认存在时每个文件只需一条命令。
+     * 连接断开时不重试，未写入的文件结果为false
+     */
+    @Override
+    public void storeAll(List<? extends InputStreamSource> sources, List<String> fileNames,
+                         boolean[] results) throws IOException {
+        ftpClientPool.execute(ftpClient -> {
+            for (int i = 0; i < fileNames.size(); i++) {
+                results[i] = store(ftpClient, sources.get(i), fileNames.get(i), 0);
+            }
+            return null;
+        }, false);
+    }
+
+    /**
+     * 通过REST命令从偏移量开始读取，读够长度后提前关闭数据连接
+     */
+    @Override
+    public boolean read(String fileName, long offset, long length, OutputStream outputStream) throws IOException {
+        // 数据可能已部分写出，连接异常时不能重试
+        return ftpClientPool.execute(ftpClient -> {
+            boolean reachedEnd;
+            try (InputStream inputStream = retrieveFileStream(ftpClient, fileName, offset)) {
+                if (inputStream == null) {
+                    System.err.println("FTP读取失败：" + backend.getName() + "/" + fileName + "，返回：" + ftpClient.getReplyString());
+                    return false;
+                }
+                reachedEnd = copy(inputStream, outputStream, length);
+            }
+
+            // 提前关闭数据连接时服务器会返回426，属于正常情况
+            boolean transferComplete = ftpClient.completePendingCommand();
+            if (!reachedEnd || transferComplete) {
+                return true;
+            }
+            System.err.println("FTP读取未完成：" + backend.getName() + "/" + fileName);
+            return false;
+        }, false);
+    }
+
+    @Override
+    public boolean delete(String fileName) throws IOException {
+        return ftpClientPool.execute(ftpClient -> delete(ftpClient, fileName));
+    }
+
+    /**
+     * 在同一个会话中依次DELE。删除可以重复执行，连接断开时换新连接跳过已删除的文件继续
+     */
+    @Override
+    public void deleteAll(List<String> fileNames, boolean[] results) throws IOException {
+        ftpClientPool.execute(ftpClient -> {
+            for (int i = 0; i < fileNames.size(); i++) {
+                if (!results[i]) {
+                    results[i] = delete(ftpClient, fileNames.get(i));
+                }
+            }
+            return null;
+        });
+    }
+
+    private boolean delete(FTPClient ftpClient, String fileName) throws IOException {
+        return ftpClient.deleteFile(resolvePath(fileName))
+                || storageLayout.isLegacyFallback() && ftpClient.deleteFile(resolveLegacyPath(fileName));
+    }
+
+    /**
+     * 通过SIZE命令查询
+     */
+    @Override
+    public long stat(String fileName) throws IOException {
+        String size = ftpClientPool.execute(ftpClient -> {
+            String result = ftpClient.getSize(resolvePath(fileName));
+            if (result == null && storageLayout.isLegacyFallback()) {
+                result = ftpClient.getSize(resolveLegacyPath(fileName));
+            }
+            return result;
+        });
+        try {
+            return size != null ? Long.parseLong(size.trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public List<String> list() throws IOException {
+        return ftpClientPool.execute(ftpClient -> {
+            List<String> names = new ArrayList<>();
+            listRecursively(ftpClient, ftpBasePath, names);
+            return names;
+        });
+    }
+
+    /**
+     * 通过RNFR/RNTO移动，不传输数据
+     */
+    @Override
+    public boolean relocateLegacyObject(String fileName) throws IOException {
+        if (!storageLayout.isPartitioned()) {
+            return true;
+        }
+        String path = resolvePath(fileName);
+        return ftpClientPool.execute(ftpClient -> {
+            ensureDirectory(ftpClient, StorageLayout.parentOf(path));
+            return moveLegacyObject(ftpClient, fileName, path);
+        });
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("type", FtpBackend.TYPE_FTP);
+        metrics.putAll(ftpClientPool.getMetrics());
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        ftpClientPool.close();
+    }
+
+    private boolean store(FTPClient ftpClient, InputStreamSource source, String fileName, long offset) throws IOException {
+        // 创建上传目录（如果不存在）
+        String path = resolvePath(fileName);
+        String directory = StorageLayout.parentOf(path);
+        ensureDirectory(ftpClient, directory);
+
+        if (offset > 0) {
+            if (storageLayout.isLegacyFallback()) {
+                // 升级前开始的分片上传，已写入的部分还在原位置
+                moveLegacyObject(ftpClient, fileName, path);
+            }
+            ftpClient.setRestartOffset(offset);
+        }
+
+        try (InputStream inputStream = source.getInputStream()) {
+            boolean uploadSuccess = ftpClient.storeFile(path, inputStream);
+            if (!uploadSuccess) {
+                // 目录可能已在服务器上被删除，下次上传时重新创建
+                forgetDirectory(directory);
+                System.err.println("FTP写入被拒绝：" + backend.getName() + "/" + fileName + "，返回：" + ftpClient.getReplyString());
+            }
+            return uploadSuccess;
+        }
+    }
+
+    /**
+     * 打开文件的数据连接，新位置不存在时回退到平铺的原位置
+     */
+    private InputStream retrieveFileStream(FTPClient ftpClient, String fileName, long offset) throws IOException {
+        if (offset > 0) {
+            ftpClient.setRestartOffset(offset);
+        }
+        InputStream inputStream = ftpClient.retrieveFileStream(resolvePath(fileName));
+        if (inputStream == null && storageLayout.isLegacyFallback()) {
+            if (offset > 0) {
+                ftpClient.setRestartOffset(offset);
+            }
+            inputStream = ftpClient.retrieveFileStream(resolveLegacyPath(fileName));
+        }
+        return inputStream;
+    }
+
+    /**
+     * 原位置存在文件时移动到新位置
+     *
+     * @return 原位置已没有此文件返回true
+     */
+    private boolean moveLegacyObject(FTPClient ftpClient, String fileName, String path) throws IOException {
+        String legacyPath = resolveLegacyPath(fileName);
+        if (legacyPath.equals(path) || ftpClient.getSize(legacyPath) == null) {
+            return true;
+        }
+        if (ftpClient.rename(legacyPath, path)) {
+            System.out.println("文件已移动到分区目录：" + backend.getName() + legacyPath + " -> " + path);
+            return true;
+        }
+        System.err.println("文件移动失败：" + backend.getName() + legacyPath + "，返回：" + ftpClient.getReplyString());
+        return false;
+    }
+
+    /**
+     * 确保目录存在：逐级发送MKD，MKD失败时（通常是目录已存在）用CWD确认目录确实存在。
+     * 只有确认存在的目录才记录在内存中，之后不再发送任何目录命令；
+     * 并发写入同一个新目录时各自发送MKD，不会因为另一个会话尚未创建完成而跳过。
+     * 所有读写都使用绝对路径，CWD改变的工作目录不影响其他操作。
+     *
+     * @param ftpClient FTP客户端
+     * @param dirPath 目录绝对路径
+     */
+    private void ensureDirectory(FTPClient ftpClient, String dirPath) throws IOException {
+        if (knownDirectories.contains(dirPath)) {
+            return;
+        }
+        String currentDir = "";
+        for (String dir : dirPath.split("/")) {
+            if (dir.isEmpty()) continue;
+
+            currentDir += "/" + dir;
+            if (knownDirectories.contains(currentDir)) {
+                continue;
+            }
+            if (ftpClient.makeDirectory(currentDir)) {
+                System.out.println("创建目录成功：" + backend.getName() + currentDir);
+            } else if (!ftpClient.changeWorkingDirectory(currentDir)) {
+                // 未能创建也不存在，不记录，之后的写入会失败并在下次重新尝试
+                System.err.println("创建目录失败：" + backend.getName() + currentDir + "，返回："
+                        + ftpClient.getReplyString());
+                return;
+            }
+            knownDirectories.add(currentDir);
+        }
+    }
+
+    /**
+     * 从已确认的目录中移除（包括上级目录），下次写入时重新创建
+     */
+    private void forgetDirectory(String dirPath) {
+        String currentDir = dirPath;
+        while (!currentDir.isEmpty()) {
+            knownDirectories.remove(currentDir);
+            currentDir = StorageLayout.parentOf(currentDir);
+        }
+    }
+
+    private void listRecursively(FTPClient ftpClient, String dirPath, List<String> names) throws IOException {
+        for (FTPFile file : ftpClient.listFiles(dirPath)) {
+            if (file.getName().equals(".") || file.getName().equals("..")) {
+                continue;
+            }
+            if (file.isDirectory()) {
+                listRecursively(ftpClient, StorageLayout.join(dirPath, file.getName()), names);
+            } else {
+                names.add(file.getName());
+            }
+        }
+    }
+
+    /**
+     * 文件在FTP服务器上的绝对路径，例如 /uploads/3f/a2/xxx.jpg
+     */
+    private String resolvePath(String fileName) {
+        return StorageLayout.join(ftpBasePath, storageLayout.objectKey(fileName));
+    }
+
+    /**
+     * 升级前平铺在基础目录中的路径
+     */
+    private String resolveLegacyPath(String fileName) {
+        return StorageLayout.join(ftpBasePath, fileName);
+    }
+
+    /**
+     * 使用固定大小的缓冲区拷贝数据，内存占用与文件大小无关
+     *
+     * @param inputStream 输入流
+     * @param outputStream 输出流
+     * @param length 拷贝长度，小于0表示拷贝到流末尾
+     * @return 是否读到了输入流末尾
+     */
+    private boolean copy(InputStream inputStream, OutputStream outputStream, long length) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = length < 0 ? Long.MAX_VALUE : length;
+        while (remaining > 0) {
+            int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                return true;
+            }
+            outputStream.write(buffer, 0, read);
+            remaining -= read;
+        }
+        return length < 0;
+    }
+}
@@ -0,0 +1,277 @@
+package com.nyx.ftpcdn.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * 本地文件系统存储后端（本地磁盘或挂载的NAS卷）
+ *
+ * 通过 FileChannel.transferFrom/transferTo 传输数据：源或目标也是文件通道时
+ * （例如从暂存文件写入）由操作系统直接拷贝，不经过应用缓冲区。
+ * 写入响应时目标是Servlet输出流，read只能逐块拷贝；下载接口优先通过 {@link #getLocalPath}
+ * 交给Tomcat以sendfile发送。
+ *
+ * @author nyx
+ */
+@Component
+@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+public class LocalStorageBackend implements StorageBackend {
+
+    /** 单次transferFrom的最大字节数 */
+    private static final long TRANSFER_CHUNK = 8L * 1024 * 1024;
+
+    private final FtpBackend backend;
+
+    @Autowired
+    private StorageLayout storageLayout;
+
+    private Path root;
+
+    /** 已确认存在的目录 */
+    private final Set<Path> knownDirectories = ConcurrentHashMap.newKeySet();
+
+    public LocalStorageBackend(FtpBackend backend) {
+        this.backend = backend;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (backend.getPath() == null || backend.getPath().isEmpty()) {
+            throw new IllegalStateException("本地存储节点必须配置path：" + backend);
+        }
+        root = Paths.get(backend.getPath()).toAbsolutePath().normalize();
+        Files.createDirectories(root);
+    }
+
+    @Override
+    public boolean store(InputStreamSource source, String fileName, long offset) throws IOException {
+        Path path = resolvePath(fileName);
+        ensureDirectory(path.getParent());
+        if (offset > 0 && storageLayout.isLegacyFallback()) {
+            // 升级前开始的分片上传，已写入的部分还在原位置
+            moveLegacyObject(fileName, path);
+        }
+        if (offset > 0) {
+            // 与REST + STOR一致：偏移量不能超过已写入的长度，否则文件中间会留下空洞
+            long size = Files.isRegularFile(path) ? Files.size(path) : 0;
+            if (offset > size) {
+                System.err.println("写入偏移量超过文件大小：" + backend.getName() + "/" + fileName
+                        + "，偏移量：" + offset + "，文件大小：" + size);
+                return false;
+            }
+        }
+
+        FileChannel target;
+        try {
+            target = offset > 0
+                    ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+                    : FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (NoSuchFileException e) {
+            // 目录可能已被删除，下次写入时重新创建
+            knownDirectories.remove(path.getParent());
+            throw e;
+        }
+        try {
+            long written;
+            if (source instanceof FileSystemResource) {
+                try (FileChannel sourceChannel = FileChannel.open(((FileSystemResource) source).getFile().toPath(),
+                        StandardOpenOption.READ)) {
+                    written = transferFrom(sourceChannel, target, offset);
+                }
+            } else {
+                try (InputStream inputStream = source.getInputStream();
+                     ReadableByteChannel sourceChannel = Channels.newChannel(inputStream)) {
+                    written = transferFrom(sourceChannel, target, offset);
+                }
+            }
+            // 与REST + STOR一致：对象在写入的数据末尾结束
+            target.truncate(offset + written);
+        } finally {
+            target.close();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean read(String fileName, long offset, long length, OutputStream outputStream) throws IOException {
+        FileChannel channel = openForRead(fileName);
+        if (channel == null) {
+            return false;
+        }
+        try {
+            long end = length < 0 ? channel.size() : Math.min(channel.size(), offset + length);
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = offset;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    // 文件在读取过程中被截断
+                    System.err.println("文件读取未完成：" + backend.getName() + "/" + fileName
+                            + "，已读到：" + position + "/" + end);
+                    return false;
+                }
+                position += transferred;
+            }
+            return true;
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Override
+    public Path getLocalPath(String fileName) {
+        Path path = resolvePath(fileName);
+        if (Files.isRegularFile(path)) {
+            return path;
+        }
+        if (storageLayout.isLegacyFallback() && Files.isRegularFile(root.resolve(fileName))) {
+            return root.resolve(fileName);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean delete(String fileName) throws IOException {
+        return Files.deleteIfExists(resolvePath(fileName))
+                || storageLayout.isLegacyFallback() && Files.deleteIfExists(root.resolve(fileName));
+    }
+
+    @Override
+    public long stat(String fileName) throws IOException {
+        Path path = resolvePath(fileName);
+        if (!Files.exists(path) && storageLayout.isLegacyFallback()) {
+            path = root.resolve(fileName);
+        }
+        return Files.isRegularFile(path) ? Files.size(path) : -1;
+    }
+
+    @Override
+    public List<String> list() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.filter(Files::isRegularFile).forEach(path -> names.add(path.getFileName().toString()));
+        }
+        return names;
+    }
+
+    @Override
+    public boolean relocateLegacyObject(String fileName) throws IOException {
+        if (!storageLayout.isPartitioned()) {
+            return true;
+        }
+        Path path = resolvePath(fileName);
+        ensureDirectory(path.getParent());
+        moveLegacyObject(fileName, path);
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("type", FtpBackend.TYPE_LOCAL);
+        metrics.put("path", root.toString());
+        try {
+            metrics.put("usableBytes", Files.getFileStore(root).getUsableSpace());
+            metrics.put("totalBytes", Files.getFileStore(root).getTotalSpace());
+        } catch (IOException e) {
+            metrics.put("error", e.getMessage());
+        }
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * 打开对象用于读取，新位置不存在时回退到平铺的原位置
+     *
+     * @return 对象不存在返回null
+     */
+    private FileChannel openForRead(String fileName) throws IOException {
+        try {
+            return FileChannel.open(resolvePath(fileName), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            if (!storageLayout.isLegacyFallback()) {
+                return null;
+            }
+        }
+        try {
+            return FileChannel.open(root.resolve(fileName), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 从源通道写入目标文件的指定位置，直到源通道读完
+     *
+     * @return 写入的字节数
+     */
+    private long transferFrom(ReadableByteChannel source, FileChannel target, long offset) throws IOException {
+        long position = offset;
+        if (source instanceof FileChannel) {
+            FileChannel fileSource = (FileChannel) source;
+            long size = fileSource.size();
+            long transferred;
+            while (position - offset < size
+                    && (transferred = target.transferFrom(fileSource, position, size - (position - offset))) > 0) {
+                position += transferred;
+            }
+            return position - offset;
+        }
+        long transferred;
+        while ((transferred = target.transferFrom(source, position, TRANSFER_CHUNK)) > 0) {
+            position += transferred;
+        }
+        return position - offset;
+    }
+
+    private void moveLegacyObject(String fileName, Path path) throws IOException {
+        Path legacyPath = root.resolve(fileName);
+        if (!legacyPath.equals(path) && Files.exists(legacyPath)) {
+            Files.move(legacyPath, path, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("文件已移动到分区目录：" + legacyPath + " -> " + path);
+        }
+    }
+
+    private void ensureDirectory(Path directory) throws IOException {
+        if (knownDirectories.contains(directory)) {
+            return;
+        }
+        // 并发的首次写入各自创建（目录已存在时不报错），创建成功后才记录
+        Files.createDirectories(directory);
+        knownDirectories.add(directory);
+    }
+
+    private Path resolvePath(String fileName) {
+        return root.resolve(storageLayout.objectKey(fileName));
+    }
+}
@@ -0,0 +1,380 @@
+package com.nyx.ftpcdn.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 堆外热点对象缓存服务
+ *
+ * 小文件内容保存在直接内存（堆外）中，不参与GC。内存按固定大小的slab分配，
+ * 每个slab按大小等级切分为槽位；新对象通过TinyLFU频率估计决定是否准入，
+ * 避免一次性的大量扫描把热点对象挤出缓存。
+ *
+ * @author nyx
+ */
+@Service
+public class MemoryCacheService {
+
+    /** 最小槽位大小 */
+    private static final int MIN_SLOT_SIZE = 1024;
+
+    /** 相邻大小等级的增长系数 */
+    private static final double GROWTH_FACTOR = 1.25;
+
+    @Value("${cache.memory.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cache.memory.max-bytes:268435456}")
+    private long maxBytes;
+
+    @Value("${cache.memory.max-object-bytes:262144}")
+    private int maxObjectBytes;
+
+    @Value("${cache.memory.slab-bytes:1048576}")
+    private int slabBytes;
+
+    /** 各大小等级的槽位大小 */
+    private int[] slotSizes;
+
+    /** 各大小等级的空闲槽位 */
+    private List<ArrayDeque<ByteBuffer>> freeSlots;
+
+    /** 各大小等级的LRU顺序（最久未访问的在最前） */
+    private List<LinkedHashMap<String, Entry>> lruByClass;
+
+    /** 所有缓存条目 */
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private FrequencySketch sketch;
+
+    private int maxSlabs;
+    private int allocatedSlabs = 0;
+    private long usedBytes = 0;
+
+    // 缓存统计（由this锁保护）
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long bytesServed = 0;
+    private long admitCount = 0;
+    private long rejectCount = 0;
+    private long evictionCount = 0;
+
+    @PostConstruct
+    public void init() {
+        int effectiveSlabBytes = Math.max(slabBytes, maxObjectBytes);
+        slabBytes = effectiveSlabBytes;
+        maxSlabs = (int) Math.max(1, maxBytes / effectiveSlabBytes);
+
+        // 生成大小等级：从1KB开始按1.25倍增长，最后一级为对象大小上限
+        List<Integer> sizes = new ArrayList<>();
+        int size = MIN_SLOT_SIZE;
+        while (size < maxObjectBytes) {
+            sizes.add(size);
+            size = (int) Math.ceil(size * GROWTH_FACTOR / 8) * 8;
+        }
+        sizes.add(maxObjectBytes);
+        slotSizes = sizes.stream().mapToInt(Integer::intValue).toArray();
+
+        freeSlots = new ArrayList<>();
+        lruByClass = new ArrayList<>();
+        for (int i = 0; i < slotSizes.length; i++) {
+            freeSlots.add(new ArrayDeque<>());
+            lruByClass.add(new LinkedHashMap<>(16, 0.75f, true));
+        }
+
+        // 频率估计按最多可容纳的最小对象数量确定宽度
+        sketch = new FrequencySketch((int) Math.min(1 << 22, Math.max(1024, maxBytes / (4 * MIN_SLOT_SIZE))));
+    }
+
+    /**
+     * 是否应尝试缓存该大小的对象
+     *
+     * @param size 对象大小
+     * @return 大小在阈值以内返回true
+     */
+    public boolean isCacheable(Long size) {
+        return enabled && size != null && size > 0 && size <= maxObjectBytes;
+    }
+
+    /**
+     * 从堆外缓存读取对象并写入输出流
+     *
+     * @param key 缓存键（生成的文件名）
+     * @param offset 起始偏移量
+     * @param length 读取长度，小于0表示读取到对象末尾
+     * @param outputStream 目标输出流
+     * @return 命中返回true，未命中返回false
+     */
+    public boolean transferTo(String key, long offset, long length, OutputStream outputStream) throws IOException {
+        if (!enabled) {
+            return false;
+        }
+        Entry entry;
+        synchronized (this) {
+            sketch.increment(key);
+            entry = entries.get(key);
+            if (entry == null) {
+                missCount++;
+                return false;
+            }
+            lruByClass.get(entry.sizeClass).get(key);
+            entry.pins++;
+        }
+
+        long transferred = 0;
+        try {
+            int start = (int) Math.min(offset, entry.length);
+            int end = length < 0 ? entry.length : (int) Math.min(entry.length, offset + length);
+            ByteBuffer view = entry.slot.duplicate();
+            view.limit(end);
+            view.position(start);
+            WritableByteChannel channel = Channels.newChannel(outputStream);
+            while (view.hasRemaining()) {
+                channel.write(view);
+            }
+            transferred = end - start;
+        } finally {
+            synchronized (this) {
+                entry.pins--;
+                if (entry.retired && entry.pins == 0) {
+                    freeSlots.get(entry.sizeClass).push(entry.slot);
+                }
+                hitCount++;
+                bytesServed += transferred;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 尝试将对象放入缓存（经TinyLFU准入判断）
+     *
+     * @param key 缓存键（生成的文件名）
+     * @param data 对象内容
+     * @param length 内容长度
+     * @return 是否已缓存
+     */
+    public synchronized boolean put(String key, byte[] data, int length) {
+        if (!enabled || length <= 0 || length > maxObjectBytes || entries.containsKey(key)) {
+            return false;
+        }
+        int sizeClass = sizeClassOf(length);
+        ByteBuffer slot = allocateSlot(sizeClass, key);
+        if (slot == null) {
+            rejectCount++;
+            return false;
+        }
+
+        ByteBuffer target = slot.duplicate();
+        target.clear();
+        target.put(data, 0, length);
+
+        Entry entry = new Entry(key, sizeClass, slot, length);
+        entries.put(key, entry);
+        lruByClass.get(sizeClass).put(key, entry);
+        usedBytes += length;
+        admitCount++;
+        return true;
+    }
+
+    /**
+     * 删除缓存条目（文件被删除时调用）
+     *
+     * @param key 缓存键（生成的文件名）
+     */
+    public synchronized void invalidate(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    /**
+     * 获取缓存统计信息
+     *
+     * @return 统计信息
+     */
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long lookups = hitCount + missCount;
+        metrics.put("enabled", enabled);
+        metrics.put("entries", entries.size());
+        metrics.put("usedBytes", usedBytes);
+        metrics.put("allocatedBytes", (long) allocatedSlabs * slabBytes);
+        metrics.put("maxBytes", (long) maxSlabs * slabBytes);
+        metrics.put("maxObjectBytes", maxObjectBytes);
+        metrics.put("hits", hitCount);
+        metrics.put("misses", missCount);
+        metrics.put("hitRatio", lookups == 0 ? 0 : (double) hitCount / lookups);
+        metrics.put("bytesServed", bytesServed);
+        metrics.put("admissions", admitCount);
+        metrics.put("rejections", rejectCount);
+        metrics.put("evictions", evictionCount);
+        return metrics;
+    }
+
+    /**
+     * 为指定大小等级分配槽位：优先使用空闲槽位，其次分配新slab，
+     * 最后在TinyLFU判断新对象更热时淘汰该等级中最久未访问的对象
+     */
+    private ByteBuffer allocateSlot(int sizeClass, String key) {
+        ArrayDeque<ByteBuffer> free = freeSlots.get(sizeClass);
+        if (free.isEmpty() && allocatedSlabs < maxSlabs) {
+            allocateSlab(sizeClass);
+        }
+        if (!free.isEmpty()) {
+            return free.pop();
+        }
+
+        Iterator<Entry> iterator = lruByClass.get(sizeClass).values().iterator();
+        while (iterator.hasNext()) {
+            Entry victim = iterator.next();
+            if (victim.pins > 0) {
+                // 正在被读取的对象暂不淘汰
+                continue;
+            }
+            if (sketch.frequency(key) <= sketch.frequency(victim.key)) {
+                return null;
+            }
+            release(victim);
+            evictionCount++;
+            return free.pop();
+        }
+        return null;
+    }
+
+    /**
+     * 分配一个新的堆外slab并切分为指定等级的槽位
+     */
+    private void allocateSlab(int sizeClass) {
+        ByteBuffer slab = ByteBuffer.allocateDirect(slabBytes);
+        int slotSize = slotSizes[sizeClass];
+        ArrayDeque<ByteBuffer> free = freeSlots.get(sizeClass);
+        for (int position = 0; position + slotSize <= slabBytes; position += slotSize) {
+            slab.limit(position + slotSize);
+            slab.position(position);
+            free.push(slab.slice());
+        }
+        allocatedSlabs++;
+    }
+
+    /**
+     * 从缓存中移除条目，没有读取者时立即回收槽位
+     */
+    private void release(Entry entry) {
+        entries.remove(entry.key);
+        lruByClass.get(entry.sizeClass).remove(entry.key);
+        usedBytes -= entry.length;
+        entry.retired = true;
+        if (entry.pins == 0) {
+            freeSlots.get(entry.sizeClass).push(entry.slot);
+        }
+    }
+
+    private int sizeClassOf(int length) {
+        for (int i = 0; i < slotSizes.length; i++) {
+            if (length <= slotSizes[i]) {
+                return i;
+            }
+        }
+        return slotSizes.length - 1;
+    }
+
+    /**
+     * 缓存条目
+     */
+    private static class Entry {
+        private final String key;
+        private final int sizeClass;
+        private final ByteBuffer slot;
+        private final int length;
+        private int pins = 0;
+        private boolean retired = false;
+
+        Entry(String key, int sizeClass, ByteBuffer slot, int length) {
+            this.key = key;
+            this.sizeClass = sizeClass;
+            this.slot = slot;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 4位Count-Min频率估计（TinyLFU）。访问次数达到样本上限时所有计数减半，
+     * 使频率估计能够反映近期热度。
+     */
+    private static class FrequencySketch {
+
+        private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] rows;
+        private final int mask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, capacity - 1) << 1);
+            rows = new byte[SEEDS.length][width];
+            mask = width - 1;
+            sampleSize = width * 10;
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int min = MAX_COUNT;
+            for (int i = 0; i < rows.length; i++) {
+                min = Math.min(min, rows[i][indexOf(hash, i)]);
+            }
+            return min;
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < rows.length; i++) {
+                int index = indexOf(hash, i);
+                if (rows[i][index] < MAX_COUNT) {
+                    rows[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (byte[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = (byte) (row[i] >>> 1);
+                }
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private static int spread(int hash) {
+            int h = hash * 0x45d9f3b;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.nyx.ftpcdn.service;
+
+import org.springframework.core.io.InputStreamSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 存储后端接口，对应一个存储节点
+ *
+ * 对象按文件名存取，具体位置由 {@link StorageLayout} 决定。
+ * 多节点分片、副本、读取切换等由 {@link FtpService} 在各节点之上统一处理。
+ * 返回false表示存储端拒绝或对象不存在，连接或读写异常通过IOException抛出。
+ *
+ * @author nyx
+ */
+public interface StorageBackend {
+
+    /**
+     * 从指定偏移量开始写入对象，0表示新建（覆盖已有对象）。
+     * 写入后对象长度为offset加上写入的数据长度，同一区间重复写入结果一致。
+     *
+     * @param source 要写入的数据
+     * @param fileName 文件名
+     * @param offset 起始偏移量
+     * @return 写入成功返回true
+     */
+    boolean store(InputStreamSource source, String fileName, long offset) throws IOException;
+
+    /**
+     * 依次写入多个新对象（FTP节点复用同一个会话）
+     *
+     * @param sources 要写入的数据
+     * @param fileNames 文件名
+     * @param results 每个对象的写入结果，中途抛出异常时已写入的结果仍然有效
+     */
+    default void storeAll(List<? extends InputStreamSource> sources, List<String> fileNames,
+                          boolean[] results) throws IOException {
+        for (int i = 0; i < fileNames.size(); i++) {
+            results[i] = store(sources.get(i), fileNames.get(i), 0);
+        }
+    }
+
+    /**
+     * 读取对象的指定区间并写入输出流
+     *
+     * @param fileName 文件名
+     * @param offset 起始偏移量
+     * @param length 读取长度，小于0表示读取到对象末尾
+     * @param outputStream 目标输出流
+     * @return 对象不存在返回false
+     */
+    boolean read(String fileName, long offset, long length, OutputStream outputStream) throws IOException;
+
+    /**
+     * 获取对象在本地文件系统中的路径，供Servlet容器以sendfile直接发送
+     *
+     * @param fileName 文件名
+     * @return 不是本地存储或对象不存在返回null
+     */
+    default Path getLocalPath(String fileName) {
+        return null;
+    }
+
+    /**
+     * 删除对象
+     *
+     * @param fileName 文件名
+     * @return 删除成功返回true，对象不存在返回false
+     */
+    boolean delete(String fileName) throws IOException;
+
+    /**
+     * 依次删除多个对象（FTP节点复用同一个会话）
+     *
+     * @param fileNames 文件名
+     * @param results 每个对象的删除结果（对象不存在为false），中途抛出异常时已完成的结果仍然有效
+     */
+    default void deleteAll(List<String> fileNames, boolean[] results) throws IOException {
+        for (int i = 0; i < fileNames.size(); i++) {
+            results[i] = delete(fileNames.get(i));
+        }
+    }
+
+    /**
+     * 查询对象大小
+     *
+     * @param fileName 文件名
+     * @return 对象大小，不存在返回-1
+     */
+    long stat(String fileName) throws IOException;
+
+    /**
+     * 列出节点上的所有对象（遍历全部分区目录，仅用于运维）
+     *
+     * @return 文件名
+     */
+    List<String> list() throws IOException;
+
+    /**
+     * 将升级前平铺存放的对象移动到当前布局的位置
+     *
+     * @param fileName 文件名
+     * @return 平铺位置已没有此对象（已移动、原本已在新位置或不存在）返回true
+     */
+    boolean relocateLegacyObject(String fileName) throws IOException;
+
+    /**
+     * 获取节点统计信息
+     */
+    Map<String, Object> getMetrics();
+
+    /**
+     * 释放节点占用的资源
+     */
+    void close();
+}
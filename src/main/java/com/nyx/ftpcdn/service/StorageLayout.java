@@ -0,0 +1,89 @@
+package com.nyx.ftpcdn.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 存储目录布局
+ *
+ * 对象按文件名MD5前缀存放在多级子目录中（如 3f/a2/xxx.jpg），避免单个目录下文件过多。
+ * 升级前的对象平铺在根目录中，迁移完成前读取和删除会回退到平铺位置。
+ *
+ * @author nyx
+ */
+@Component
+public class StorageLayout {
+
+    /** 子目录层级数，每级取文件名MD5的两个十六进制字符，0表示平铺 */
+    @Value("${ftp.layout.partition-levels:2}")
+    private int partitionLevels;
+
+    /** 新位置找不到对象时是否回退到平铺位置（迁移完成后自动关闭） */
+    @Value("${ftp.layout.legacy-fallback:true}")
+    private volatile boolean legacyFallback;
+
+    /**
+     * 获取对象相对于存储根目录的路径
+     *
+     * @param fileName 文件名
+     * @return 相对路径，例如 3f/a2/xxx.jpg
+     */
+    public String objectKey(String fileName) {
+        if (partitionLevels <= 0) {
+            return fileName;
+        }
+        String digest = md5Hex(fileName);
+        StringBuilder key = new StringBuilder();
+        for (int level = 0; level < Math.min(partitionLevels, digest.length() / 2); level++) {
+            key.append(digest, level * 2, level * 2 + 2).append('/');
+        }
+        return key.append(fileName).toString();
+    }
+
+    /**
+     * 当前布局是否与平铺不同（不同时才需要迁移和回退）
+     */
+    public boolean isPartitioned() {
+        return partitionLevels > 0;
+    }
+
+    public boolean isLegacyFallback() {
+        return legacyFallback && isPartitioned();
+    }
+
+    public void setLegacyFallback(boolean legacyFallback) {
+        this.legacyFallback = legacyFallback;
+    }
+
+    /**
+     * 拼接根目录与相对路径
+     */
+    public static String join(String basePath, String key) {
+        return basePath.endsWith("/") ? basePath + key : basePath + "/" + key;
+    }
+
+    /**
+     * 获取上级目录，没有上级目录时返回空字符串
+     */
+    public static String parentOf(String path) {
+        int index = path.lastIndexOf('/');
+        return index > 0 ? path.substring(0, index) : "";
+    }
+
+    private static String md5Hex(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前JVM不支持MD5", e);
+        }
+    }
+}
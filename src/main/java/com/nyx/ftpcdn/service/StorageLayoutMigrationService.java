@@ -0,0 +1,161 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.mapper.FileInfoMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 存储目录布局迁移服务
+ *
+ * 升级前文件平铺在FTP基础目录中，启动后按ID分批扫描文件记录，
+ * 将ftpPath与当前布局不一致的文件在各副本节点上移动到哈希分区目录（FTP节点使用RNFR/RNTO），
+ * 全部副本移动成功后更新引用该文件的所有记录的ftpPath。
+ * 一轮扫描没有失败时关闭原位置回退。
+ *
+ * @author nyx
+ */
+@Service
+public class StorageLayoutMigrationService {
+
+    @Value("${ftp.layout.migration.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ftp.layout.migration.batch-size:200}")
+    private int batchSize;
+
+    @Autowired
+    private FtpService ftpService;
+
+    @Autowired
+    private StorageLayout storageLayout;
+
+    @Autowired
+    private FileInfoMapper fileInfoMapper;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "storage-layout-migration");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // 统计
+    private final AtomicLong scannedCount = new AtomicLong();
+    private final AtomicLong migratedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile long lastStartedAt = 0;
+    private volatile long lastFinishedAt = 0;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (enabled) {
+            trigger();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 未迁移的文件下次启动时继续
+        executor.shutdownNow();
+    }
+
+    /**
+     * 在后台开始一轮迁移
+     *
+     * @return 已有迁移在运行时返回false
+     */
+    public boolean trigger() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        executor.execute(() -> {
+            try {
+                migrate();
+            } catch (RuntimeException e) {
+                System.err.println("存储目录迁移异常终止：" + e.getMessage());
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 获取迁移统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("running", running.get());
+        metrics.put("legacyFallback", storageLayout.isLegacyFallback());
+        metrics.put("scanned", scannedCount.get());
+        metrics.put("migrated", migratedCount.get());
+        metrics.put("failed", failedCount.get());
+        metrics.put("lastStartedAt", lastStartedAt);
+        metrics.put("lastFinishedAt", lastFinishedAt);
+        return metrics;
+    }
+
+    private void migrate() {
+        lastStartedAt = System.currentTimeMillis();
+        long migrated = migratedCount.get();
+        int failures = 0;
+        long afterId = 0;
+        List<FileInfo> batch;
+        do {
+            batch = fileInfoMapper.selectReadyAfterId(afterId, batchSize);
+            for (FileInfo fileInfo : batch) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                afterId = fileInfo.getId();
+                scannedCount.incrementAndGet();
+                String objectPath = ftpService.getObjectPath(fileInfo.getGeneratedFileName());
+                if (objectPath.equals(fileInfo.getFtpPath())) {
+                    continue;
+                }
+                if (!relocate(fileInfo, objectPath)) {
+                    failures++;
+                }
+            }
+        } while (batch.size() == batchSize);
+
+        lastFinishedAt = System.currentTimeMillis();
+        if (failures == 0 && storageLayout.isLegacyFallback()) {
+            storageLayout.setLegacyFallback(false);
+            System.out.println("存储目录迁移已完成，关闭原位置回退");
+        }
+        System.out.println("存储目录迁移结束，移动文件数：" + (migratedCount.get() - migrated) + "，失败数：" + failures);
+    }
+
+    /**
+     * 在所有副本节点上移动文件，全部成功后更新记录
+     */
+    private boolean relocate(FileInfo fileInfo, String objectPath) {
+        String objectName = fileInfo.getGeneratedFileName();
+        for (String node : ftpService.resolveReplicas(fileInfo.getStorageNode(), fileInfo.getReplicaNodes())) {
+            if (!ftpService.relocateLegacyObject(node, objectName)) {
+                failedCount.incrementAndGet();
+                return false;
+            }
+        }
+        fileInfoMapper.updateFtpPath(objectName, objectPath);
+        migratedCount.incrementAndGet();
+        return true;
+    }
+}
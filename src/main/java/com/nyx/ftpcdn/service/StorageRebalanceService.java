@@ -0,0 +1,425 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.mapper.FileInfoMapper;
+import com.nyx.ftpcdn.mapper.FileObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 存储节点重平衡与副本修复服务
+ *
+ * 以一致性哈希环计算每个文件应有的副本节点，与文件记录中已确认的副本节点比较：
+ * 缺少的副本从已有副本复制补齐（写入仲裁返回后才完成的副本只需登记），
+ * 应有副本全部就位后，不再属于该文件的节点上的副本延迟删除。
+ * 节点配置变化（例如新增节点）后的迁移与副本滞后的修复使用同一流程，
+ * 复制带宽受 ftp.rebalance.max-bytes-per-second 限制。
+ *
+ * @author nyx
+ */
+@Service
+public class StorageRebalanceService {
+
+    @Value("${ftp.rebalance.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ftp.rebalance.max-bytes-per-second:10485760}")
+    private long maxBytesPerSecond;
+
+    @Value("${ftp.rebalance.batch-size:200}")
+    private int batchSize;
+
+    @Value("${ftp.rebalance.delete-delay-ms:60000}")
+    private long deleteDelayMs;
+
+    @Value("${ftp.rebalance.temp-dir:./data/rebalance}")
+    private String tempDir;
+
+    /** 写入未达到全部副本的文件，延迟多久后修复（等待仲裁返回后仍在写入的副本完成） */
+    @Value("${ftp.replication.repair-delay-ms:30000}")
+    private long repairDelayMs;
+
+    @Autowired
+    private FtpService ftpService;
+
+    @Autowired
+    private FileInfoMapper fileInfoMapper;
+
+    @Autowired
+    private FileObjectMapper fileObjectMapper;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    /** 一个线程用于全量扫描，另一个用于单个文件的修复和延迟删除 */
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2, r -> {
+        Thread thread = new Thread(r, "storage-rebalance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /** 下一个可以传输数据的时间点（纳秒），用于限速 */
+    private long nextTransferNanos = 0;
+
+    /** 等待修复的文件 */
+    private final Set<Long> pendingRepairs = ConcurrentHashMap.newKeySet();
+
+    // 统计
+    private final AtomicLong scannedCount = new AtomicLong();
+    private final AtomicLong copiedCount = new AtomicLong();
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private final AtomicLong adoptedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicInteger underReplicatedCount = new AtomicInteger();
+    private final Map<String, AtomicLong> missingByNode = new ConcurrentHashMap<>();
+    private volatile long lastStartedAt = 0;
+    private volatile long lastFinishedAt = 0;
+
+    /**
+     * 启动完成后自动检查一次（新增节点需要重启生效）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (enabled) {
+            trigger();
+        }
+    }
+
+    /**
+     * 定期全量检查，补齐修复失败的副本
+     */
+    @Scheduled(fixedDelayString = "${ftp.rebalance.interval-ms:3600000}",
+            initialDelayString = "${ftp.rebalance.interval-ms:3600000}")
+    public void scheduledRebalance() {
+        if (enabled) {
+            trigger();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 未完成的修复会在下次扫描时重新检查；尚未执行的延迟删除会在原节点上留下多余副本
+        executor.shutdownNow();
+    }
+
+    /**
+     * 在后台开始一轮全量扫描
+     *
+     * @return 已有扫描在运行时返回false
+     */
+    public boolean trigger() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        executor.execute(() -> {
+            try {
+                rebalance();
+            } catch (RuntimeException e) {
+                System.err.println("存储节点重平衡异常终止：" + e.getMessage());
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 安排修复单个文件缺少的副本
+     *
+     * @param fileId 文件ID
+     */
+    public void scheduleRepair(Long fileId) {
+        if (!pendingRepairs.add(fileId)) {
+            return;
+        }
+        executor.schedule(() -> {
+            pendingRepairs.remove(fileId);
+            try {
+                FileInfo fileInfo = fileInfoMapper.selectById(fileId);
+                if (fileInfo != null && FileInfo.STATUS_READY.equals(fileInfo.getStatus())) {
+                    if (ftpService.isReplicaWriteInFlight(fileInfo.getGeneratedFileName())) {
+                        // 仲裁返回后的副本仍在写入，结束后再登记，避免重复复制
+                        scheduleRepair(fileId);
+                        return;
+                    }
+                    reconcile(fileInfo);
+                }
+            } catch (RuntimeException e) {
+                failedCount.incrementAndGet();
+                System.err.println("修复副本失败：" + fileId + "，" + e.getMessage());
+            }
+        }, repairDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 获取重平衡与副本修复统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("nodes", ftpService.getNodeNames());
+        metrics.put("running", running.get());
+        metrics.put("pendingRepairs", pendingRepairs.size());
+        metrics.put("scanned", scannedCount.get());
+        metrics.put("copiedReplicas", copiedCount.get());
+        metrics.put("copiedBytes", copiedBytes.get());
+        metrics.put("adoptedReplicas", adoptedCount.get());
+        metrics.put("droppedReplicas", droppedCount.get());
+        metrics.put("failed", failedCount.get());
+        metrics.put("underReplicated", underReplicatedCount.get());
+        Map<String, Long> lag = new LinkedHashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : missingByNode.entrySet()) {
+            lag.put(entry.getKey(), entry.getValue().get());
+        }
+        metrics.put("missingReplicasByNode", lag);
+        metrics.put("maxBytesPerSecond", maxBytesPerSecond);
+        metrics.put("lastStartedAt", lastStartedAt);
+        metrics.put("lastFinishedAt", lastFinishedAt);
+        return metrics;
+    }
+
+    private void rebalance() {
+        lastStartedAt = System.currentTimeMillis();
+        long copied = copiedCount.get();
+        long dropped = droppedCount.get();
+        missingByNode.clear();
+        System.out.println("开始存储节点重平衡，节点：" + ftpService.getNodeNames()
+                + "，副本数：" + ftpService.getReplicationFactor());
+
+        int underReplicated = 0;
+        long afterId = 0;
+        List<FileInfo> batch;
+        do {
+            batch = fileInfoMapper.selectReadyAfterId(afterId, batchSize);
+            for (FileInfo fileInfo : batch) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                afterId = fileInfo.getId();
+                scannedCount.incrementAndGet();
+                // 重新读取，引用同一对象的记录可能已随前面的记录一起更新
+                FileInfo current = fileInfoMapper.selectById(fileInfo.getId());
+                if (current != null && FileInfo.STATUS_READY.equals(current.getStatus())) {
+                    if (!reconcile(current)) {
+                        underReplicated++;
+                    }
+                }
+            }
+        } while (batch.size() == batchSize);
+
+        underReplicatedCount.set(underReplicated);
+        lastFinishedAt = System.currentTimeMillis();
+        System.out.println("存储节点重平衡完成，复制副本数：" + (copiedCount.get() - copied)
+                + "，删除副本数：" + (droppedCount.get() - dropped) + "，副本不足的文件数：" + underReplicated);
+    }
+
+    /**
+     * 使文件的副本与一致性哈希环上应有的节点一致
+     *
+     * @return 应有副本已全部就位返回true
+     */
+    private boolean reconcile(FileInfo fileInfo) {
+        String objectName = fileInfo.getGeneratedFileName();
+        List<String> recorded = ftpService.resolveReplicas(fileInfo.getStorageNode(), fileInfo.getReplicaNodes());
+        List<String> expected = ftpService.selectNodes(objectName);
+        List<String> missing = new ArrayList<>(expected);
+        missing.removeAll(recorded);
+        List<String> extras = new ArrayList<>(recorded);
+        extras.removeAll(expected);
+        if (missing.isEmpty() && extras.isEmpty()) {
+            return true;
+        }
+        if (ftpService.isReplicaWriteInFlight(objectName)) {
+            return false;
+        }
+
+        List<String> sources = new ArrayList<>();
+        for (String node : recorded) {
+            if (ftpService.hasNode(node)) {
+                sources.add(node);
+            }
+        }
+        if (sources.isEmpty()) {
+            System.err.println("文件的副本节点均已不在配置中，无法修复：" + fileInfo);
+            failedCount.incrementAndGet();
+            return false;
+        }
+
+        // 补齐缺少的副本
+        List<String> present = new ArrayList<>();
+        List<String> written = new ArrayList<>();
+        Path tempFile = null;
+        try {
+            for (String node : missing) {
+                missingByNode.computeIfAbsent(node, key -> new AtomicLong()).incrementAndGet();
+                if (ftpService.getFileSize(node, objectName) == CompressionService.getStoredSize(fileInfo)) {
+                    // 写入仲裁返回后才完成的副本，只需登记
+                    present.add(node);
+                    adoptedCount.incrementAndGet();
+                    continue;
+                }
+                if (tempFile == null) {
+                    tempFile = fetch(sources, objectName);
+                }
+                if (ftpService.uploadFile(node, new FileSystemResource(tempFile), objectName)) {
+                    present.add(node);
+                    written.add(node);
+                    copiedCount.incrementAndGet();
+                    copiedBytes.addAndGet(Files.size(tempFile));
+                    System.out.println("副本已复制：" + objectName + " -> " + node);
+                } else {
+                    failedCount.incrementAndGet();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            failedCount.incrementAndGet();
+            System.err.println("复制副本失败：" + objectName + "，" + e.getMessage());
+        } finally {
+            deleteQuietly(tempFile);
+        }
+
+        // 应有副本全部就位后才移除多余副本，否则保留以免副本数下降
+        List<String> target = new ArrayList<>();
+        for (String node : expected) {
+            if (recorded.contains(node) || present.contains(node)) {
+                target.add(node);
+            }
+        }
+        boolean complete = target.size() == expected.size();
+        if (!complete) {
+            target.addAll(extras);
+        }
+        if (target.equals(recorded)) {
+            return complete;
+        }
+
+        // 仅当记录未被并发修改时才切换（期间被删除或已更新时放弃）
+        String toNode = target.get(0);
+        String toReplicas = FtpService.joinNodes(target);
+        Integer updated = transactionTemplate.execute(status -> {
+            fileObjectMapper.updateReplicas(objectName, fileInfo.getStorageNode(), fileInfo.getReplicaNodes(),
+                    toNode, toReplicas);
+            return fileInfoMapper.updateReplicas(objectName, fileInfo.getStorageNode(), fileInfo.getReplicaNodes(),
+                    toNode, toReplicas);
+        });
+        if (updated == null || updated == 0) {
+            for (String node : written) {
+                ftpService.deleteFile(node, objectName);
+            }
+            return complete;
+        }
+
+        if (complete) {
+            // 延迟删除多余副本，让切换前已开始的读取能够完成
+            for (String node : extras) {
+                executor.schedule(() -> ftpService.deleteFile(node, objectName), deleteDelayMs, TimeUnit.MILLISECONDS);
+                droppedCount.incrementAndGet();
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * 从已有副本下载到本地临时文件（限速，读取失败时切换副本）
+     */
+    private Path fetch(List<String> sources, String objectName) throws IOException {
+        Files.createDirectories(Paths.get(tempDir));
+        Path tempFile = Files.createTempFile(Paths.get(tempDir), "rebalance-", ".tmp");
+        try (OutputStream outputStream = new ThrottledOutputStream(Files.newOutputStream(tempFile))) {
+            if (!ftpService.downloadFile(sources, objectName, 0, -1, outputStream)) {
+                throw new IOException("从副本" + sources + "读取失败");
+            }
+        } catch (IOException e) {
+            deleteQuietly(tempFile);
+            throw e;
+        }
+        return tempFile;
+    }
+
+    /**
+     * 按配置的带宽上限等待，直到可以传输指定字节数
+     */
+    private void throttle(long bytes) throws InterruptedIOException {
+        if (maxBytesPerSecond <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextTransferNanos = Math.max(nextTransferNanos, now) + bytes * 1_000_000_000L / maxBytesPerSecond;
+            waitNanos = nextTransferNanos - now;
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("重平衡被中断");
+            }
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("删除重平衡临时文件失败：" + path);
+        }
+    }
+
+    /**
+     * 写入前按带宽上限限速的输出流
+     */
+    private class ThrottledOutputStream extends FilterOutputStream {
+
+        ThrottledOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            throttle(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            throttle(len);
+            out.write(b, off, len);
+        }
+    }
+}
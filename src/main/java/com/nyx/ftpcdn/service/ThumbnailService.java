@@ -0,0 +1,579 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.mapper.ThumbnailVariantMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片缩略图服务
+ *
+ * 按请求的宽高（向上取整到配置的尺寸档位，等比缩放到框内，不放大）生成缩略图，使用JDK自带的ImageIO，
+ * 在固定大小的线程池中处理。同一个变体同时只生成一次，生成后写回存储节点，
+ * 之后依次从堆外内存缓存、本地磁盘缓存、存储节点读取。
+ * 变体以内容哈希命名，内容不变则变体不变，可以长期缓存。
+ * 写回存储节点前在 thumbnail_variant 表登记变体名和写入的节点，之后从登记的节点读取，
+ * 节点增减后哈希环的选择变化也不会丢失已写回的变体；删除原图时按登记的节点删除登记过的变体。
+ *
+ * @author nyx
+ */
+@Service
+public class ThumbnailService {
+
+    /** 支持生成缩略图的扩展名（JDK自带解码器） */
+    private static final List<String> IMAGE_EXTENSIONS = Arrays.asList(".jpg", ".jpeg", ".png", ".gif", ".bmp");
+
+    /** 保留透明通道、输出PNG的扩展名，其余输出JPEG */
+    private static final List<String> ALPHA_EXTENSIONS = Arrays.asList(".png", ".gif");
+
+    @Value("${thumbnail.enabled:true}")
+    private boolean enabled;
+
+    /** 宽高档位，请求的宽高向上取整到档位，限制变体数量 */
+    @Value("${thumbnail.sizes:64,128,256,512,1024}")
+    private int[] sizes;
+
+    @Value("${thumbnail.workers:2}")
+    private int workers;
+
+    @Value("${thumbnail.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${thumbnail.timeout-ms:30000}")
+    private long timeoutMs;
+
+    /** 原图超过该大小不生成缩略图 */
+    @Value("${thumbnail.max-source-bytes:33554432}")
+    private long maxSourceBytes;
+
+    /** 原图像素数超过该值不生成缩略图（防止解码占用过多内存） */
+    @Value("${thumbnail.max-source-pixels:50000000}")
+    private long maxSourcePixels;
+
+    @Value("${thumbnail.jpeg-quality:0.85}")
+    private float jpegQuality;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private FtpService ftpService;
+
+    @Autowired
+    private DiskCacheService diskCacheService;
+
+    @Autowired
+    private MemoryCacheService memoryCacheService;
+
+    @Autowired
+    private ThumbnailVariantMapper thumbnailVariantMapper;
+
+    private ThreadPoolExecutor executor;
+
+    /** 变体名 -> 正在进行的生成任务 */
+    private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    // 统计
+    private final AtomicLong cacheHitCount = new AtomicLong();
+    private final AtomicLong storageHitCount = new AtomicLong();
+    private final AtomicLong generatedCount = new AtomicLong();
+    private final AtomicLong joinedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong generateTimeMs = new AtomicLong();
+    private final AtomicLong sourceBytes = new AtomicLong();
+    private final AtomicLong variantBytes = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        Arrays.sort(sizes);
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread thread = new Thread(r, "thumbnail-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 文件是否支持生成缩略图
+     *
+     * @param fileInfo 文件信息
+     * @return 是否支持
+     */
+    public boolean isSupported(FileInfo fileInfo) {
+        return enabled && fileInfo.getFileExtension() != null
+                && IMAGE_EXTENSIONS.contains(fileInfo.getFileExtension().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 请求的宽或高向上取整到尺寸档位（超过最大档位时取最大档位），0表示不限制
+     *
+     * @param requested 请求的宽或高
+     * @return 档位
+     */
+    public int snapSize(Integer requested) {
+        if (requested == null || requested <= 0) {
+            return 0;
+        }
+        for (int size : sizes) {
+            if (size >= requested) {
+                return size;
+            }
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    /**
+     * 缩略图的存储名称：内容哈希（历史数据为生成的文件名）+ 宽高档位
+     *
+     * @param fileInfo 文件信息
+     * @param width 宽度档位
+     * @param height 高度档位
+     * @return 存储名称
+     */
+    public String getVariantName(FileInfo fileInfo, int width, int height) {
+        return "thumb_" + getSourceKey(fileInfo) + "_" + width + "x" + height + (hasAlpha(fileInfo) ? ".png" : ".jpg");
+    }
+
+    /**
+     * 缩略图的内容类型
+     *
+     * @param fileInfo 文件信息
+     * @return image/png 或 image/jpeg
+     */
+    public String getContentType(FileInfo fileInfo) {
+        return hasAlpha(fileInfo) ? "image/png" : "image/jpeg";
+    }
+
+    /**
+     * 文件已写回存储节点的缩略图及其所在节点（删除文件时清理）
+     *
+     * @param fileInfo 文件信息
+     * @return 存储名称到节点的映射
+     */
+    public Map<String, List<String>> getStoredVariants(FileInfo fileInfo) {
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        if (!isSupported(fileInfo)) {
+            return variants;
+        }
+        for (Map<String, Object> row : thumbnailVariantMapper.selectBySource(getSourceKey(fileInfo))) {
+            String name = (String) row.get("variantName");
+            variants.put(name, resolveNodes(name, (String) row.get("storageNodes")));
+        }
+        return variants;
+    }
+
+    /**
+     * 删除文件的缩略图登记（变体已从存储节点删除后调用）
+     *
+     * @param fileInfo 文件信息
+     */
+    public void forgetVariants(FileInfo fileInfo) {
+        if (isSupported(fileInfo)) {
+            thumbnailVariantMapper.deleteBySource(getSourceKey(fileInfo));
+        }
+    }
+
+    /**
+     * 输出缩略图：命中缓存时直接输出，否则从存储节点读取或生成（同一变体只生成一次）
+     *
+     * @param fileInfo 文件信息（状态为READY的图片）
+     * @param width 宽度档位，0表示不限制
+     * @param height 高度档位，0表示不限制
+     * @param outputStream 目标输出流
+     * @throws ThumbnailException 线程池已满、超时或图片无法解码
+     */
+    public void writeThumbnail(FileInfo fileInfo, int width, int height, OutputStream outputStream)
+            throws IOException {
+        String name = getVariantName(fileInfo, width, height);
+        if (memoryCacheService.transferTo(name, 0, -1, outputStream)
+                || diskCacheService.transferTo(name, 0, -1, outputStream)) {
+            cacheHitCount.incrementAndGet();
+            return;
+        }
+
+        CompletableFuture<byte[]> future = inFlight.get(name);
+        if (future != null) {
+            joinedCount.incrementAndGet();
+        } else {
+            CompletableFuture<byte[]> created = new CompletableFuture<>();
+            future = inFlight.putIfAbsent(name, created);
+            if (future != null) {
+                joinedCount.incrementAndGet();
+            } else {
+                future = created;
+                try {
+                    executor.execute(() -> {
+                        try {
+                            created.complete(load(fileInfo, width, height, name));
+                        } catch (Throwable e) {
+                            created.completeExceptionally(e);
+                        } finally {
+                            inFlight.remove(name, created);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    inFlight.remove(name, created);
+                    rejectedCount.incrementAndGet();
+                    throw new ThumbnailException("缩略图生成队列已满，请稍后重试", true);
+                }
+            }
+        }
+
+        byte[] thumbnail;
+        try {
+            thumbnail = future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new ThumbnailException("缩略图生成超时，请稍后重试", true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ThumbnailException("缩略图生成被中断", true);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ThumbnailException) {
+                throw (ThumbnailException) e.getCause();
+            }
+            throw new ThumbnailException("缩略图生成失败：" + e.getCause().getMessage(), true);
+        }
+        outputStream.write(thumbnail);
+    }
+
+    /**
+     * 获取缩略图统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getMetrics() {
+        long generated = generatedCount.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("sizes", sizes);
+        metrics.put("workers", workers);
+        metrics.put("activeWorkers", executor.getActiveCount());
+        metrics.put("queued", executor.getQueue().size());
+        metrics.put("inFlight", inFlight.size());
+        metrics.put("cacheHits", cacheHitCount.get());
+        metrics.put("storageHits", storageHitCount.get());
+        metrics.put("generated", generated);
+        metrics.put("joined", joinedCount.get());
+        metrics.put("rejected", rejectedCount.get());
+        metrics.put("failed", failedCount.get());
+        metrics.put("avgGenerateMs", generated == 0 ? 0 : generateTimeMs.get() / generated);
+        metrics.put("sourceBytes", sourceBytes.get());
+        metrics.put("thumbnailBytes", variantBytes.get());
+        return metrics;
+    }
+
+    /**
+     * 在工作线程中执行：先从存储节点读取已生成的变体，不存在时生成并写回
+     */
+    private byte[] load(FileInfo fileInfo, int width, int height, String name) throws IOException {
+        List<String> registered = getRegisteredNodes(name);
+        byte[] thumbnail = readStored(name, registered != null ? registered : ftpService.selectNodes(name));
+        if (thumbnail != null) {
+            storageHitCount.incrementAndGet();
+            if (registered == null) {
+                // 登记表建立之前写回的变体在读取时补登记
+                register(fileInfo, name, ftpService.selectNodes(name));
+            }
+        } else {
+            long start = System.currentTimeMillis();
+            thumbnail = generate(fileInfo, width, height);
+            generateTimeMs.addAndGet(System.currentTimeMillis() - start);
+            generatedCount.incrementAndGet();
+            variantBytes.addAndGet(thumbnail.length);
+
+            writeBack(fileInfo, name, thumbnail, registered);
+        }
+        cache(name, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * 先登记再写回存储节点，登记失败时不写回，删除原图时不会遗漏存储节点上的变体。
+     * 已登记的变体在原节点上读取失败而重新生成时，登记的节点合并新写入的节点。
+     * 写回失败只影响之后的读取，本次仍返回生成的缩略图
+     */
+    private void writeBack(FileInfo fileInfo, String name, byte[] thumbnail, List<String> registered) {
+        List<String> nodes = ftpService.selectNodes(name);
+        Set<String> registeredNodes = new LinkedHashSet<>(nodes);
+        if (registered != null) {
+            registeredNodes.addAll(registered);
+        }
+        if (!register(fileInfo, name, new ArrayList<>(registeredNodes))) {
+            System.err.println("缩略图未登记，不写回存储节点：" + name);
+            return;
+        }
+        List<String> written = ftpService.uploadReplicas(nodes, new ByteArrayResource(thumbnail), name, 0,
+                nodes.size());
+        if (written.isEmpty()) {
+            System.err.println("缩略图写回存储节点失败：" + name);
+        }
+    }
+
+    private boolean register(FileInfo fileInfo, String name, List<String> nodes) {
+        try {
+            thumbnailVariantMapper.upsert(name, getSourceKey(fileInfo), FtpService.joinNodes(nodes));
+            return true;
+        } catch (RuntimeException e) {
+            System.err.println("登记缩略图失败：" + name + "，" + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 查询变体登记的节点
+     *
+     * @return 未登记或登记时未记录节点（升级前的登记）返回null
+     */
+    private List<String> getRegisteredNodes(String name) {
+        try {
+            Map<String, Object> row = thumbnailVariantMapper.selectByName(name);
+            if (row == null || row.get("storageNodes") == null) {
+                return null;
+            }
+            return FtpService.splitNodes((String) row.get("storageNodes"));
+        } catch (RuntimeException e) {
+            System.err.println("查询缩略图登记失败：" + name + "，" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 登记的节点，升级前的登记未记录节点时按变体名在哈希环上选择
+     */
+    private List<String> resolveNodes(String name, String storageNodes) {
+        List<String> nodes = FtpService.splitNodes(storageNodes);
+        return nodes.isEmpty() ? ftpService.selectNodes(name) : nodes;
+    }
+
+    /**
+     * 从存储节点读取已生成的变体（先查询大小，避免不存在的文件计入节点读取失败）
+     */
+    private byte[] readStored(String name, List<String> nodes) {
+        for (String node : nodes) {
+            if (!ftpService.hasNode(node)) {
+                continue;
+            }
+            long size = ftpService.getFileSize(node, name);
+            if (size <= 0) {
+                continue;
+            }
+            ByteArrayOutputStream content = new ByteArrayOutputStream((int) size);
+            if (ftpService.downloadFile(node, name, content) && content.size() == size) {
+                return content.toByteArray();
+            }
+        }
+        return null;
+    }
+
+    private void cache(String name, byte[] thumbnail) {
+        if (memoryCacheService.isCacheable((long) thumbnail.length)) {
+            memoryCacheService.put(name, thumbnail, thumbnail.length);
+        }
+        DiskCacheService.CacheFill cacheFill = diskCacheService.openFill(name, (long) thumbnail.length);
+        if (cacheFill != null) {
+            try {
+                cacheFill.getOutputStream().write(thumbnail);
+                cacheFill.commit();
+            } catch (IOException e) {
+                cacheFill.abort();
+            }
+        }
+    }
+
+    /**
+     * 读取原图并缩放到宽高框内。原图远大于目标尺寸时解码时按行列抽样，减少内存和解码时间。
+     */
+    private byte[] generate(FileInfo fileInfo, int width, int height) throws IOException {
+        if (fileInfo.getFileSize() > maxSourceBytes) {
+            failedCount.incrementAndGet();
+            throw new ThumbnailException("原图过大，不生成缩略图", false);
+        }
+        ByteArrayOutputStream source = new ByteArrayOutputStream(fileInfo.getFileSize().intValue());
+        if (!fileService.downloadDecodedContent(fileInfo, source)) {
+            failedCount.incrementAndGet();
+            throw new ThumbnailException("读取原图失败", true);
+        }
+        sourceBytes.addAndGet(source.size());
+
+        BufferedImage image;
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(source.toByteArray()))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                failedCount.incrementAndGet();
+                throw new ThumbnailException("无法识别的图片格式", false);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int sourceWidth = reader.getWidth(0);
+                int sourceHeight = reader.getHeight(0);
+                if ((long) sourceWidth * sourceHeight > maxSourcePixels) {
+                    failedCount.incrementAndGet();
+                    throw new ThumbnailException("原图像素过多，不生成缩略图", false);
+                }
+                int[] target = fitWithin(sourceWidth, sourceHeight, width, height);
+                int subsampling = Math.max(1, Math.min(sourceWidth / target[0], sourceHeight / target[1]) / 2);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (e instanceof ThumbnailException) {
+                throw e;
+            }
+            failedCount.incrementAndGet();
+            throw new ThumbnailException("图片解码失败：" + e.getMessage(), false);
+        }
+
+        int[] target = fitWithin(image.getWidth(), image.getHeight(), width, height);
+        boolean alpha = hasAlpha(fileInfo);
+        return encode(scale(image, target[0], target[1], alpha), alpha);
+    }
+
+    /**
+     * 等比缩放到宽高框内，不放大；宽或高为0表示该方向不限制
+     */
+    private static int[] fitWithin(int sourceWidth, int sourceHeight, int width, int height) {
+        double scale = 1.0;
+        if (width > 0) {
+            scale = Math.min(scale, (double) width / sourceWidth);
+        }
+        if (height > 0) {
+            scale = Math.min(scale, (double) height / sourceHeight);
+        }
+        return new int[]{Math.max(1, (int) Math.round(sourceWidth * scale)),
+                Math.max(1, (int) Math.round(sourceHeight * scale))};
+    }
+
+    /**
+     * 逐次减半的双线性缩放，缩小倍数较大时也不会出现明显锯齿
+     */
+    private static BufferedImage scale(BufferedImage image, int width, int height, boolean alpha) {
+        int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+            BufferedImage next = new BufferedImage(currentWidth, currentHeight, type);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                if (!alpha) {
+                    // JPEG不支持透明，透明区域填充白色
+                    graphics.setColor(Color.WHITE);
+                    graphics.fillRect(0, 0, currentWidth, currentHeight);
+                }
+                graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+        } while (currentWidth != width || currentHeight != height);
+        return current;
+    }
+
+    private byte[] encode(BufferedImage image, boolean alpha) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (alpha) {
+            ImageIO.write(image, "png", output);
+            return output.toByteArray();
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream imageOutput = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(imageOutput);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * 变体名中的原图标识：内容哈希（历史数据为生成的文件名）
+     */
+    private static String getSourceKey(FileInfo fileInfo) {
+        return fileInfo.getContentHash() != null ? fileInfo.getContentHash()
+                : fileInfo.getGeneratedFileName().replace('.', '_');
+    }
+
+    private static boolean hasAlpha(FileInfo fileInfo) {
+        return fileInfo.getFileExtension() != null
+                && ALPHA_EXTENSIONS.contains(fileInfo.getFileExtension().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 缩略图无法输出
+     */
+    public static class ThumbnailException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        /** 是否为暂时性错误（稍后重试可能成功） */
+        private final boolean retryable;
+
+        public ThumbnailException(String message, boolean retryable) {
+            super(message);
+            this.retryable = retryable;
+        }
+
+        public boolean isRetryable() {
+            return retryable;
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.entity.UploadSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * 分片上传服务
+ *
+ * 分片先暂存到本地目录，提交时按顺序写入FTP服务器，全部写入后才创建file_info记录。
+ *
+ * @author nyx
+ */
+@Service
+public class UploadSessionService {
+
+    private static final String SESSION_FILE = "session.properties";
+    private static final String CHUNK_PREFIX = "chunk-";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Value("${upload.chunk.staging-dir:./data/upload-sessions}")
+    private String stagingDir;
+
+    @Value("${upload.chunk.default-size:8388608}")
+    private int defaultChunkSize;
+
+    @Value("${upload.chunk.max-size:33554432}")
+    private int maxChunkSize;
+
+    @Value("${upload.chunk.session-ttl-hours:24}")
+    private long sessionTtlHours;
+
+    @Autowired
+    private FtpService ftpService;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private CdnPrefixService cdnPrefixService;
+
+    private Path stagingRoot;
+
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * 启动时从暂存目录恢复未完成的上传会话
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        stagingRoot = Paths.get(stagingDir).toAbsolutePath();
+        Files.createDirectories(stagingRoot);
+
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(stagingRoot, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                try {
+                    UploadSession session = loadSession(dir);
+                    sessions.put(session.getSessionId(), session);
+                } catch (Exception e) {
+                    System.err.println("恢复上传会话失败：" + dir + "，" + e.getMessage());
+                }
+            }
+        }
+        System.out.println("已恢复上传会话数量：" + sessions.size());
+    }
+
+    /**
+     * 创建上传会话
+     *
+     * @param originalFileName 原始文件名
+     * @param fileSize 文件总大小
+     * @param chunkSize 分片大小，为空时使用默认值
+     * @param description 文件描述
+     * @param cdnPrefix CDN前缀
+     * @return 上传会话
+     */
+    public UploadSession createSession(String originalFileName, long fileSize, Integer chunkSize,
+                                       String description, String cdnPrefix) {
+        if (fileSize <= 0) {
+            throw new RuntimeException("文件大小必须大于0");
+        }
+        int size = chunkSize != null ? chunkSize : defaultChunkSize;
+        if (size <= 0 || size > maxChunkSize) {
+            throw new RuntimeException("分片大小必须在1到" + maxChunkSize + "字节之间");
+        }
+        cdnPrefixService.resolvePrefixId(cdnPrefix);
+
+        String sessionId = UUID.randomUUID().toString().replace("-", "");
+        String generatedFileName = fileService.generateStorageFileName(originalFileName);
+        UploadSession session = new UploadSession(sessionId, originalFileName, generatedFileName,
+                fileSize, size, description, cdnPrefix);
+        session.setReplicaNodes(FtpService.joinNodes(ftpService.selectNodes(generatedFileName)));
+
+        try {
+            Files.createDirectories(sessionDir(sessionId));
+            saveSession(session);
+        } catch (IOException e) {
+            throw new RuntimeException("创建上传会话失败：" + e.getMessage());
+        }
+
+        sessions.put(sessionId, session);
+        System.out.println("创建上传会话：" + session);
+        return session;
+    }
+
+    /**
+     * 查询上传会话
+     *
+     * @param sessionId 会话ID
+     * @return 上传会话，不存在返回null
+     */
+    public UploadSession getSession(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    /**
+     * 接收一个分片。分片先写入临时文件，校验大小后原子重命名，
+     * 因此同一分片可以并发或重复上传。
+     *
+     * @param sessionId 会话ID
+     * @param index 分片序号（从0开始）
+     * @param inputStream 分片数据
+     * @return 上传会话
+     */
+    public UploadSession receiveChunk(String sessionId, int index, InputStream inputStream) {
+        UploadSession session = requireSession(sessionId);
+        if (index < 0 || index >= session.getTotalChunks()) {
+            throw new RuntimeException("分片序号超出范围：" + index);
+        }
+        if (index < session.getCommittedChunks()) {
+            // 已写入FTP服务器的分片无需再次接收
+            return session;
+        }
+
+        long expectedSize = session.getExpectedChunkSize(index);
+        Path chunkFile = chunkFile(sessionId, index);
+        Path tempFile = chunkFile.resolveSibling(chunkFile.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            long written = writeLimited(inputStream, tempFile, expectedSize);
+            if (written != expectedSize) {
+                throw new RuntimeException("分片大小不正确，期望" + expectedSize + "字节，实际" + written + "字节");
+            }
+            Files.move(tempFile, chunkFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("保存分片失败：" + e.getMessage());
+        } finally {
+            deleteQuietly(tempFile);
+        }
+
+        session.getReceivedChunks().add(index);
+        return session;
+    }
+
+    /**
+     * 提交上传会话：按顺序将分片写入FTP服务器，然后创建文件信息记录。
+     * 写入进度会持久化，提交失败后再次提交会从中断的分片继续。
+     *
+     * @param sessionId 会话ID
+     * @return 文件信息
+     */
+    public FileInfo commitSession(String sessionId) {
+        UploadSession session = requireSession(sessionId);
+        synchronized (session) {
+            if (!sessions.containsKey(sessionId)) {
+                throw new RuntimeException("上传会话已提交");
+            }
+            if (!session.isComplete()) {
+                throw new RuntimeException("分片未全部上传，缺少：" + session.getMissingChunkList());
+            }
+
+            // 先在本地计算内容哈希，相同内容已存在时无需写入FTP服务器
+            String contentHash = computeContentHash(session);
+            FileInfo fileInfo = fileService.instantUpload(contentHash, session.getOriginalFileName(),
+                    session.getFileSize(), session.getDescription(), session.getCdnPrefix());
+            if (fileInfo != null) {
+                if (session.getCommittedChunks() > 0) {
+                    // 清理之前提交中断时已写入的部分文件
+                    for (String node : FtpService.splitNodes(session.getReplicaNodes())) {
+                        ftpService.deleteFile(node, session.getGeneratedFileName());
+                    }
+                }
+            } else {
+                List<String> replicaNodes = FtpService.splitNodes(session.getReplicaNodes());
+                for (int index = session.getCommittedChunks(); index < session.getTotalChunks(); index++) {
+                    long offset = (long) session.getChunkSize() * index;
+                    FileSystemResource chunk = new FileSystemResource(chunkFile(sessionId, index));
+                    List<String> written = ftpService.uploadReplicas(replicaNodes, chunk,
+                            session.getGeneratedFileName(), offset, replicaNodes.size());
+                    if (written.size() < ftpService.getWriteQuorum()) {
+                        throw new RuntimeException("分片" + index + "写入FTP服务器失败，请重新提交");
+                    }
+                    // 写入失败的副本不再继续写入，由后台副本修复补齐
+                    replicaNodes = written;
+                    session.setReplicaNodes(FtpService.joinNodes(replicaNodes));
+                    session.setCommittedChunks(index + 1);
+                    persistQuietly(session);
+                }
+                
+                fileInfo = fileService.saveUploadedFile(session.getOriginalFileName(),
+                        session.getGeneratedFileName(), replicaNodes, session.getFileSize(),
+                        session.getDescription(), session.getCdnPrefix(), contentHash);
+            }
+
+            sessions.remove(sessionId);
+            deleteSessionDir(sessionId);
+            System.out.println("上传会话提交成功：" + session);
+            return fileInfo;
+        }
+    }
+
+    /**
+     * 取消上传会话并删除暂存分片
+     *
+     * @param sessionId 会话ID
+     * @return 是否取消成功
+     */
+    public boolean abortSession(String sessionId) {
+        UploadSession session = sessions.remove(sessionId);
+        if (session == null) {
+            return false;
+        }
+        synchronized (session) {
+            deleteSessionDir(sessionId);
+        }
+        return true;
+    }
+
+    /**
+     * 定期清理过期的上传会话
+     */
+    @Scheduled(fixedDelayString = "${upload.chunk.cleanup-interval-ms:3600000}")
+    public void cleanupExpiredSessions() {
+        LocalDateTime deadline = LocalDateTime.now().minusHours(sessionTtlHours);
+        for (UploadSession session : sessions.values()) {
+            if (session.getCreateTime().isBefore(deadline)) {
+                System.out.println("清理过期上传会话：" + session);
+                abortSession(session.getSessionId());
+            }
+        }
+    }
+
+    /**
+     * 按顺序读取暂存分片计算内容SHA-256
+     */
+    private String computeContentHash(UploadSession session) {
+        MessageDigest digest = FileObjectService.newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int index = 0; index < session.getTotalChunks(); index++) {
+            try (InputStream inputStream = Files.newInputStream(chunkFile(session.getSessionId(), index))) {
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("读取分片" + index + "失败：" + e.getMessage());
+            }
+        }
+        return FileObjectService.toHex(digest.digest());
+    }
+
+    private UploadSession requireSession(String sessionId) {
+        UploadSession session = sessions.get(sessionId);
+        if (session == null) {
+            throw new RuntimeException("上传会话不存在或已过期");
+        }
+        return session;
+    }
+
+    private Path sessionDir(String sessionId) {
+        return stagingRoot.resolve(sessionId);
+    }
+
+    private Path chunkFile(String sessionId, int index) {
+        return sessionDir(sessionId).resolve(CHUNK_PREFIX + index);
+    }
+
+    /**
+     * 写入输入流到文件，超过上限时立即终止
+     */
+    private long writeLimited(InputStream inputStream, Path target, long limit) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        try (OutputStream outputStream = Files.newOutputStream(target)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                total += read;
+                if (total > limit) {
+                    return total;
+                }
+                outputStream.write(buffer, 0, read);
+            }
+        }
+        return total;
+    }
+
+    private void saveSession(UploadSession session) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("sessionId", session.getSessionId());
+        properties.setProperty("originalFileName", session.getOriginalFileName());
+        properties.setProperty("generatedFileName", session.getGeneratedFileName());
+        properties.setProperty("replicaNodes", session.getReplicaNodes());
+        properties.setProperty("fileSize", String.valueOf(session.getFileSize()));
+        properties.setProperty("chunkSize", String.valueOf(session.getChunkSize()));
+        properties.setProperty("description", session.getDescription() != null ? session.getDescription() : "");
+        properties.setProperty("cdnPrefix", session.getCdnPrefix());
+        properties.setProperty("committedChunks", String.valueOf(session.getCommittedChunks()));
+        properties.setProperty("createTime", session.getCreateTime().toString());
+
+        Path sessionFile = sessionDir(session.getSessionId()).resolve(SESSION_FILE);
+        Path tempFile = sessionFile.resolveSibling(SESSION_FILE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+        Files.move(tempFile, sessionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void persistQuietly(UploadSession session) {
+        try {
+            saveSession(session);
+        } catch (IOException e) {
+            System.err.println("保存上传会话进度失败：" + e.getMessage());
+        }
+    }
+
+    private UploadSession loadSession(Path dir) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(dir.resolve(SESSION_FILE), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        UploadSession session = new UploadSession(
+                properties.getProperty("sessionId"),
+                properties.getProperty("originalFileName"),
+                properties.getProperty("generatedFileName"),
+                Long.parseLong(properties.getProperty("fileSize")),
+                Integer.parseInt(properties.getProperty("chunkSize")),
+                properties.getProperty("description"),
+                properties.getProperty("cdnPrefix"));
+        // 旧版本创建的会话只写入一个节点
+        session.setReplicaNodes(properties.getProperty("replicaNodes",
+                properties.getProperty("storageNode", ftpService.resolveNode(null))));
+        session.setCommittedChunks(Integer.parseInt(properties.getProperty("committedChunks", "0")));
+        session.setCreateTime(LocalDateTime.parse(properties.getProperty("createTime")));
+
+        // 已写入FTP服务器的分片视为已接收
+        for (int i = 0; i < session.getCommittedChunks(); i++) {
+            session.getReceivedChunks().add(i);
+        }
+        try (DirectoryStream<Path> chunks = Files.newDirectoryStream(dir, CHUNK_PREFIX + "*")) {
+            for (Path chunk : chunks) {
+                String name = chunk.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    deleteQuietly(chunk);
+                    continue;
+                }
+                int index = Integer.parseInt(name.substring(CHUNK_PREFIX.length()));
+                if (Files.size(chunk) == session.getExpectedChunkSize(index)) {
+                    session.getReceivedChunks().add(index);
+                }
+            }
+        }
+        return session;
+    }
+
+    private void deleteSessionDir(String sessionId) {
+        Path dir = sessionDir(sessionId);
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(this::deleteQuietly);
+        } catch (IOException e) {
+            System.err.println("删除上传会话目录失败：" + dir + "，" + e.getMessage());
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("删除文件失败：" + path + "，" + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.nyx.ftpcdn.controller;
+
+import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.service.FileService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * 下载接口的Range和If-Range处理测试：单区间、后缀区间、多区间、不可满足的区间和If-Range条件
+ *
+ * @author nyx
+ */
+class FileControllerRangeTest {
+
+    private static final String CONTENT = "0123456789";
+    private static final String ETAG = "\"abc123\"";
+    private static final LocalDateTime UPLOAD_TIME = LocalDateTime.of(2024, 1, 2, 3, 4, 5);
+
+    private FileService fileService;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        FileInfo fileInfo = new FileInfo();
+        fileInfo.setId(1L);
+        fileInfo.setOriginalFileName("a.txt");
+        fileInfo.setGeneratedFileName("g.txt");
+        fileInfo.setFileSize((long) CONTENT.length());
+        fileInfo.setContentHash("abc123");
+        fileInfo.setUploadTime(UPLOAD_TIME);
+        fileInfo.setStatus(FileInfo.STATUS_READY);
+
+        fileService = mock(FileService.class);
+        when(fileService.getFileById(1L)).thenReturn(fileInfo);
+        when(fileService.downloadFileContent(any(FileInfo.class), any(OutputStream.class))).thenAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(1).write(CONTENT.getBytes(StandardCharsets.ISO_8859_1));
+            return true;
+        });
+        when(fileService.downloadFileContent(any(FileInfo.class), anyLong(), anyLong(), any(OutputStream.class)))
+                .thenAnswer(invocation -> {
+                    int offset = (int) (long) invocation.<Long>getArgument(1);
+                    int length = (int) (long) invocation.<Long>getArgument(2);
+                    invocation.<OutputStream>getArgument(3)
+                            .write(CONTENT.substring(offset, offset + length).getBytes(StandardCharsets.ISO_8859_1));
+                    return true;
+                });
+
+        FileController controller = new FileController();
+        ReflectionTestUtils.setField(controller, "fileService", fileService);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void withoutRangeReturnsWholeFile() throws Exception {
+        MockHttpServletResponse response = download(null);
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo(ETAG);
+        assertThat(response.getContentAsString()).isEqualTo(CONTENT);
+        verify(fileService).incrementDownloadCount(1L);
+    }
+
+    @Test
+    void singleRangeReturnsPartialContent() throws Exception {
+        MockHttpServletResponse response = download("bytes=2-5");
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/10");
+        assertThat(response.getContentLengthLong()).isEqualTo(4);
+        assertThat(response.getContentAsString()).isEqualTo("2345");
+        // 不包含第一个字节的续传请求不计下载次数
+        verify(fileService, never()).incrementDownloadCount(1L);
+    }
+
+    @Test
+    void rangeFromFirstByteCountsDownload() throws Exception {
+        MockHttpServletResponse response = download("bytes=0-0");
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsString()).isEqualTo("0");
+        verify(fileService).incrementDownloadCount(1L);
+    }
+
+    @Test
+    void suffixAndOpenEndedRanges() throws Exception {
+        MockHttpServletResponse suffix = download("bytes=-3");
+        assertThat(suffix.getStatus()).isEqualTo(206);
+        assertThat(suffix.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 7-9/10");
+        assertThat(suffix.getContentAsString()).isEqualTo("789");
+
+        MockHttpServletResponse openEnded = download("bytes=6-");
+        assertThat(openEnded.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 6-9/10");
+        assertThat(openEnded.getContentAsString()).isEqualTo("6789");
+
+        // 结束位置超出文件大小时截断到文件末尾，后缀长度超过文件大小时返回整个文件
+        assertThat(download("bytes=8-100").getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 8-9/10");
+        assertThat(download("bytes=-50").getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 0-9/10");
+    }
+
+    @Test
+    void multipleRangesReturnMultipartByteranges() throws Exception {
+        MockHttpServletResponse response = download("bytes=0-1, 5-6");
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentType()).startsWith("multipart/byteranges; boundary=");
+        String boundary = response.getContentType().substring("multipart/byteranges; boundary=".length());
+        String body = response.getContentAsString();
+        assertThat(body).isEqualTo("\r\n--" + boundary + "\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Range: bytes 0-1/10\r\n\r\n"
+                + "01"
+                + "\r\n--" + boundary + "\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Range: bytes 5-6/10\r\n\r\n"
+                + "56"
+                + "\r\n--" + boundary + "--\r\n");
+        assertThat(response.getContentLengthLong()).isEqualTo(body.length());
+    }
+
+    @Test
+    void unsatisfiableRangesReturn416() throws Exception {
+        for (String range : new String[]{"bytes=10-20", "bytes=5-2", "bytes=abc", "items=0-1", "bytes=0-9,0-9"}) {
+            MockHttpServletResponse response = download(range);
+            assertThat(response.getStatus()).as(range).isEqualTo(416);
+            assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).as(range).isEqualTo("bytes */10");
+        }
+        verify(fileService, never()).incrementDownloadCount(1L);
+    }
+
+    @Test
+    void ifRangeWithMatchingStrongEtagOrDateHonorsRange() throws Exception {
+        assertThat(download("bytes=2-3", ETAG).getStatus()).isEqualTo(206);
+
+        String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME
+                .format(UPLOAD_TIME.atZone(ZoneId.systemDefault()).withZoneSameInstant(ZoneOffset.UTC));
+        assertThat(download("bytes=2-3", lastModified).getStatus()).isEqualTo(206);
+    }
+
+    @Test
+    void ifRangeMismatchReturnsWholeFile() throws Exception {
+        for (String ifRange : new String[]{"\"other\"", "W/" + ETAG, "Mon, 01 Jan 2024 00:00:00 GMT"}) {
+            MockHttpServletResponse response = download("bytes=2-3", ifRange);
+            assertThat(response.getStatus()).as(ifRange).isEqualTo(200);
+            assertThat(response.getContentAsString()).as(ifRange).isEqualTo(CONTENT);
+        }
+    }
+
+    private MockHttpServletResponse download(String range) throws Exception {
+        return download(range, null);
+    }
+
+    private MockHttpServletResponse download(String range, String ifRange) throws Exception {
+        MockHttpServletRequestBuilder request = get("/file/1/download");
+        if (range != null) {
+            request.header(HttpHeaders.RANGE, range);
+        }
+        if (ifRange != null) {
+            request.header(HttpHeaders.IF_RANGE, ifRange);
+        }
+        return mockMvc.perform(request).andReturn().getResponse();
+    }
+}
@@ -0,0 +1,202 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.CdnPrefix;
+import com.nyx.ftpcdn.entity.CdnPrefixStatus;
+import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.mapper.CdnPrefixMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * CDN前缀健康探测测试：本地HTTP服务模拟正常、较慢和故障的CDN边缘节点
+ *
+ * @author nyx
+ */
+class CdnPrefixHealthServiceTest {
+
+    private static final long DOWN_ID = 1L;
+    private static final long SLOW_ID = 2L;
+    private static final long FAST_ID = 3L;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private CdnPrefixService cdnPrefixService;
+    private CdnPrefixHealthService healthService;
+    private String baseUrl;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/down", exchange -> {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.createContext("/fast", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        // 探测并发进行，服务端也需并发处理，否则快的请求会排在慢的请求后面
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        // 预热HTTP客户端，避免第一次请求的初始化耗时计入延迟
+        HttpURLConnection warmUp = (HttpURLConnection) new URL(baseUrl + "/fast/ping").openConnection();
+        warmUp.getResponseCode();
+        warmUp.disconnect();
+
+        CdnPrefixMapper mapper = mock(CdnPrefixMapper.class);
+        when(mapper.selectAll()).thenReturn(Arrays.asList(
+                prefix(DOWN_ID, "down", true),
+                prefix(SLOW_ID, "slow", false),
+                prefix(FAST_ID, "fast", false)));
+        FtpService ftpService = mock(FtpService.class);
+        when(ftpService.getPublicKey(any(), anyString())).thenAnswer(invocation -> invocation.getArgument(1));
+
+        cdnPrefixService = new CdnPrefixService();
+        ReflectionTestUtils.setField(cdnPrefixService, "cdnPrefixMapper", mapper);
+        ReflectionTestUtils.setField(cdnPrefixService, "ftpService", ftpService);
+        cdnPrefixService.reload();
+
+        healthService = new CdnPrefixHealthService();
+        ReflectionTestUtils.setField(healthService, "cdnPrefixService", cdnPrefixService);
+        ReflectionTestUtils.setField(healthService, "probePath", "/ping");
+        ReflectionTestUtils.setField(healthService, "timeoutMs", 2000);
+        ReflectionTestUtils.setField(healthService, "alpha", 0.3);
+        ReflectionTestUtils.setField(healthService, "maxErrorRate", 0.5);
+        ReflectionTestUtils.setField(healthService, "switchRatio", 0.3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        healthService.shutdown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    void ewmaWeightsNewSampleByAlpha() {
+        assertThat(CdnPrefixHealthService.ewma(0, 1, 0.3)).isCloseTo(0.3, within(1e-9));
+        assertThat(CdnPrefixHealthService.ewma(0.3, 1, 0.3)).isCloseTo(0.51, within(1e-9));
+        assertThat(CdnPrefixHealthService.ewma(100, 50, 0.3)).isCloseTo(85, within(1e-9));
+    }
+
+    @Test
+    void singleFailureStaysHealthyAndRepeatedFailuresCrossThreshold() {
+        healthService.probeAll();
+        CdnPrefixStatus down = status(DOWN_ID);
+        assertThat(down.getErrorRate()).isCloseTo(0.3, within(1e-9));
+        assertThat(down.isHealthy()).isTrue();
+        assertThat(down.getLastStatus()).isEqualTo(503);
+
+        healthService.probeAll();
+        down = status(DOWN_ID);
+        assertThat(down.getErrorRate()).isCloseTo(0.51, within(1e-9));
+        assertThat(down.isHealthy()).isFalse();
+        assertThat(cdnPrefixService.isUnhealthy(DOWN_ID)).isTrue();
+
+        // 状态码小于500视为成功
+        assertThat(status(FAST_ID).isHealthy()).isTrue();
+        assertThat(status(FAST_ID).getErrorRate()).isZero();
+        List<CdnPrefixStatus> statuses = healthService.getActiveStatuses();
+        assertThat(statuses.get(statuses.size() - 1).getPrefix().getId()).isEqualTo(DOWN_ID);
+        assertThat(statuses.get(0).getPrefix().getId()).isEqualTo(FAST_ID);
+    }
+
+    @Test
+    void unhealthyAndSlowPrefixesFallBackToFastestHealthyPrefix() {
+        healthService.probeAll();
+        // 较慢的前缀改用快的前缀；故障前缀虽未达到不健康的阈值，但没有成功的探测，也改用有延迟数据的前缀
+        assertThat(url(SLOW_ID)).isEqualTo(baseUrl + "/fast/a.txt");
+        assertThat(url(DOWN_ID)).isEqualTo(baseUrl + "/fast/a.txt");
+        assertThat(url(FAST_ID)).isEqualTo(baseUrl + "/fast/a.txt");
+
+        healthService.probeAll();
+        assertThat(cdnPrefixService.isUnhealthy(DOWN_ID)).isTrue();
+        assertThat(url(DOWN_ID)).isEqualTo(baseUrl + "/fast/a.txt");
+    }
+
+    @Test
+    void selectRouteKeepsCurrentPrefixUnlessMuchFaster() {
+        Map<Long, Double> latencies = new HashMap<>();
+        latencies.put(1L, 100.0);
+        latencies.put(2L, 80.0);
+        // 快20%，不足30%，保持不变
+        assertThat(CdnPrefixHealthService.selectRoute(1L, 1L, latencies, 0.3)).isEqualTo(1L);
+
+        latencies.put(2L, 60.0);
+        assertThat(CdnPrefixHealthService.selectRoute(1L, 1L, latencies, 0.3)).isEqualTo(2L);
+
+        // 已切换后原前缀恢复到略快，也不切回
+        latencies.put(1L, 55.0);
+        assertThat(CdnPrefixHealthService.selectRoute(1L, 2L, latencies, 0.3)).isEqualTo(2L);
+    }
+
+    @Test
+    void selectRouteLeavesUnhealthyPrefixImmediately() {
+        Map<Long, Double> latencies = new HashMap<>();
+        latencies.put(2L, 300.0);
+        latencies.put(3L, 100.0);
+        assertThat(CdnPrefixHealthService.selectRoute(1L, 1L, latencies, 0.3)).isEqualTo(3L);
+        // 正在使用的替代前缀也不健康时重新选择
+        assertThat(CdnPrefixHealthService.selectRoute(2L, 4L, latencies, 0.3)).isEqualTo(3L);
+        // 没有健康前缀时使用原前缀
+        assertThat(CdnPrefixHealthService.selectRoute(1L, 3L, new HashMap<>(), 0.3)).isEqualTo(1L);
+    }
+
+    private CdnPrefix prefix(long id, String path, boolean isDefault) {
+        CdnPrefix prefix = new CdnPrefix(path, "http://127.0.0.1:" + server.getAddress().getPort() + "/" + path,
+                null, isDefault, true);
+        prefix.setId(id);
+        return prefix;
+    }
+
+    private CdnPrefixStatus status(long id) {
+        for (CdnPrefixStatus status : healthService.getActiveStatuses()) {
+            if (status.getPrefix().getId() == id) {
+                return status;
+            }
+        }
+        throw new AssertionError("没有前缀：" + id);
+    }
+
+    private String url(long prefixId) {
+        FileInfo fileInfo = new FileInfo();
+        fileInfo.setId(10L);
+        fileInfo.setCdnPrefixId(prefixId);
+        fileInfo.setGeneratedFileName("a.txt");
+        cdnPrefixService.resolveUrl(fileInfo);
+        return fileInfo.getFullUrl();
+    }
+}
@@ -0,0 +1,116 @@
+package com.nyx.ftpcdn.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 一致性哈希环测试：键的分布均匀程度，以及增减节点时只迁移约1/N的键
+ *
+ * @author nyx
+ */
+class ConsistentHashRingTest {
+
+    private static final int KEYS = 40_000;
+    private static final int VIRTUAL_NODES = 160;
+
+    @Test
+    void keysAreSpreadEvenlyAcrossNodes() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("ftp1", "ftp2", "ftp3", "ftp4"), VIRTUAL_NODES);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.locate(key(i)), 1, Integer::sum);
+        }
+        assertThat(counts).containsOnlyKeys("ftp1", "ftp2", "ftp3", "ftp4");
+        int mean = KEYS / 4;
+        assertThat(counts.values()).allSatisfy(count -> assertThat(count).isBetween(mean * 8 / 10, mean * 12 / 10));
+    }
+
+    @Test
+    void locateIsDeterministicAndIndependentOfNodeOrder() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("ftp1", "ftp2", "ftp3"), VIRTUAL_NODES);
+        ConsistentHashRing reordered = new ConsistentHashRing(Arrays.asList("ftp3", "ftp1", "ftp2"), VIRTUAL_NODES);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(reordered.locate(key(i))).isEqualTo(ring.locate(key(i)));
+            assertThat(reordered.locate(key(i), 2)).isEqualTo(ring.locate(key(i), 2));
+        }
+    }
+
+    @Test
+    void addingNodeOnlyMovesKeysToTheNewNode() {
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("ftp1", "ftp2", "ftp3", "ftp4"), VIRTUAL_NODES);
+        ConsistentHashRing after = new ConsistentHashRing(
+                Arrays.asList("ftp1", "ftp2", "ftp3", "ftp4", "ftp5"), VIRTUAL_NODES);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String oldNode = before.locate(key(i));
+            String newNode = after.locate(key(i));
+            if (!oldNode.equals(newNode)) {
+                assertThat(newNode).isEqualTo("ftp5");
+                moved++;
+            }
+        }
+        // 理想情况为1/5
+        assertThat(moved).isBetween(KEYS * 15 / 100, KEYS * 25 / 100);
+    }
+
+    @Test
+    void removingNodeOnlyMovesItsOwnKeys() {
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("ftp1", "ftp2", "ftp3", "ftp4"), VIRTUAL_NODES);
+        ConsistentHashRing after = new ConsistentHashRing(Arrays.asList("ftp1", "ftp2", "ftp4"), VIRTUAL_NODES);
+        for (int i = 0; i < KEYS; i++) {
+            String oldNode = before.locate(key(i));
+            if (!oldNode.equals("ftp3")) {
+                assertThat(after.locate(key(i))).isEqualTo(oldNode);
+            }
+        }
+    }
+
+    @Test
+    void replicasAreDistinctAndStartWithPrimary() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("ftp1", "ftp2", "ftp3", "ftp4"), VIRTUAL_NODES);
+        for (int i = 0; i < 1000; i++) {
+            List<String> replicas = ring.locate(key(i), 3);
+            assertThat(replicas).hasSize(3).doesNotHaveDuplicates();
+            assertThat(replicas.get(0)).isEqualTo(ring.locate(key(i)));
+        }
+        // 超过节点总数时返回全部节点
+        assertThat(ring.locate("a.txt", 10)).containsExactlyInAnyOrder("ftp1", "ftp2", "ftp3", "ftp4");
+    }
+
+    @Test
+    void replicaSetsChangeLittleWhenNodeIsAdded() {
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("ftp1", "ftp2", "ftp3", "ftp4"), VIRTUAL_NODES);
+        ConsistentHashRing after = new ConsistentHashRing(
+                Arrays.asList("ftp1", "ftp2", "ftp3", "ftp4", "ftp5"), VIRTUAL_NODES);
+        for (int i = 0; i < KEYS; i++) {
+            List<String> oldReplicas = before.locate(key(i), 2);
+            List<String> newReplicas = after.locate(key(i), 2);
+            // 新节点插入到副本序列中，其余副本保持原来的相对顺序
+            List<String> withoutNew = new ArrayList<>(newReplicas);
+            withoutNew.remove("ftp5");
+            assertThat(oldReplicas).startsWith(withoutNew.toArray(new String[0]));
+        }
+    }
+
+    @Test
+    void singleVirtualNodeAndEmptyRing() {
+        ConsistentHashRing ring = new ConsistentHashRing(Collections.singletonList("ftp1"), 0);
+        assertThat(ring.locate("a.txt")).isEqualTo("ftp1");
+        assertThat(ring.locate("a.txt", 3)).containsExactly("ftp1");
+        assertThatThrownBy(() -> new ConsistentHashRing(Collections.emptyList(), VIRTUAL_NODES))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static String key(int i) {
+        return "2024/01/01/" + i + "-" + Integer.toHexString(i * 31) + ".bin";
+    }
+}
@@ -0,0 +1,149 @@
+package com.nyx.ftpcdn.service;
+
+import com.nyx.ftpcdn.entity.FileInfo;
+import com.nyx.ftpcdn.mapper.FileInfoMapper;
+import org.apache.ibatis.cursor.Cursor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 搜索索引测试：倒排表的变长编码、乱序ID的合并，以及n-gram倒排表求交集后的搜索结果
+ *
+ * @author nyx
+ */
+class FileSearchIndexTest {
+
+    private FileSearchIndex searchIndex;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        List<FileInfo> files = Arrays.asList(
+                file(1L, "report.pdf", "annual", 1),
+                file(2L, "monthly report.txt", null, 2),
+                file(3L, "photo.jpg", "report attached", 3),
+                file(4L, "rep.txt", "", 4),
+                file(5L, "Report", null, 5));
+        Cursor<FileInfo> cursor = mock(Cursor.class);
+        when(cursor.iterator()).thenReturn(files.iterator());
+        FileInfoMapper mapper = mock(FileInfoMapper.class);
+        when(mapper.scanSearchFields()).thenReturn(cursor);
+
+        searchIndex = new FileSearchIndex();
+        ReflectionTestUtils.setField(searchIndex, "fileInfoMapper", mapper);
+        ReflectionTestUtils.setField(searchIndex, "transactionManager", mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.invokeMethod(searchIndex, "build");
+    }
+
+    @Test
+    void postingRoundTripsVarintDeltas() {
+        FileSearchIndex.Posting posting = new FileSearchIndex.Posting();
+        long[] ids = {1, 127, 128, 16384, 1L << 40};
+        for (long id : ids) {
+            posting.add(id);
+        }
+        assertThat(posting.decode()).containsExactly(ids);
+        // 差值 1、126、1、16256、2^40-16384 分别占 1、1、1、2、6 字节
+        assertThat(posting.byteSize()).isEqualTo(11);
+        assertThat(posting.size()).isEqualTo(5);
+    }
+
+    @Test
+    void outOfOrderIdsAreBufferedAndMergedWithoutDuplicates() {
+        FileSearchIndex.Posting posting = new FileSearchIndex.Posting();
+        posting.add(10);
+        posting.add(20);
+        posting.add(30);
+        int encodedLength = posting.length;
+
+        posting.add(15);
+        posting.add(20);
+        posting.add(5);
+        posting.add(15);
+        posting.add(30);
+        // 乱序ID不改动已编码的数据
+        assertThat(posting.length).isEqualTo(encodedLength);
+        assertThat(posting.decode()).containsExactly(5, 10, 15, 20, 30);
+
+        posting.compact();
+        assertThat(posting.pendingCount).isZero();
+        assertThat(posting.count).isEqualTo(5);
+        assertThat(posting.decode()).containsExactly(5, 10, 15, 20, 30);
+
+        posting.add(40);
+        assertThat(posting.decode()).containsExactly(5, 10, 15, 20, 30, 40);
+    }
+
+    @Test
+    void pendingBufferIsCompactedOnceLarge() {
+        FileSearchIndex.Posting posting = new FileSearchIndex.Posting();
+        posting.add(1000);
+        for (long id = 16; id >= 1; id--) {
+            posting.add(id);
+        }
+        assertThat(posting.pendingCount).isEqualTo(16);
+
+        posting.add(500);
+        assertThat(posting.pendingCount).isZero();
+        assertThat(posting.count).isEqualTo(18);
+        assertThat(posting.decode()).startsWith(1, 2, 3).endsWith(16, 500, 1000);
+    }
+
+    @Test
+    void searchIntersectsTrigramsAndRanksByMatchPosition() {
+        FileSearchIndex.SearchResult result = searchIndex.search("Report", 0, 10);
+        // 文件名相同 > 文件名前缀 > 文件名包含 > 仅描述包含；"rep.txt" 不含全部三元组
+        assertThat(result.getIds()).containsExactly(5L, 1L, 2L, 3L);
+        assertThat(result.getTotal()).isEqualTo(4);
+
+        assertThat(searchIndex.search("rep", 0, 10).getIds()).containsExactly(5L, 4L, 1L, 2L, 3L);
+        assertThat(searchIndex.search("tx", 0, 10).getIds()).containsExactly(4L, 2L);
+        assertThat(searchIndex.search("j", 0, 10).getIds()).containsExactly(3L);
+        assertThat(searchIndex.search("reports", 0, 10).getIds()).isEmpty();
+    }
+
+    @Test
+    void updatesOfOlderFilesAreFoundAfterOutOfOrderInsert() {
+        searchIndex.index(Collections.singletonList(file(1L, "summary.pdf", null, 1)));
+        assertThat(searchIndex.search("report", 0, 10).getIds()).containsExactly(5L, 2L, 3L);
+
+        // ID 1 小于各倒排表的末尾ID，进入待合并缓冲区
+        searchIndex.index(Collections.singletonList(file(1L, "report-v2.pdf", null, 1)));
+        assertThat(searchIndex.search("report", 0, 10).getIds()).containsExactly(5L, 1L, 2L, 3L);
+        assertThat(searchIndex.search("summary", 0, 10).getIds()).isEmpty();
+
+        searchIndex.remove(Collections.singletonList(2L));
+        assertThat(searchIndex.search("report", 0, 10).getIds()).containsExactly(5L, 1L, 3L);
+    }
+
+    @Test
+    void cursorPagingContinuesAfterLastResult() {
+        FileSearchIndex.SearchResult first = searchIndex.search("rep", null, 2);
+        assertThat(first.getIds()).containsExactly(5L, 4L);
+        assertThat(first.getNextCursor()).isNotNull();
+
+        FileSearchIndex.SearchResult second = searchIndex.search("rep", first.getNextCursor(), 3);
+        assertThat(second.getIds()).containsExactly(1L, 2L, 3L);
+        assertThat(second.getNextCursor()).isNull();
+    }
+
+    private static FileInfo file(long id, String name, String description, int day) {
+        FileInfo fileInfo = new FileInfo();
+        fileInfo.setId(id);
+        fileInfo.setOriginalFileName(name);
+        fileInfo.setDescription(description);
+        fileInfo.setUploadTime(LocalDateTime.of(2024, 1, day, 0, 0));
+        return fileInfo;
+    }
+}